@@ -1,16 +1,23 @@
 package libsvm;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.BitSet;
 
 public class LIBSVMModel {
 
 	public static String defaultPath = "/home/brendan/libsvm-3.12/";
 	private File modelFile = null;
-	
+
+	private String kernelType = null;
+	private BitSet supportVectorFeatures = null; //Features with a non-zero value in at least one support vector
+
 	public LIBSVMModel(File file) {
 		this.modelFile = file;
 	}
-	
+
 	/**
 	 * Obtain the absolute path to the file containing the model
 	 * @return
@@ -18,4 +25,106 @@ public class LIBSVMModel {
 	public String getModelPath() {
 		return modelFile.getAbsolutePath();
 	}
+
+	/**
+	 * The kernel type named in the model file, for instance "rbf" or "linear"
+	 * @return
+	 * @throws IOException
+	 */
+	public String getKernelType() throws IOException {
+		if (kernelType == null) {
+			readSupportVectors();
+		}
+		return kernelType;
+	}
+
+	/**
+	 * The indices of all features that are non-zero in at least one support vector
+	 * @return
+	 * @throws IOException
+	 */
+	public BitSet getSupportVectorFeatures() throws IOException {
+		if (supportVectorFeatures == null) {
+			readSupportVectors();
+		}
+		return supportVectorFeatures;
+	}
+
+	/**
+	 * Largest feature index used by any support vector, or 0 if there are none
+	 * @return
+	 * @throws IOException
+	 */
+	public int getMaxFeatureIndex() throws IOException {
+		return Math.max(0, getSupportVectorFeatures().length()-1);
+	}
+
+	/**
+	 * The indices of the features that can affect the output of the model, or null if that may be all of them.
+	 * With linear, polynomial and sigmoid kernels the data only enter through their dot product with
+	 * each support vector, so a feature that is zero in every support vector has no effect and need not be
+	 * computed. That isn't true of the rbf kernel, which depends on the distance between the data and each
+	 * support vector.
+	 * @return
+	 * @throws IOException
+	 */
+	public BitSet getUsedFeatures() throws IOException {
+		String kernel = getKernelType();
+		if (kernel.equals("linear") || kernel.equals("polynomial") || kernel.equals("sigmoid")) {
+			return getSupportVectorFeatures();
+		}
+		return null;
+	}
+
+	/**
+	 * Read the header and support vectors of the model file, which look like
+	 * kernel_type rbf
+	 * ...
+	 * SV
+	 * coefficient(s) index:value index:value ...
+	 * @throws IOException
+	 */
+	private void readSupportVectors() throws IOException {
+		BitSet features = new BitSet();
+		String kernel = null;
+		BufferedReader reader = new BufferedReader(new FileReader(modelFile));
+		try {
+			String line = reader.readLine();
+			while(line != null && !line.trim().equals("SV")) {
+				if (line.startsWith("kernel_type")) {
+					kernel = line.substring("kernel_type".length()).trim();
+				}
+				line = reader.readLine();
+			}
+			if (line == null || kernel == null) {
+				throw new IOException("File " + modelFile.getName() + " does not appear to be a libsvm model");
+			}
+
+			line = reader.readLine();
+			while(line != null) {
+				String[] toks = line.trim().split("\\s+");
+				for(int i=0; i<toks.length; i++) {
+					int colon = toks[i].indexOf(':');
+					if (colon < 0)
+						continue; //One of the coefficients
+					try {
+						int index = Integer.parseInt(toks[i].substring(0, colon));
+						double value = Double.parseDouble(toks[i].substring(colon+1));
+						if (value != 0 && index >= 0) {
+							features.set(index);
+						}
+					}
+					catch (NumberFormatException ex) {
+						throw new IOException("Invalid support vector in model " + modelFile.getName() + " : " + toks[i]);
+					}
+				}
+				line = reader.readLine();
+			}
+		}
+		finally {
+			reader.close();
+		}
+		kernelType = kernel;
+		supportVectorFeatures = features;
+	}
 }
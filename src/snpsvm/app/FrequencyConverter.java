@@ -0,0 +1,57 @@
+package snpsvm.app;
+
+import java.io.File;
+import java.io.IOException;
+
+import snpsvm.bamreading.FrequencyTrack;
+import snpsvm.counters.TGPCounter;
+
+/**
+ * Module that converts a text file of known variant frequencies (such as 1000G.freqdata.csv) to the
+ * binary form read by the TGPCounter. This only needs to be done once.
+ * @author brendan
+ *
+ */
+public class FrequencyConverter extends AbstractModule {
+
+	@Override
+	public boolean matchesModuleName(String name) {
+		return name.equalsIgnoreCase("convert-freqs");
+	}
+
+	@Override
+	public void performOperation(String name, ArgParser args) {
+		String inputPath;
+		try {
+			inputPath = getRequiredStringArg(args, "-I", "Missing required argument for input frequency file, use -I");
+		} catch (MissingArgumentException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+
+		File input = new File(inputPath);
+		if (!input.exists()) {
+			System.err.println("Input file " + input.getAbsolutePath() + " not found");
+			return;
+		}
+
+		String outputPath = getOptionalStringArg(args, "-O");
+		File output = outputPath != null ? new File(outputPath) : new File(input.getAbsolutePath() + FrequencyTrack.SUFFIX);
+
+		System.out.println("Converting " + input.getName() + " to " + output.getName());
+		try {
+			long sites = FrequencyTrack.convert(input, output);
+			System.out.println("Wrote " + sites + " sites to " + output.getAbsolutePath());
+			System.out.println("To use it, run : java -jar snpsvm.jar config -add " + TGPCounter.FREQ_FILE_PROPERTY + "=" + output.getAbsolutePath());
+		} catch (IOException e) {
+			System.err.println("There was an error converting " + input.getName() + " : " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void emitUsage() {
+		System.out.println("Frequency converter module : converts a file of known variant frequencies for use by the 1000G.freq feature");
+		System.out.println(" -I input file, tab-separated with contig, position and frequency in columns 1, 2 and 6");
+		System.out.println(" -O [input file" + FrequencyTrack.SUFFIX + "] output file");
+	}
+}
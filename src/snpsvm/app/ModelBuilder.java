@@ -14,6 +14,7 @@ import snpsvm.bamreading.intervalProcessing.IntervalList;
 import snpsvm.bamreading.intervalProcessing.IntervalList.Interval;
 import snpsvm.counters.ColumnComputer;
 import snpsvm.counters.CounterSource;
+import snpsvm.counters.FeatureManifest;
 
 /**
  * This module is used to train a svm and build a model that can be used to call variants in future data sets.
@@ -175,8 +176,13 @@ public class ModelBuilder extends AbstractModule {
 		LIBSVMTrain trainer = new LIBSVMTrain();
 		LIBSVMModel model = trainer.createModel(trainingFile, modelFile, false);
 		
+		//Record the features used so the predictor can compute the same ones, in the same order
+		File manifestFile = FeatureManifest.getManifestFile(modelFile);
+		FeatureManifest.fromCounters(counters).write(manifestFile);
+		
 		System.out.println("\n Created training data file: " + trainingFile);
 		System.out.println(" Created model file: " + modelFile);
+		System.out.println(" Created feature manifest: " + manifestFile);
 	}
 
 	/**
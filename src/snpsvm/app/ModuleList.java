@@ -36,6 +36,8 @@ public class ModuleList {
 		modules.add(new ConfigModule());
 		modules.add(new CoverageModule());
 		modules.add(new Emitter());
+		modules.add(new ReferencePreparer());
+		modules.add(new FrequencyConverter());
 		
 	}
 	
@@ -2,10 +2,14 @@ package snpsvm.app;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executors;
@@ -16,15 +20,20 @@ import javax.swing.Timer;
 import libsvm.LIBSVMModel;
 import snpsvm.bamreading.BAMWindowStore;
 import snpsvm.bamreading.CallingOptions;
+import snpsvm.bamreading.ContigDictionary;
 import snpsvm.bamreading.FastaIndex.IndexNotFoundException;
-import snpsvm.bamreading.FastaReader2;
+import snpsvm.bamreading.SharedReference;
 import snpsvm.bamreading.intervalProcessing.IntervalList;
 import snpsvm.bamreading.intervalProcessing.IntervalList.Interval;
 import snpsvm.bamreading.snpCalling.IntervalSNPCaller;
+import snpsvm.bamreading.snpCalling.MultiSampleIntervalCaller;
+import snpsvm.bamreading.snpCalling.StreamingSNPCaller;
+import snpsvm.bamreading.variant.MultiSampleVariant;
 import snpsvm.bamreading.variant.VCFVariantEmitter;
 import snpsvm.bamreading.variant.Variant;
 import snpsvm.counters.ColumnComputer;
 import snpsvm.counters.CounterSource;
+import snpsvm.counters.FeatureManifest;
 
 /**
  * Module that calls SNPs from an existing model. 
@@ -97,8 +106,25 @@ public class Predictor extends AbstractModule {
 		File model = new File(modelPath);
 		File vcf = new File(vcfPath);
 		
+		//An input BAM of '-' means read a coordinate sorted BAM from stdin
+		boolean streamInput = inputBAMPath.equals("-");
+		
+		//Several comma-separated BAMs are called jointly, one sample per BAM
+		File[] inputBAMs = null;
+		if (inputBAMPath.contains(",")) {
+			String[] paths = inputBAMPath.split(",");
+			inputBAMs = new File[paths.length];
+			for(int i=0; i<paths.length; i++) {
+				inputBAMs[i] = new File(paths[i].trim());
+				if (! inputBAMs[i].exists()) {
+					System.err.println("Input .BAM file " + inputBAMs[i].getAbsolutePath() + " not found");
+					return;
+				}
+			}
+		}
+		
 		//Some error checking...make sure files exist
-		if (!inputBAM.exists()) {
+		if (!streamInput && inputBAMs == null && !inputBAM.exists()) {
 			System.err.println("Input .BAM file " + inputBAM.getAbsolutePath() + " not found");
 			return;
 		}
@@ -115,7 +141,7 @@ public class Predictor extends AbstractModule {
 		//If no interval list supplied create one from the reference
 		if (intervals == null) {
 			try {
-				intervals = (new FastaReader2(reference)).toIntervals();
+				intervals = SharedReference.forReference(reference).toIntervals();
 			} catch (IOException e) {
 				System.err.println("There was an error reading the reference file, cannot proceed.");
 			} catch (IndexNotFoundException e) {
@@ -137,12 +163,42 @@ public class Predictor extends AbstractModule {
 			ops.setMinVariantDepth((int)Math.floor(minVarDepthDub));
 		}
 		
+		Integer maxDepth = getOptionalIntegerArg(args, "-ds");
+		if (maxDepth != null) {
+			ops.setMaxReadDepth(maxDepth);
+		}
+		Integer seed = getOptionalIntegerArg(args, "-seed");
+		if (seed != null) {
+			ops.setDownsampleSeed(seed);
+		}
+		ops.setStrandBalancedDownsampling( args.hasOption("-dsstrand") );
+		Integer mergeGap = getOptionalIntegerArg(args, "-mergegap");
+		if (mergeGap != null) {
+			ops.setQueryMergeGap(mergeGap);
+		}
+		Integer prefetch = getOptionalIntegerArg(args, "-prefetch");
+		if (prefetch != null) {
+			ops.setPrefetchRecords(prefetch);
+		}
+		
 		emitProgress = ! args.hasOption("-quiet");
 		
+		if (! configureCounters(model, args.hasOption("-x"), args.hasOption("-allowstale"))) {
+			return;
+		}
+		
 		ops.setRemoveTempFiles( ! args.hasOption("-preserve") );
 		
 		try {
-			callSNPs(inputBAM, reference, model, vcf, intervals, ops);
+			if (streamInput) {
+				callSNPsFromStream(new BufferedInputStream(System.in), reference, model, vcf, intervals, ops);
+			}
+			else if (inputBAMs != null) {
+				callSNPsMultiSample(inputBAMs, reference, model, vcf, intervals, ops);
+			}
+			else {
+				callSNPs(inputBAM, reference, model, vcf, intervals, ops);
+			}
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -154,6 +210,61 @@ public class Predictor extends AbstractModule {
 		}
 	}
 	
+	/**
+	 * Set up CounterSource to compute the features listed in the manifest stored with the model, skipping any
+	 * the model doesn't actually use, and check that the model matches the features that will be computed.
+	 * Models without a manifest are assumed to have been built with the current default features.
+	 * Returns false, after emitting a message, if the model can't be used 
+	 * @param modelFile
+	 * @param columnsExcluded True if the user has excluded columns with -x
+	 * @param allowStale True if features computed differently from when the model was trained may be used (-allowstale)
+	 * @return
+	 */
+	protected boolean configureCounters(File modelFile, boolean columnsExcluded, boolean allowStale) {
+		LIBSVMModel model = new LIBSVMModel(modelFile);
+		File manifestFile = FeatureManifest.getManifestFile(modelFile);
+		try {
+			if (manifestFile.exists()) {
+				FeatureManifest manifest = FeatureManifest.read(manifestFile);
+				List<String> stale = manifest.validate(allowStale);
+				for(String feature : stale) {
+					System.err.println("Warning, feature " + feature + " is computed differently from when the model was trained, results may be less accurate");
+				}
+				if (model.getMaxFeatureIndex() > manifest.getColumnCount()) {
+					System.err.println("Model " + modelFile.getName() + " uses " + model.getMaxFeatureIndex() + " features but its manifest lists only " + manifest.getColumnCount() + ", cannot proceed.");
+					return false;
+				}
+				if (columnsExcluded) {
+					System.err.println("Warning, ignoring excluded columns, the features are determined by the model manifest");
+				}
+				
+				BitSet usedFeatures = model.getUsedFeatures();
+				CounterSource.useManifest(manifest, usedFeatures);
+				if (usedFeatures != null && emitProgress) {
+					System.out.println("Model uses " + usedFeatures.cardinality() + " of " + manifest.getColumnCount() + " features");
+				}
+			}
+			else {
+				System.err.println("Warning, no feature manifest found for model " + modelFile.getName() + ", assuming it was built with the current features");
+				int columns = 0;
+				for(ColumnComputer counter : CounterSource.getCounters()) {
+					columns += counter.getColumnCount();
+				}
+				if (model.getMaxFeatureIndex() > columns) {
+					System.err.println("Model " + modelFile.getName() + " uses " + model.getMaxFeatureIndex() + " features but only " + columns + " are computed, cannot proceed.");
+					return false;
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Error reading model " + modelFile.getName() + " : " + e.getMessage());
+			return false;
+		} catch (IllegalArgumentException e) {
+			System.err.println("Model " + modelFile.getName() + " does not match the features computed by this version : " + e.getMessage());
+			return false;
+		}
+		return true;
+	}
+	
 	/**
 	 * Create a new interval list with no intervals extending beyond the range given
 	 * in the reference file
@@ -164,7 +275,7 @@ public class Predictor extends AbstractModule {
 	 * @throws IndexNotFoundException 
 	 */
 	protected static IntervalList validateIntervals(File reference, IntervalList intervals) throws IOException, IndexNotFoundException {
-		FastaReader2 refReader = new FastaReader2(reference);
+		SharedReference refReader = SharedReference.forReference(reference);
 		IntervalList newIntervals = new IntervalList();
 		for(String contig : intervals.getContigs()) {
 			if (! refReader.containsContig(contig)) {
@@ -180,10 +291,58 @@ public class Predictor extends AbstractModule {
 			}
 		}
 		
+		//Process contigs in reference order, so results come out that way too
+		newIntervals.sortContigs(ContigDictionary.forReference(reference));
+		
 		
 		return newIntervals;
 	}
 	
+	/**
+	 * Call SNPs from a coordinate sorted BAM read from the given stream in a single pass, without an index,
+	 * writing variants to the destination as they're called
+	 * @param input
+	 * @param ref
+	 * @param model
+	 * @param destination
+	 * @param intervals
+	 * @param ops
+	 * @throws IOException
+	 * @throws IndexNotFoundException
+	 */
+	public void callSNPsFromStream(InputStream input,
+			File ref,
+			File model,
+			File destination,
+			IntervalList intervals,
+			CallingOptions ops) throws IOException, IndexNotFoundException {
+		
+		if (intervals != null)
+			intervals = validateIntervals(ref, intervals);
+		
+		int threads= CommandLineApp.configModule.getThreadCount();
+		
+		if (emitProgress) {
+			System.out.println("Calling SNPs from streamed input over " + intervals.getExtent() + " bases with " + threads + " threads");
+		}
+		
+		PrintStream writer = new PrintStream(new FileOutputStream(destination));
+		VCFVariantEmitter vcfWriter = new VCFVariantEmitter();
+		vcfWriter.writeHeader(writer, SharedReference.forReference(ref), destination.getName().replace(".vcf", ""), new LIBSVMModel(model));
+		
+		StreamingSNPCaller caller = new StreamingSNPCaller(ref, model, ops, threads);
+		try {
+			caller.callVariants(input, intervals, writer);
+		}
+		finally {
+			writer.close();
+		}
+		
+		if (emitProgress) {
+			System.out.println("Wrote " + caller.getVariantsWritten() + " variants to " + destination.getName());
+		}
+	}
+	
 	public void callSNPs(File inputBAM, 
 			File ref,
 			File model,
@@ -245,7 +404,7 @@ public class Predictor extends AbstractModule {
 		
 		VCFVariantEmitter vcfWriter = new VCFVariantEmitter();
 		try {
-			vcfWriter.writeHeader(writer, new FastaReader2(ref), inputBAM.getName().replace(".bam", ""), new LIBSVMModel(model));
+			vcfWriter.writeHeader(writer, SharedReference.forReference(ref), inputBAM.getName().replace(".bam", ""), new LIBSVMModel(model));
 			vcfWriter.writeVariants(allVars, writer);
 		} catch (IndexNotFoundException e) {
 			e.printStackTrace();
@@ -254,19 +413,98 @@ public class Predictor extends AbstractModule {
 		writer.close();
 	}
 
+	/**
+	 * Call SNPs jointly in several BAM files, reading all of them in a single pass over the intervals, and write
+	 * a VCF with one column per BAM. Sample names are taken from the BAM file names
+	 * @param inputBAMs
+	 * @param ref
+	 * @param model
+	 * @param destination
+	 * @param intervals
+	 * @param ops
+	 * @throws IOException
+	 * @throws IndexNotFoundException
+	 */
+	public void callSNPsMultiSample(File[] inputBAMs,
+			File ref,
+			File model,
+			File destination,
+			IntervalList intervals,
+			CallingOptions ops) throws IOException, IndexNotFoundException {
+		
+		if (intervals != null)
+			intervals = validateIntervals(ref, intervals);
+		
+		int threads= CommandLineApp.configModule.getThreadCount();
+		BAMWindowStore[] bamWindows = new BAMWindowStore[inputBAMs.length];
+		List<String> sampleNames = new ArrayList<String>();
+		for(int i=0; i<inputBAMs.length; i++) {
+			bamWindows[i] = new BAMWindowStore(inputBAMs[i], threads);
+			sampleNames.add(inputBAMs[i].getName().replace(".bam", ""));
+		}
+		
+		Timer progressTimer = null;
+		final long intervalExtent = intervals.getExtent();
+		
+		ThreadPoolExecutor threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads);
+		final MultiSampleIntervalCaller caller = new MultiSampleIntervalCaller(threadPool, ops, ref, model, bamWindows);
+		caller.submitAll(intervals);
+		
+		if (emitProgress) {
+			System.out.println("Calling SNPs in " + inputBAMs.length + " samples over " + intervals.getExtent() + " bases with " + threads + " threads in " + caller.getCallerCount() + " chunks");
+
+			progressTimer = new javax.swing.Timer(100, new ActionListener() {
+
+				@Override
+				public void actionPerformed(ActionEvent arg0) {
+					emitProgressString(caller, intervalExtent);
+				}
+			});
+			progressTimer.setDelay(419);
+			progressTimer.start();
+		}
+		
+		//Blocks until all variants are called
+		List<MultiSampleVariant> allVars = caller.getResult();
+		
+		if (emitProgress) {
+			emitProgressString(caller, intervalExtent);
+		}
+		if (progressTimer != null)
+			progressTimer.stop();
+		
+		Collections.sort(allVars);
+		
+		PrintStream writer = new PrintStream(new FileOutputStream(destination));
+		VCFVariantEmitter vcfWriter = new VCFVariantEmitter();
+		try {
+			vcfWriter.writeHeader(writer, SharedReference.forReference(ref), sampleNames, new LIBSVMModel(model));
+			vcfWriter.writeMultiSampleVariants(allVars, ops.getMinQuality(), writer);
+		}
+		finally {
+			writer.close();
+		}
+	}
 	
 	@Override
 	public void emitUsage() {
 		System.out.println("Predictor (SNP caller) module");
 		System.out.println(" -R reference file");
-		System.out.println(" -B input BAM file");
+		System.out.println(" -B input BAM file, or - to read a coordinate sorted BAM from stdin (no index needed),");
+		System.out.println("    or several comma-separated BAM files to call jointly, one sample per file");
 		System.out.println(" -V output variant file");
 		System.out.println(" -M model file produced by buildmodel");
 		System.out.println(" ---- Optional arguments -----");
 		System.out.println(" -q [1.0] minimum Phred-scaled quality to report variant");
 		System.out.println(" -d [2] minimum total depth to examine for variant");
 		System.out.println(" -v [2] minimum reads with variant allele required for variant calling");
+		System.out.println(" -ds [none] downsample reads so that depth is approximately this value at every site");
+		System.out.println(" -seed [1] random seed used for downsampling, the same seed always keeps the same reads");
+		System.out.println(" -dsstrand [false] balance forward and reverse strand reads when downsampling");
+		System.out.println(" -prefetch [none] read this many BAM records ahead on a background thread");
+		System.out.println(" -mergegap [1000] intervals closer than this many bases are read with a single BAM query");
 		System.out.println(" -quiet [false] do not emit progress to std. out");
+		System.out.println(" -allowstale [false] use a model even if some of its features are now computed differently (with a warning)");
 	}
 
 }
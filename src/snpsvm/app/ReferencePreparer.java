@@ -0,0 +1,74 @@
+package snpsvm.app;
+
+import java.io.File;
+import java.io.IOException;
+
+import snpsvm.bamreading.FastaIndex.IndexNotFoundException;
+import snpsvm.bamreading.ReferenceContext;
+import snpsvm.bamreading.SharedReference;
+
+/**
+ * Module that does the one-time preparation of a reference: writes the packed copy of the reference
+ * and computes the context track used by the sequence-context counters. Both are written next to the FASTA
+ * and picked up automatically by later runs.
+ * @author brendan
+ *
+ */
+public class ReferencePreparer extends AbstractModule {
+
+	@Override
+	public boolean matchesModuleName(String name) {
+		return name.equalsIgnoreCase("prepare-reference") || name.equalsIgnoreCase("prepare");
+	}
+
+	@Override
+	public void performOperation(String name, ArgParser args) {
+		String referencePath;
+		try {
+			referencePath = getRequiredStringArg(args, "-R", "Missing required argument for reference file, use -R");
+		} catch (MissingArgumentException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+
+		File reference = new File(referencePath);
+		if (!reference.exists()) {
+			System.err.println("Reference file " + reference.getAbsolutePath() + " not found");
+			return;
+		}
+
+		SharedReference shared;
+		try {
+			shared = SharedReference.forReference(reference);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("There was an error reading the reference file, cannot proceed.");
+			return;
+		} catch (IndexNotFoundException e) {
+			System.err.println("No index found for the reference file, please create one using samtools faidx.");
+			return;
+		}
+		if (! shared.isPacked()) {
+			System.err.println("Could not create packed reference, cannot proceed.");
+			return;
+		}
+
+		int threads = CommandLineApp.configModule.getThreadCount();
+		File contextFile = new File(reference.getAbsolutePath() + ReferenceContext.SUFFIX);
+		System.out.println("Computing context track for " + reference.getName() + " with " + threads + " threads");
+		try {
+			ReferenceContext.build(shared, contextFile, threads);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("There was an error writing the context track " + contextFile.getAbsolutePath());
+			return;
+		}
+		System.out.println("Wrote " + shared.getPackedReference().getFile().getName() + " and " + contextFile.getName());
+	}
+
+	@Override
+	public void emitUsage() {
+		System.out.println("Prepare reference module : packs the reference and precomputes sequence context features");
+		System.out.println(" -R reference file");
+	}
+}
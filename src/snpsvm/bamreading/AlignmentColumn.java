@@ -25,6 +25,9 @@ public class AlignmentColumn {
 	private int currentDepth = 0;
 	private boolean dirty = true; //Flag is set when we advance to indicate that current info in bases[] is wrong
 	
+	private final ColumnSummary summary = new ColumnSummary();
+	private boolean summaryDirty = true; //Like dirty, but for the summary
+	
 	public AlignmentColumn(BamWindow bamWindow) {
 		bam = bamWindow;
 	}
@@ -147,6 +150,23 @@ public class AlignmentColumn {
 		return str.toString();
 	}
 	
+	/**
+	 * Obtain totals of base counts, qualities, read positions etc. for the reads at the current position, computed
+	 * in a single pass over the reads the first time this is called at each site. Counters should
+	 * use this instead of iterating over the reads themselves. The returned object is reused, and
+	 * its contents change when the column advances
+	 * @param refBase Reference base at the current position
+	 * @param window Reference window, used for read mismatch counts
+	 * @return
+	 */
+	public ColumnSummary getSummary(char refBase, FastaWindow window) {
+		if (summaryDirty || summary.getRefBase() != refBase) {
+			summary.compute(this, refBase, window);
+			summaryDirty = false;
+		}
+		return summary;
+	}
+	
 	public int getCurrentPosition() {
 		return bam.getCurrentPosition();
 	}
@@ -162,22 +182,34 @@ public class AlignmentColumn {
 	public void advance() {
 		bam.advanceBy(1);
 		dirty = true;
+		summaryDirty = true;
 	}
 	
 	public void advance(int bases) {
 		bam.advanceBy(bases);
 		dirty = true;
+		summaryDirty = true;
 	}
 	
 	public void advanceTo(String contig, int pos) {
 		bam.advanceTo(contig, pos);
 		dirty = true;
+		summaryDirty = true;
 	}
 	
 	public boolean hasMoreReadsInCurrentContig() {
 		return bam.hasMoreReadsInCurrentContig();
 	}
 	
+	/**
+	 * Reference position of the start of the next read to enter the column, or -1 if there are
+	 * no more reads in the current contig
+	 * @return
+	 */
+	public int getNextReadStart() {
+		return bam.getNextRecordStart();
+	}
+	
 	private void calculateBases() {
 		Iterator<MappedRead> it = bam.getIterator();
 
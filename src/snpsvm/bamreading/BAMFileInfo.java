@@ -0,0 +1,164 @@
+package snpsvm.bamreading;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+
+/**
+ * Immutable information about a BAM file (header, sequence dictionary, contig lengths and the
+ * location of the index) that is read once and then shared by every BamWindow reading the file, so
+ * that opening a new window doesn't mean parsing all of this again. Obtain instances with getInfo(file)
+ * @author brendan
+ *
+ */
+public class BAMFileInfo {
+
+	public static final int BAI_MAX_POSITION = 1 << 29; //.bai indexes can't address positions beyond this
+	
+	private static final Map<String, BAMFileInfo> cache = new HashMap<String, BAMFileInfo>();
+
+	private final File bamFile;
+	private final File indexFile; //May be null if we couldn't find an index
+	private CSIIndex csiIndex = null; //Used instead of indexFile when there's a CSI index and no usable .bai
+	private final SAMFileHeader header;
+	private final SAMSequenceDictionary sequenceDict;
+	private final Map<String, Integer> contigLengths;
+
+	private BAMFileInfo(File bamFile) {
+		this.bamFile = bamFile;
+		this.indexFile = findIndex(bamFile);
+
+		SAMFileReader.setDefaultValidationStringency(ValidationStringency.SILENT);
+		SAMFileReader reader = new SAMFileReader(bamFile);
+		reader.setValidationStringency(ValidationStringency.SILENT);
+		header = reader.getFileHeader();
+		reader.close();
+
+		sequenceDict = header.getSequenceDictionary();
+		Map<String, Integer> lengths = new LinkedHashMap<String, Integer>();
+		for(SAMSequenceRecord seqRec : sequenceDict.getSequences()) {
+			lengths.put(seqRec.getSequenceName(), seqRec.getSequenceLength());
+		}
+		contigLengths = Collections.unmodifiableMap(lengths);
+		
+		File csiFile = CSIIndex.findIndex(bamFile);
+		if (csiFile != null && (indexFile == null || getLongestContig() > BAI_MAX_POSITION)) {
+			try {
+				csiIndex = new CSIIndex(csiFile);
+			} catch (IOException e) {
+				System.err.println("Warning, could not read CSI index " + csiFile.getName() + " : " + e.getMessage());
+			}
+		}
+		if (indexFile == null && csiIndex == null) {
+			System.err.println("Warning, no .bai or .csi index found for " + bamFile.getName());
+		}
+		else if (csiIndex == null && getLongestContig() > BAI_MAX_POSITION) {
+			System.err.println("Warning, " + bamFile.getName() + " has contigs longer than a .bai index can handle, reads past " + BAI_MAX_POSITION + " may be missed. Index it with 'samtools index -c' to fix this.");
+		}
+	}
+	
+	private int getLongestContig() {
+		int longest = 0;
+		for(Integer length : contigLengths.values()) {
+			longest = Math.max(longest, length);
+		}
+		return longest;
+	}
+
+	/**
+	 * Obtain the shared info object for the given BAM file, reading it if this is the
+	 * first time it's been requested
+	 * @param bamFile
+	 * @return
+	 */
+	public static synchronized BAMFileInfo getInfo(File bamFile) {
+		String key = bamFile.getAbsolutePath();
+		BAMFileInfo info = cache.get(key);
+		if (info == null) {
+			info = new BAMFileInfo(bamFile);
+			cache.put(key, info);
+		}
+		return info;
+	}
+
+	/**
+	 * Open a new reader for the BAM file. The index is memory mapped, so all readers of the same
+	 * file share the same pages of index data
+	 * @return
+	 */
+	public SAMFileReader openReader() {
+		SAMFileReader reader;
+		if (indexFile != null && csiIndex == null) {
+			reader = new SAMFileReader(bamFile, indexFile);
+		}
+		else {
+			reader = new SAMFileReader(bamFile);
+		}
+		reader.setValidationStringency(ValidationStringency.SILENT);
+		reader.enableIndexMemoryMapping(true);
+		return reader;
+	}
+
+	public File getFile() {
+		return bamFile;
+	}
+
+	public File getIndexFile() {
+		return indexFile;
+	}
+
+	/**
+	 * The CSI index for this file, if we're using one instead of a .bai. If non-null, readers
+	 * returned by openReader() don't have an index, and CSIIndex.getChunks should be used to find reads
+	 * @return
+	 */
+	public CSIIndex getCSIIndex() {
+		return csiIndex;
+	}
+
+	public SAMFileHeader getHeader() {
+		return header;
+	}
+
+	public SAMSequenceDictionary getSequenceDictionary() {
+		return sequenceDict;
+	}
+
+	/**
+	 * Unmodifiable map from contig name to length, in the order the contigs appear in the header
+	 * @return
+	 */
+	public Map<String, Integer> getContigLengths() {
+		return contigLengths;
+	}
+
+	/**
+	 * Look for an index next to the BAM, either file.bam.bai or file.bai
+	 * @param bamFile
+	 * @return
+	 */
+	private static File findIndex(File bamFile) {
+		File index = new File(bamFile.getAbsolutePath() + ".bai");
+		if (index.exists()) {
+			return index;
+		}
+
+		String path = bamFile.getAbsolutePath();
+		if (path.endsWith(".bam")) {
+			index = new File(path.substring(0, path.length()-4) + ".bai");
+			if (index.exists()) {
+				return index;
+			}
+		}
+		return null;
+	}
+}
@@ -1,11 +1,13 @@
 package snpsvm.bamreading;
 
 import java.io.File;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Thread-safe access to a small number of BAMWindows so we're not always creating
- * and destroying them
+ * and destroying them. At most maxWindows windows are ever open at once; callers block
+ * until a window is returned when all of them are in use.
  * @author brendanofallon
  *
  */
@@ -13,34 +15,50 @@ public class BAMWindowStore {
 
 	final int MAX_WINDOWS = 8;
 	private static int initialWindowCount = 2;
-	
-	private File bamSource = null;
-	private Stack<BamWindow> windows = new Stack<BamWindow>();
-	
+
+	private BAMFileInfo bamSource = null;
+	private final List<BamWindow> idleWindows = new ArrayList<BamWindow>();
+	private final int maxWindows; //Upper bound on number of windows open at once
+	private int openWindows = 0; //Number of windows created so far, idle or in use
+
 	public BAMWindowStore(File bamSourceFile, int initialSize) {
-		bamSource = bamSourceFile;
+		bamSource = BAMFileInfo.getInfo(bamSourceFile);
 		initialWindowCount = initialSize;
+		maxWindows = Math.max(MAX_WINDOWS, initialSize);
 		for(int i=0; i<initialWindowCount; i++) {
-			windows.push(new BamWindow(bamSource));
+			idleWindows.add(new BamWindow(bamSource));
+			openWindows++;
 		}
 	}
 
 	/**
-	 * Obtain a new window from the store of windows
+	 * Obtain a window from the store of windows. If no window is idle and the maximum number of windows
+	 * are already open, this blocks until a window is returned
 	 * @return
 	 */
 	public synchronized BamWindow getWindow() {
-		if (windows.isEmpty()) {
-			return new BamWindow(bamSource);
+		while(idleWindows.isEmpty() && openWindows >= maxWindows) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
 		}
-		else {
-			return windows.pop();
+
+		if (idleWindows.isEmpty()) {
+			openWindows++;
+			return new BamWindow(bamSource);
 		}
+		return idleWindows.remove(idleWindows.size()-1);
 	}
-	
+
+	/**
+	 * Return a window obtained from getWindow so that other callers can use it.
+	 * @param window
+	 */
 	public synchronized void returnToStore(BamWindow window) {
-		if (windows.size() < MAX_WINDOWS)
-			windows.push(window);
+		idleWindows.add(window);
+		notifyAll();
 	}
-		
+
 }
@@ -1,20 +1,19 @@
 package snpsvm.bamreading;
 
 import java.io.File;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
-import net.sf.samtools.BrowseableBAMIndex;
-import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.BAMFileSpan;
+import net.sf.samtools.Chunk;
 import net.sf.samtools.SAMFileReader;
-import net.sf.samtools.SAMFileReader.ValidationStringency;
 import net.sf.samtools.SAMRecord;
-import net.sf.samtools.SAMRecordIterator;
 import net.sf.samtools.SAMSequenceDictionary;
-import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.CloseableIterator;
+import util.IntArrayPool;
 
 /**
  * Not really a window, a collections of SAMRecords that covers a particular spot
@@ -25,34 +24,121 @@ import net.sf.samtools.SAMSequenceRecord;
 public class BamWindow {
 
 	public static final boolean DEBUG = false; //Emit some debugging messages (yes, we should have better logging...)
+	public static final int RESEEK_DISTANCE = 65536; //Forward moves longer than this use the index instead of streaming through reads
+	public static final int DOWNSAMPLING_LOOKBEHIND = 1000; //When downsampling, queries start this far before the position wanted, see setDownsampling
 	
-	final File bamFile;
-	final SAMFileReader samReader; 
-	private SAMRecordIterator recordIt; //Iterator for traversing over SAMRecords
+	final File bamFile; //Null if reads come from RecordBatches
+	final SAMFileReader samReader; //Null if reads come from RecordBatches
+	private RecordBatch batch = null; //If non-null, reads come from here instead of samReader
+	private CSIIndex csiIndex = null; //If non-null, used to find reads since samReader has no index
+	private CloseableIterator<SAMRecord> recordIt; //Iterator for traversing over SAMRecords
 	private SAMRecord nextRecord; //The next record to be added to the window, may be null if there are no more
 	
 	private String currentContig = null;
+	private int currentContigIndex = -1; //Index of current contig in the BAM header, so we can compare records' contigs as ints
 	private int currentPos = -1; //In reference coordinates
 	final LinkedList<MappedRead> records = new LinkedList<MappedRead>();
 	private Map<String, Integer> contigMap = null;
 	private SAMSequenceDictionary sequenceDict = null;
+	private ReadDownsampler downsampler = null; //If non-null, used to limit the number of reads admitted to the window
+	private final IntArrayPool mapPool = new IntArrayPool(256); //Recycles the position maps of reads with indels
+	private int prefetchRecords = 0; //If positive, records are read ahead on a background thread
+	private SharedReference reference = null; //If non-null, used to compute per-read features as reads are admitted
+	private String referenceContig = null; //Contig for which referenceContigIndex was looked up
+	private int referenceContigIndex = -1; //Index of the current contig in the reference
+	private final MDTag mdTag = new MDTag(); //Parses MD tags when computing read features
 	
 	public BamWindow(File bamFile) {
-		this.bamFile = bamFile;
+		this(BAMFileInfo.getInfo(bamFile));
+	}
+	
+	/**
+	 * Create a new window that uses the shared header and index information in the given info object,
+	 * so the only new resource created is the reader itself. No reads are read until advanceTo is called
+	 * @param info
+	 */
+	public BamWindow(BAMFileInfo info) {
+		this.bamFile = info.getFile();
 		
-		SAMFileReader.setDefaultValidationStringency(ValidationStringency.SILENT);
-		samReader = new SAMFileReader(bamFile);
-		samReader.setValidationStringency(ValidationStringency.SILENT);
-		SAMFileHeader header = samReader.getFileHeader();
-		sequenceDict = header.getSequenceDictionary();
-		contigMap = new HashMap<String, Integer>();
-		for(SAMSequenceRecord seqRec : sequenceDict.getSequences()) {
-			contigMap.put(seqRec.getSequenceName(), seqRec.getSequenceLength());
+		samReader = info.openReader();
+		csiIndex = info.getCSIIndex();
+		sequenceDict = info.getSequenceDictionary();
+		contigMap = info.getContigLengths();
+	}
+	
+	/**
+	 * Create a window that isn't associated with a BAM file, and instead reads from whatever RecordBatch
+	 * it is given with setRecordBatch. Used when reads are streamed without an index
+	 * @param contigLengths Map from contig name to length for all contigs reads may be on
+	 */
+	public BamWindow(Map<String, Integer> contigLengths) {
+		this.bamFile = null;
+		this.samReader = null;
+		this.contigMap = contigLengths;
+	}
+	
+	/**
+	 * Make this window read from the given batch of reads. The window is cleared, and advanceTo must be called
+	 * with a position in the batch's region before it's used again.
+	 * @param batch
+	 */
+	public void setRecordBatch(RecordBatch batch) {
+		closeIterator();
+		clearRecords();
+		if (downsampler != null)
+			downsampler.reset();
+		nextRecord = null;
+		currentContig = null;
+		currentPos = -1;
+		this.batch = batch;
+	}
+	
+	/**
+	 * Limit the number of reads admitted to this window to approximately targetDepth at any position, by
+	 * randomly choosing among reads that share a start position. The reads kept depend only on the seed, not
+	 * on how the window is moved, see ReadDownsampler. For that every read covering a position must be seen
+	 * before choosing among the reads starting there, so queries begin DOWNSAMPLING_LOOKBEHIND bases early
+	 * (reads longer than that are the exception).
+	 * A targetDepth of zero or less disables downsampling
+	 * @param targetDepth
+	 * @param seed
+	 * @param strandBalanced If true, try to keep equal numbers of forward and reverse strand reads
+	 */
+	public void setDownsampling(int targetDepth, long seed, boolean strandBalanced) {
+		if (targetDepth <= 0) {
+			downsampler = null;
+			return;
 		}
 		
-		
-		recordIt = samReader.iterator();
-		nextRecord = recordIt.next();
+		if (downsampler != null 
+				&& downsampler.getTargetDepth() == targetDepth
+				&& downsampler.getSeed() == seed
+				&& downsampler.isStrandBalanced() == strandBalanced) {
+			return;
+		}
+		downsampler = new ReadDownsampler(targetDepth, seed, strandBalanced);
+	}
+	
+	/**
+	 * Read up to the given number of records ahead on a background thread, so that reading and
+	 * decompressing the BAM overlaps with feature computation. Zero or less disables read-ahead. Takes
+	 * effect at the next contig switch or region query
+	 * @param records
+	 */
+	public void setPrefetch(int records) {
+		this.prefetchRecords = records;
+	}
+	
+	/**
+	 * Count mismatches against the reference (see MappedRead.computeFeatures)
+	 * for every read as it enters the window, using the given reference. Null disables this, in which case
+	 * mismatch counts are computed from the FastaWindow the first time they're needed
+	 * @param reference
+	 */
+	public void setReference(SharedReference reference) {
+		this.reference = reference;
+		referenceContig = null;
+		referenceContigIndex = -1;
 	}
 	
 	public int getCurrentPosition() {
@@ -116,7 +202,20 @@ public class BamWindow {
 	 * @return
 	 */
 	public boolean hasMoreReadsInCurrentContig() {
-		return nextRecord != null && nextRecord.getReferenceName().equals(currentContig);
+		return nextRecord != null && isOnCurrentContig(nextRecord);
+	}
+	
+	/**
+	 * Alignment start of the next record that will be added to the window, or -1 if there
+	 * are no more records in the current contig. Since reads only leave the window as it moves
+	 * forward, the number of reads in the window cannot increase until we reach this position
+	 * @return
+	 */
+	public int getNextRecordStart() {
+		if (! hasMoreReadsInCurrentContig()) {
+			return -1;
+		}
+		return nextRecord.getAlignmentStart();
 	}
 	
 	/**
@@ -153,7 +252,12 @@ public class BamWindow {
 		//Advance to wholly new site
 		//Expand leading edge until the next record is beyond target pos
 		
-		advanceToContig(contig);
+		if (contig.equals(currentContig) && (pos < currentPos || pos - currentPos > RESEEK_DISTANCE)) {
+			//Reads behind us are gone, and streaming a long way forward costs more than a new index query,
+			//so in either case search again from pos
+			currentContig = null;
+		}
+		advanceToContig(contig, pos);
 		
 		if (pos > contigMap.get(contig)) {
 			throw new IllegalArgumentException("Contig " + contig + " has only " + contigMap.get(contig) + " bases, can't advance to " + pos);
@@ -161,7 +265,7 @@ public class BamWindow {
 		
 		
 		if (nextRecord != null) {
-			if (! nextRecord.getReferenceName().equals(currentContig)) {
+			if (! isOnCurrentContig(nextRecord)) {
 				throw new IllegalArgumentException("Whoa! We're not searching the right contig, record contig is : " + contig +  " but current is : " + currentContig);
 			}
 		}
@@ -171,12 +275,14 @@ public class BamWindow {
 		int count = 0;
 		while(nextRecord != null 
 				&& nextRecord.getAlignmentStart() <= pos
-				&& nextRecord.getReferenceName().equals(currentContig)) {
+				&& isOnCurrentContig(nextRecord)) {
 			expand();
 			if (count %128 == 0)
 				shrinkTrailingEdge();
 		}
 		
+		//All reads starting at or before pos have now been seen
+		flushDownsampler();
 		shrinkTrailingEdge();
 	
 		//Nice sanity check...
@@ -198,6 +304,16 @@ public class BamWindow {
 	 * @param contig
 	 */
 	public void advanceToContig(String contig) {
+		advanceToContig(contig, 1);
+	}
+	
+	/**
+	 * Like advanceToContig(contig), but when we need to search for a new contig only reads that overlap
+	 * startPos or beyond are retrieved
+	 * @param contig
+	 * @param startPos
+	 */
+	private void advanceToContig(String contig, int startPos) {
 		if (contig.equals(currentContig)) {
 			return; //Already there
 		}
@@ -209,12 +325,17 @@ public class BamWindow {
 		if (DEBUG)
 			System.err.println("Advancing to contig : " + contig);
 		
-		recordIt.close();
+		closeIterator();
 		currentPos = 0;
-		records.clear();
+		clearRecords();
+		if (downsampler != null)
+			downsampler.reset();
 		
 		int length = contigMap.get(contig);
-		recordIt = samReader.queryOverlapping(contig, 1, length);
+		int queryStart = Math.min(startPos, length);
+		if (downsampler != null)
+			queryStart -= DOWNSAMPLING_LOOKBEHIND;
+		recordIt = query(contig, Math.max(1, queryStart), length);
 		
 		//Going to a new contig, clear current queue
 		
@@ -225,14 +346,42 @@ public class BamWindow {
 			nextRecord = null;
 		}
 		
-		if (nextRecord != null)
+		if (nextRecord != null) {
 			currentContig = contig;
+			currentContigIndex = nextRecord.getReferenceIndex();
+		}
 		else {
 			if (DEBUG)
 				System.err.println("Could not find any reads that mapped to contig : " + contig);
 		}
 	}
 	
+	/**
+	 * Obtain an iterator over all records overlapping the given region, for callers that want to stream
+	 * through reads without building up a window. This clears the window, so advanceTo must be called
+	 * before the window is used again (which will also close the returned iterator)
+	 * @param contig
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public Iterator<SAMRecord> queryRegion(String contig, int start, int end) {
+		if (! contigMap.containsKey(contig)) {
+			throw new IllegalArgumentException("Unrecognized contig name : "  + contig);
+		}
+		
+		closeIterator();
+		clearRecords();
+		if (downsampler != null)
+			downsampler.reset();
+		nextRecord = null;
+		currentContig = null;
+		currentPos = -1;
+		
+		recordIt = query(contig, Math.max(1, start), Math.min(end, contigMap.get(contig)));
+		return recordIt;
+	}
+	
 	public int getLeadingEdgePos() {
 		return records.getFirst().getRecord().getAlignmentEnd();
 	}
@@ -255,7 +404,7 @@ public class BamWindow {
 			return;
 		
 		//System.out.println("Pushing record starting at : " + nextRecord.getAlignmentStart());
-		records.push(new MappedRead(nextRecord));
+		admit(nextRecord);
 		
 		//Find next suitable record
 		try {
@@ -277,6 +426,106 @@ public class BamWindow {
 	}
 
 	
+	/**
+	 * Add the given record to the window, or to the downsampler if we're downsampling
+	 * @param rec
+	 */
+	private void admit(SAMRecord rec) {
+		if (downsampler == null) {
+			records.push(newRead(rec));
+			return;
+		}
+		
+		if (! downsampler.isInGroup(rec)) {
+			flushDownsampler();
+			downsampler.beginGroup(rec.getReferenceIndex(), rec.getAlignmentStart());
+		}
+		downsampler.offer(rec);
+	}
+	
+	/**
+	 * Move all reads chosen by the downsampler into the window
+	 */
+	private void flushDownsampler() {
+		if (downsampler == null)
+			return;
+		
+		int kept = downsampler.finishGroup();
+		for(int i=0; i<kept; i++) {
+			records.push(newRead(downsampler.getKept(i)));
+		}
+	}
+	
+	/**
+	 * Create the MappedRead for a record entering the window, computing its per-read features if we have a reference
+	 */
+	private MappedRead newRead(SAMRecord rec) {
+		MappedRead read = new MappedRead(rec, mapPool);
+		if (reference != null) {
+			if (currentContig != referenceContig) {
+				referenceContig = currentContig;
+				referenceContigIndex = currentContig == null ? -1 : reference.getContigIndex(currentContig);
+			}
+			if (referenceContigIndex > -1) {
+				read.computeFeatures(reference, referenceContigIndex, mdTag);
+			}
+		}
+		return read;
+	}
+	
+	/**
+	 * True if the record is on the current contig. Compares the reference index of the record
+	 * instead of its name, since this happens for every record
+	 */
+	private boolean isOnCurrentContig(SAMRecord rec) {
+		return currentContig != null && rec.getReferenceIndex().intValue() == currentContigIndex;
+	}
+	
+	/**
+	 * Query the reader for all records overlapping the region, reading ahead in the background
+	 * if prefetching is enabled. Any previous iterator must be closed first
+	 */
+	private CloseableIterator<SAMRecord> query(String contig, int start, int end) {
+		if (batch != null) {
+			return batch.query(contig, start, end);
+		}
+		
+		CloseableIterator<SAMRecord> it;
+		if (csiIndex != null) {
+			int refIndex = sequenceDict.getSequenceIndex(contig);
+			List<Chunk> chunks = csiIndex.getChunks(refIndex, start, end);
+			CloseableIterator<SAMRecord> chunkIt = chunks.isEmpty() ? null : samReader.iterator(new BAMFileSpan(chunks));
+			it = new RegionFilterIterator(chunkIt, refIndex, start, end);
+		}
+		else {
+			it = samReader.queryOverlapping(contig, start, end);
+		}
+		if (prefetchRecords > 0) {
+			it = new PrefetchingRecordIterator(it, prefetchRecords);
+		}
+		return it;
+	}
+	
+	/**
+	 * Close the current record iterator, if there is one
+	 */
+	private void closeIterator() {
+		if (recordIt != null) {
+			recordIt.close();
+			recordIt = null;
+		}
+	}
+	
+	/**
+	 * Remove all reads from the window, returning their storage to the pool
+	 */
+	private void clearRecords() {
+		for(MappedRead read : records) {
+			read.release();
+		}
+		records.clear();
+	}
+	
 	/**
 	 * Remove from queue those reads whose right edge is less than the current pos
 	 */
@@ -286,6 +535,7 @@ public class BamWindow {
 			MappedRead read = it.next();
 			while(it.hasNext()) {
 				if (read.getRecord().getAlignmentEnd() < currentPos) {
+					read.release();
 					it.remove();
 				}
 				
@@ -293,6 +543,7 @@ public class BamWindow {
 			}
 			
 			if (read.getRecord().getAlignmentEnd() < currentPos) {
+				read.release();
 				it.remove();
 			}
 		}
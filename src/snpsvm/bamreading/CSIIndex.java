@@ -0,0 +1,180 @@
+package snpsvm.bamreading;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.samtools.Chunk;
+import net.sf.samtools.util.BlockCompressedInputStream;
+
+/**
+ * A coordinate-sorted index (CSI) for a BAM file, as produced by 'samtools index -c'. Unlike .bai indexes,
+ * CSI indexes can address positions beyond 2^29 (512Mb), since the size of the smallest bin (min_shift)
+ * and the number of levels of bins (depth) are stored in the index instead of being fixed. Both are chosen
+ * when the index is built, for instance 'samtools index -c -m 14' gives 16kb bins.
+ * sam-jdk can't read CSI indexes, so we parse the index here and compute the chunks of the BAM
+ * that overlap a region ourselves. The parsed index is held by BAMFileInfo and shared by all windows.
+ * @author brendan
+ *
+ */
+public class CSIIndex {
+
+	private static final byte[] MAGIC = new byte[]{'C', 'S', 'I', 1};
+
+	private final int minShift; //log2 of size of smallest bins
+	private final int depth; //Number of levels of bins below the root
+	private final List<Map<Integer, Bin>> refBins; //Bins for each reference sequence, keyed by bin number
+
+	public CSIIndex(File csiFile) throws IOException {
+		ByteBuffer buf = readAll(csiFile);
+
+		for(int i=0; i<MAGIC.length; i++) {
+			if (buf.get() != MAGIC[i]) {
+				throw new IOException("File " + csiFile.getName() + " does not appear to be a CSI index");
+			}
+		}
+
+		minShift = buf.getInt();
+		depth = buf.getInt();
+		int auxLength = buf.getInt();
+		buf.position(buf.position() + auxLength);
+
+		int refCount = buf.getInt();
+		refBins = new ArrayList<Map<Integer, Bin>>(refCount);
+		for(int i=0; i<refCount; i++) {
+			int binCount = buf.getInt();
+			Map<Integer, Bin> bins = new HashMap<Integer, Bin>(binCount*2);
+			for(int j=0; j<binCount; j++) {
+				int binNumber = buf.getInt();
+				Bin bin = new Bin();
+				bin.loffset = buf.getLong();
+				int chunkCount = buf.getInt();
+				bin.chunkStarts = new long[chunkCount];
+				bin.chunkEnds = new long[chunkCount];
+				for(int k=0; k<chunkCount; k++) {
+					bin.chunkStarts[k] = buf.getLong();
+					bin.chunkEnds[k] = buf.getLong();
+				}
+				bins.put(binNumber, bin);
+			}
+			refBins.add(bins);
+		}
+	}
+
+	public int getMinShift() {
+		return minShift;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Largest position (exclusive, zero-based) that this index can address
+	 * @return
+	 */
+	public long getMaxPosition() {
+		return 1L << (minShift + 3*depth);
+	}
+
+	/**
+	 * Obtain a sorted, merged list of all chunks of the BAM file that may contain reads overlapping
+	 * the given region. Chunks may also contain reads outside of the region, so reads must still be filtered.
+	 * @param refIndex Index of reference sequence in BAM header
+	 * @param start First position of region (1-based)
+	 * @param end Last position of region (1-based, inclusive)
+	 * @return
+	 */
+	public List<Chunk> getChunks(int refIndex, int start, int end) {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		if (refIndex < 0 || refIndex >= refBins.size() || end < start) {
+			return chunks;
+		}
+
+		Map<Integer, Bin> bins = refBins.get(refIndex);
+		long beg = start - 1; //Zero-based, half open from here on
+		long stop = Math.min((long)end, getMaxPosition());
+		if (beg >= stop) {
+			return chunks;
+		}
+
+		//Reads overlapping the region can't come before the first read overlapping the smallest
+		//bin containing the start of the region
+		long minOffset = 0;
+		int shift = minShift + 3*depth;
+		int levelOffset = 0;
+		for(int level=0; level<=depth; level++) {
+			int first = levelOffset + (int)(beg >> shift);
+			int last = levelOffset + (int)((stop-1) >> shift);
+			for(int binNumber=first; binNumber<=last; binNumber++) {
+				Bin bin = bins.get(binNumber);
+				if (bin == null)
+					continue;
+				if (binNumber == first) {
+					minOffset = Math.max(minOffset, bin.loffset);
+				}
+				for(int k=0; k<bin.chunkStarts.length; k++) {
+					chunks.add(new Chunk(bin.chunkStarts[k], bin.chunkEnds[k]));
+				}
+			}
+			levelOffset += 1 << (3*level);
+			shift -= 3;
+		}
+
+		Collections.sort(chunks);
+		return Chunk.optimizeChunkList(chunks, minOffset);
+	}
+
+	/**
+	 * Look for a CSI index next to the given BAM, either file.bam.csi or file.csi
+	 * @param bamFile
+	 * @return The index, or null if there isn't one
+	 */
+	public static File findIndex(File bamFile) {
+		File index = new File(bamFile.getAbsolutePath() + ".csi");
+		if (index.exists()) {
+			return index;
+		}
+
+		String path = bamFile.getAbsolutePath();
+		if (path.endsWith(".bam")) {
+			index = new File(path.substring(0, path.length()-4) + ".csi");
+			if (index.exists()) {
+				return index;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * CSI (and tabix) indexes are BGZF compressed, read and decompress the whole thing into a little-endian buffer
+	 */
+	static ByteBuffer readAll(File file) throws IOException {
+		InputStream in = new BlockCompressedInputStream(file);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] block = new byte[65536];
+		int read = in.read(block, 0, block.length);
+		while(read > 0) {
+			bytes.write(block, 0, read);
+			read = in.read(block, 0, block.length);
+		}
+		in.close();
+		ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		return buf;
+	}
+
+	class Bin {
+		long loffset; //Virtual file offset of first read overlapping bin
+		long[] chunkStarts;
+		long[] chunkEnds;
+	}
+}
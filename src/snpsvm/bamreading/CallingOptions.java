@@ -10,12 +10,20 @@ public class CallingOptions {
 	static final int DEFAULT_MIN_DEPTH = 2;
 	static final int DEFAULT_MIN_VAR_DEPTH = 2;
 	static final double DEFAULT_MIN_QUALITY = 1.0;
+	static final long DEFAULT_DOWNSAMPLE_SEED = 1;
+	static final int DEFAULT_QUERY_MERGE_GAP = 1000;
 	
 	int minTotalDepth = DEFAULT_MIN_DEPTH;
 	int minVariantDepth = DEFAULT_MIN_VAR_DEPTH;
 	double minQuality = DEFAULT_MIN_QUALITY;
 	
 	boolean removeTempFiles = true;
+	boolean scanForCandidates = true; //Find candidate sites with a cheap first pass before computing features
+	int maxReadDepth = 0; //If positive, reads are downsampled as they're read so depth stays near this value
+	long downsampleSeed = DEFAULT_DOWNSAMPLE_SEED;
+	boolean strandBalancedDownsampling = false;
+	int prefetchRecords = 0; //If positive, BAM records are read ahead on a background thread
+	int queryMergeGap = DEFAULT_QUERY_MERGE_GAP; //Intervals closer than this many bases are read with one BAM query
 	
 	public CallingOptions() {
 		
@@ -35,6 +43,72 @@ public class CallingOptions {
 
 
 
+	public boolean isScanForCandidates() {
+		return scanForCandidates;
+	}
+
+	/**
+	 * If true, a quick pass over the reads is used to find the sites with enough non-reference
+	 * bases and features are computed only at those sites
+	 * @param scanForCandidates
+	 */
+	public void setScanForCandidates(boolean scanForCandidates) {
+		this.scanForCandidates = scanForCandidates;
+	}
+
+	public int getMaxReadDepth() {
+		return maxReadDepth;
+	}
+
+	/**
+	 * Target depth for downsampling reads, zero or less means no downsampling
+	 * @param maxReadDepth
+	 */
+	public void setMaxReadDepth(int maxReadDepth) {
+		this.maxReadDepth = maxReadDepth;
+	}
+
+	public long getDownsampleSeed() {
+		return downsampleSeed;
+	}
+
+	public void setDownsampleSeed(long downsampleSeed) {
+		this.downsampleSeed = downsampleSeed;
+	}
+
+	public boolean isStrandBalancedDownsampling() {
+		return strandBalancedDownsampling;
+	}
+
+	public void setStrandBalancedDownsampling(boolean strandBalancedDownsampling) {
+		this.strandBalancedDownsampling = strandBalancedDownsampling;
+	}
+
+	public int getPrefetchRecords() {
+		return prefetchRecords;
+	}
+
+	/**
+	 * Number of BAM records to read ahead on a background thread, zero or less disables read-ahead
+	 * @param prefetchRecords
+	 */
+	public void setPrefetchRecords(int prefetchRecords) {
+		this.prefetchRecords = prefetchRecords;
+	}
+
+	public int getQueryMergeGap() {
+		return queryMergeGap;
+	}
+
+	/**
+	 * Intervals separated by at most this many bases are scanned with a single BAM query.
+	 * Negative values turn merging off
+	 * @param queryMergeGap
+	 */
+	public void setQueryMergeGap(int queryMergeGap) {
+		this.queryMergeGap = queryMergeGap;
+	}
+
 	public int getMinTotalDepth() {
 		return minTotalDepth;
 	}
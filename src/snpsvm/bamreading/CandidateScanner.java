@@ -0,0 +1,248 @@
+package snpsvm.bamreading;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.samtools.Cigar;
+import net.sf.samtools.CigarElement;
+import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMRecord;
+import snpsvm.bamreading.FastaIndex.IndexNotFoundException;
+
+/**
+ * A cheap first pass over the reads in a region that finds the positions that could possibly
+ * be emitted as variant candidates, so that the expensive per-site feature computation only
+ * has to happen at those positions. Reads are streamed once, and for each read we walk the CIGAR
+ * and count the bases that differ from the reference, using the MD tag when one is present and
+ * comparing against the reference otherwise.
+ *
+ * The set of positions found is a superset of the positions at which AlignmentColumn.hasXDifferingBases
+ * would be true, so ReferenceBAMEmitter.emitLine should still be used to make the final decision.
+ * @author brendan
+ *
+ */
+public class CandidateScanner {
+
+	public static final int BLOCK_SIZE = 65536; //Number of reference positions examined at once
+
+	private final SharedReference reference;
+	private final int minVarDepth;
+
+	//Per-block storage, reused for every block
+	private final byte[] refBases = new byte[BLOCK_SIZE];
+	private final int[] mismatches = new int[BLOCK_SIZE];
+	private final int[] alignedDepth = new int[BLOCK_SIZE+1]; //Stored as differences, so we need one extra
+	private int blockStart = 0;
+	private int blockEnd = -1; //Inclusive
+	private int refBasesRead = 0;
+	private int contigIndex = -1;
+	private long contigLength = 0;
+
+	//Reads that extend past the end of the current block
+	private List<SAMRecord> carried = new ArrayList<SAMRecord>();
+	private List<SAMRecord> nextCarried = new ArrayList<SAMRecord>();
+
+	private final MDTag mdTag = new MDTag(); //Parses positions of mismatches from MD tags
+
+	public CandidateScanner(File reference, int minVarDepth) throws IOException, IndexNotFoundException {
+		this.reference = SharedReference.forReference(reference);
+		this.minVarDepth = minVarDepth;
+	}
+
+	/**
+	 * Stream through all reads in the given region and return a set containing the offsets (relative to start)
+	 * of all positions in [start, end) that have at least minVarDepth non-reference bases
+	 * @param window
+	 * @param contig
+	 * @param start
+	 * @param end
+	 * @return
+	 * @throws IOException
+	 */
+	public BitSet findCandidates(BamWindow window, String contig, int start, int end) throws IOException {
+		BitSet candidates = new BitSet(Math.max(1, end-start));
+		if (end <= start) {
+			return candidates;
+		}
+
+		carried.clear();
+		contigIndex = reference.getContigIndex(contig);
+		if (contigIndex < 0) {
+			throw new IllegalArgumentException("Unknown contig : " + contig);
+		}
+		contigLength = reference.getContigLength(contig);
+
+		Iterator<SAMRecord> it = window.queryRegion(contig, start, end-1);
+		loadBlock(start, end);
+
+		while(it.hasNext()) {
+			SAMRecord read = it.next();
+			if (read.getReadUnmappedFlag() || read.getAlignmentEnd() < start)
+				continue;
+
+			while (read.getAlignmentStart() > blockEnd && blockStart < end) {
+				finishBlock(candidates, start);
+				if (carried.isEmpty()) {
+					//Nothing left over from the previous block so we can jump straight to this read
+					loadBlock(Math.max(blockEnd+1, read.getAlignmentStart()), end);
+				}
+				else {
+					loadBlock(blockEnd+1, end);
+					processCarriedReads();
+				}
+			}
+
+			if (blockStart >= end) {
+				break;
+			}
+
+			addRead(read);
+		}
+
+		finishBlock(candidates, start);
+		while(! carried.isEmpty() && blockEnd+1 < end) {
+			loadBlock(blockEnd+1, end);
+			processCarriedReads();
+			finishBlock(candidates, start);
+		}
+
+		return candidates;
+	}
+
+	/**
+	 * Reset all per-block storage so the block begins at the given position, and read the
+	 * reference bases for the block
+	 * @param newStart
+	 * @param end
+	 * @throws IOException
+	 */
+	private void loadBlock(int newStart, int end) throws IOException {
+		blockStart = newStart;
+		blockEnd = Math.min(end-1, newStart + BLOCK_SIZE - 1);
+		int size = blockEnd - blockStart + 1;
+		refBasesRead = 0;
+		if (size <= 0) {
+			return;
+		}
+		
+		for(int i=0; i<size; i++) {
+			mismatches[i] = 0;
+			alignedDepth[i] = 0;
+		}
+		alignedDepth[size] = 0;
+
+		//Positions beyond the end of the contig will never be candidates
+		while(refBasesRead < size && blockStart + refBasesRead <= contigLength) {
+			refBases[refBasesRead] = (byte)reference.getBaseAt(contigIndex, blockStart + refBasesRead);
+			refBasesRead++;
+		}
+	}
+
+	/**
+	 * Add all positions in the current block that have enough non-reference bases to the candidate set
+	 * @param candidates
+	 * @param start
+	 */
+	private void finishBlock(BitSet candidates, int start) {
+		int depth = 0;
+		for(int i=0; i<refBasesRead; i++) {
+			depth += alignedDepth[i];
+			char refBase = (char)refBases[i];
+			if (refBase == 'N')
+				continue;
+
+			int count = mismatches[i];
+			if (refBase != 'A' && refBase != 'C' && refBase != 'G' && refBase != 'T') {
+				//Lowercase or ambiguous reference bases differ from every read base when compared
+				//in emitLine, but the MD tag won't report them, so be conservative
+				count = depth;
+			}
+			if (count >= minVarDepth) {
+				candidates.set(blockStart + i - start);
+			}
+		}
+	}
+
+	private void processCarriedReads() {
+		List<SAMRecord> tmp = carried;
+		carried = nextCarried;
+		nextCarried = tmp;
+		carried.clear();
+		for(SAMRecord read : nextCarried) {
+			addRead(read);
+		}
+		nextCarried.clear();
+	}
+
+	/**
+	 * Count aligned bases and mismatches for the portion of the read that falls into the current block,
+	 * and remember the read if it extends beyond the block
+	 * @param read
+	 */
+	private void addRead(SAMRecord read) {
+		Cigar cig = read.getCigar();
+		byte[] bases = read.getReadBases();
+		String md = read.getStringAttribute(MDTag.MD);
+		int mdCount = -1;
+		int[] mdMismatches = null;
+		if (md != null && MDTag.isUsable(cig)) {
+			mdCount = mdTag.parse(md, read.getAlignmentStart());
+			mdMismatches = mdTag.getPositions();
+		}
+
+		int refPos = read.getAlignmentStart();
+		int readPos = 0;
+		int mdIndex = 0;
+		for(CigarElement el : cig.getCigarElements()) {
+			CigarOperator op = el.getOperator();
+			int len = el.getLength();
+			if (op.consumesReadBases() && op.consumesReferenceBases()) {
+				int first = Math.max(refPos, blockStart);
+				int last = Math.min(refPos + len - 1, blockEnd);
+				if (first <= last) {
+					alignedDepth[first-blockStart]++;
+					alignedDepth[last-blockStart+1]--;
+
+					if (mdCount >= 0) {
+						while(mdIndex < mdCount && mdMismatches[mdIndex] < first)
+							mdIndex++;
+						while(mdIndex < mdCount && mdMismatches[mdIndex] <= last) {
+							int pos = mdMismatches[mdIndex];
+							int readIndex = readPos + pos - refPos;
+							if (readIndex < bases.length && bases[readIndex] != 'N')
+								mismatches[pos-blockStart]++;
+							mdIndex++;
+						}
+					}
+					else {
+						//Reads with no stored SEQ ('*') have no bases to compare
+						for(int pos=first; pos<=last && pos-blockStart < refBasesRead && readPos + pos - refPos < bases.length; pos++) {
+							byte b = bases[readPos + pos - refPos];
+							if (b != refBases[pos-blockStart] && b != 'N')
+								mismatches[pos-blockStart]++;
+						}
+					}
+				}
+			}
+
+			if (op.consumesReadBases())
+				readPos += len;
+			if (op.consumesReferenceBases())
+				refPos += len;
+		}
+
+		if (read.getAlignmentEnd() > blockEnd) {
+			carried.add(read);
+		}
+	}
+
+	/**
+	 * Nothing to release anymore, since the reference is shared. Kept so callers don't need to change
+	 */
+	public void close() {
+	}
+}
@@ -0,0 +1,316 @@
+package snpsvm.bamreading;
+
+import java.util.Iterator;
+
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Per-site totals gathered from the reads in an AlignmentColumn in a single pass. Nearly every counter
+ * used to walk all the reads in the column itself, looking up the base, quality and so on for each read,
+ * so computing all of the features for a site cost one pass over the reads per counter. The column now
+ * fills one of these once per site (see AlignmentColumn.getSummary(..)) and the counters derive their
+ * values from the totals here, which takes a single pass regardless of how many counters are in use.
+ *
+ * Most totals are kept separately for reads that have the reference base at the site (index REF) and
+ * those that have some other base (index ALT). As in the counters, reads with an N or without a base at
+ * the site (because of a deletion) are not included in those.
+ * @author brendan
+ *
+ */
+public class ColumnSummary {
+
+	public static final int REF = 0;
+	public static final int ALT = 1;
+
+	public static final int NEARBY_WIDTH = 3; //Number of sites, centered on the current one, for which qualities are summed
+	public static final int NEARBY_DEFAULT_QUALITY = 20; //Quality used for reads without a base at a nearby site
+	public static final int MIN_COUNTED_QUALITY = 10; //Minimum quality for a base to be included in the 'quality' counts
+
+	private char refBase = 'N';
+
+	private final int[] count = new int[2];
+	private final int[] qualityCount = new int[2]; //Bases with quality at least MIN_COUNTED_QUALITY
+	private final int[] qualitySum = new int[2];
+	private final int[] mappingQualitySum = new int[2];
+	private final int[] firstOfPair = new int[2];
+	private final int[] readPosSum = new int[2];
+	private final int[] mismatchSum = new int[2];
+	private final int[] altBaseCounts = new int[4];
+
+	//Running mean and sum of squared deviations of read position (Welford's algorithm),
+	//so the variance can be computed in the same pass
+	private final double[] readPosMean = new double[2];
+	private final double[] readPosSS = new double[2];
+
+	private int reads = 0; //All reads in the window, with or without a base at the site
+	private int spanning = 0; //Reads whose alignment spans the site
+	private int gapped = 0; //Reads that span the site but don't have a base there
+	private final int[] nearbyQualitySum = new int[NEARBY_WIDTH];
+
+	//Alignment start and mate start (smaller in high bits) of properly paired reads, packed into a long
+	private final long[][] pairKeys = new long[2][64];
+	private final int[] pairCount = new int[2];
+
+	/**
+	 * Clear all totals and recompute them from the reads in the given column, which must be at the site
+	 * with the given reference base. Mismatch counts for reads are computed (and cached by the reads) with
+	 * the given window
+	 * @param col
+	 * @param refBase
+	 * @param window
+	 */
+	void compute(AlignmentColumn col, char refBase, FastaWindow window) {
+		clear();
+		this.refBase = refBase;
+		if (col.getDepth() == 0) {
+			return;
+		}
+
+		final int pos = col.getCurrentPosition();
+		final int nearbyOffset = NEARBY_WIDTH/2;
+		Iterator<MappedRead> it = col.getIterator();
+		while(it.hasNext()) {
+			MappedRead read = it.next();
+			SAMRecord rec = read.getRecord();
+			reads++;
+
+			//Looking up the base first builds the reference-to-read map for the read if it has indels
+			byte b = read.getBaseAtReferencePos(pos);
+			int readPos = read.refPosToReadPos(pos);
+
+			for(int i=0; i<NEARBY_WIDTH; i++) {
+				int nearbyPos = read.refPosToReadPos(pos - nearbyOffset + i);
+				if (nearbyPos > -1)
+					nearbyQualitySum[i] += read.getQualityAtReadPos(nearbyPos);
+				else
+					nearbyQualitySum[i] += NEARBY_DEFAULT_QUALITY;
+			}
+
+			if (read.containsPosition(pos)) {
+				spanning++;
+				if (readPos == -1)
+					gapped++;
+			}
+
+			if (readPos == -1 || b == 'N')
+				continue;
+
+			int index = REF;
+			if (b != refBase) {
+				index = ALT;
+				switch(b) {
+				case 'A' : altBaseCounts[AlignmentColumn.A]++; break;
+				case 'C' : altBaseCounts[AlignmentColumn.C]++; break;
+				case 'G' : altBaseCounts[AlignmentColumn.G]++; break;
+				case 'T' : altBaseCounts[AlignmentColumn.T]++; break;
+				}
+			}
+
+			int q = read.getQualityAtReadPos(readPos);
+			count[index]++;
+			if (q >= MIN_COUNTED_QUALITY)
+				qualityCount[index]++;
+			qualitySum[index] += q;
+			mappingQualitySum[index] += rec.getMappingQuality();
+			readPosSum[index] += readPos;
+
+			double prevMean = readPosMean[index];
+			readPosMean[index] += (readPos - readPosMean[index])/count[index];
+			readPosSS[index] += (readPos - prevMean)*(readPos - readPosMean[index]);
+
+			if (rec.getReadPairedFlag()) {
+				if (rec.getFirstOfPairFlag())
+					firstOfPair[index]++;
+				if (rec.getProperPairFlag() && (!rec.getMateUnmappedFlag())) {
+					addPair(index, rec.getAlignmentStart(), rec.getMateAlignmentStart());
+				}
+			}
+
+			if (refBase != 'N') {
+				mismatchSum[index] += read.getMismatchCount(window);
+			}
+		}
+	}
+
+	private void clear() {
+		for(int i=0; i<2; i++) {
+			count[i] = 0;
+			qualityCount[i] = 0;
+			qualitySum[i] = 0;
+			mappingQualitySum[i] = 0;
+			firstOfPair[i] = 0;
+			readPosSum[i] = 0;
+			mismatchSum[i] = 0;
+			readPosMean[i] = 0.0;
+			readPosSS[i] = 0.0;
+			pairCount[i] = 0;
+		}
+		for(int i=0; i<altBaseCounts.length; i++) {
+			altBaseCounts[i] = 0;
+		}
+		for(int i=0; i<NEARBY_WIDTH; i++) {
+			nearbyQualitySum[i] = 0;
+		}
+		reads = 0;
+		spanning = 0;
+		gapped = 0;
+	}
+
+	private void addPair(int index, int readStart, int mateStart) {
+		long first = Math.min(readStart, mateStart);
+		long end = Math.max(readStart, mateStart);
+		if (pairCount[index] == pairKeys[index].length) {
+			long[] newKeys = new long[2*pairKeys[index].length];
+			System.arraycopy(pairKeys[index], 0, newKeys, 0, pairKeys[index].length);
+			pairKeys[index] = newKeys;
+		}
+		pairKeys[index][pairCount[index]] = (first << 32) | (end & 0xFFFFFFFFL);
+		pairCount[index]++;
+	}
+
+	/**
+	 * The reference base the REF / ALT totals were computed against
+	 * @return
+	 */
+	public char getRefBase() {
+		return refBase;
+	}
+
+	/**
+	 * Number of reads with a (non-N) reference or non-reference base at the site
+	 * @param which REF or ALT
+	 * @return
+	 */
+	public int getCount(int which) {
+		return count[which];
+	}
+
+	/**
+	 * Number of reads with a reference or non-reference base of quality at least MIN_COUNTED_QUALITY
+	 * @param which
+	 * @return
+	 */
+	public int getQualityCount(int which) {
+		return qualityCount[which];
+	}
+
+	/**
+	 * Sum of the base qualities of reference or non-reference bases
+	 * @param which
+	 * @return
+	 */
+	public int getQualitySum(int which) {
+		return qualitySum[which];
+	}
+
+	/**
+	 * Sum of the mapping qualities of reads with reference or non-reference bases
+	 * @param which
+	 * @return
+	 */
+	public int getMappingQualitySum(int which) {
+		return mappingQualitySum[which];
+	}
+
+	/**
+	 * Number of reads with reference or non-reference bases that are the first read of a pair
+	 * @param which
+	 * @return
+	 */
+	public int getFirstOfPairCount(int which) {
+		return firstOfPair[which];
+	}
+
+	/**
+	 * Sum of the positions in the read of reference or non-reference bases
+	 * @param which
+	 * @return
+	 */
+	public int getReadPosSum(int which) {
+		return readPosSum[which];
+	}
+
+	/**
+	 * Sample variance of the read position of reference or non-reference bases, or 0 if there are fewer than two
+	 * @param which
+	 * @return
+	 */
+	public double getReadPosVariance(int which) {
+		if (count[which] > 1)
+			return readPosSS[which] / (count[which] - 1);
+		return 0.0;
+	}
+
+	/**
+	 * Sum of the mismatch counts of reads with reference or non-reference bases. Always zero if
+	 * the reference base is N
+	 * @param which
+	 * @return
+	 */
+	public int getMismatchSum(int which) {
+		return mismatchSum[which];
+	}
+
+	/**
+	 * Counts of each non-reference base, indexed by AlignmentColumn.A, C, G and T
+	 * @return
+	 */
+	public int[] getAltBaseCounts() {
+		return altBaseCounts;
+	}
+
+	/**
+	 * Total number of reads in the window at this site, including those without a base here
+	 * @return
+	 */
+	public int getReadCount() {
+		return reads;
+	}
+
+	/**
+	 * Number of reads whose alignment spans the site
+	 * @return
+	 */
+	public int getSpanningCount() {
+		return spanning;
+	}
+
+	/**
+	 * Number of reads whose alignment spans the site but which have no base aligned to it
+	 * @return
+	 */
+	public int getGappedCount() {
+		return gapped;
+	}
+
+	/**
+	 * Sum over all reads of the quality at the given offset (0..NEARBY_WIDTH-1, where NEARBY_WIDTH/2 is the
+	 * current site) with NEARBY_DEFAULT_QUALITY used for reads without a base there
+	 * @param which
+	 * @return
+	 */
+	public int getNearbyQualitySum(int which) {
+		return nearbyQualitySum[which];
+	}
+
+	/**
+	 * Number of properly paired reads with a reference or non-reference base, for which a
+	 * pair key is available
+	 * @param which
+	 * @return
+	 */
+	public int getPairCount(int which) {
+		return pairCount[which];
+	}
+
+	/**
+	 * Keys identifying the fragment of each properly paired read with a reference or non-reference base,
+	 * only the first getPairCount(which) entries are valid. The lower of the read and mate start
+	 * positions is in the high 32 bits, the higher in the low 32 bits
+	 * @param which
+	 * @return
+	 */
+	public long[] getPairKeys(int which) {
+		return pairKeys[which];
+	}
+}
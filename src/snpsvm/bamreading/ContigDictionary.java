@@ -0,0 +1,164 @@
+package snpsvm.bamreading;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import snpsvm.bamreading.FastaIndex.IndexNotFoundException;
+
+/**
+ * Maps contig names to small integer IDs, assigned in the order the contigs appear in the reference,
+ * so that contigs can be compared and sorted as ints and things are sorted in reference order
+ * (chr1, chr2, ..., chr10) instead of alphabetically (chr1, chr10, chr2...).
+ * The dictionary also holds one canonical String instance for each name, so code that
+ * still compares names with equals() usually hits the identity check in String.equals.
+ * There's one shared dictionary per reference file, obtain it with forReference(file)
+ * @author brendan
+ *
+ */
+public class ContigDictionary {
+
+	private static final Map<String, ContigDictionary> cache = new HashMap<String, ContigDictionary>();
+
+	private final List<String> names;
+	private final Map<String, Integer> ids;
+	private final long[] lengths;
+
+	public ContigDictionary(List<String> contigNames, List<Long> contigLengths) {
+		if (contigNames.size() != contigLengths.size()) {
+			throw new IllegalArgumentException("Must have the same number of contig names and lengths");
+		}
+		names = Collections.unmodifiableList(new ArrayList<String>(contigNames));
+		ids = new HashMap<String, Integer>();
+		lengths = new long[names.size()];
+		for(int i=0; i<names.size(); i++) {
+			ids.put(names.get(i), i);
+			lengths[i] = contigLengths.get(i);
+		}
+	}
+
+	/**
+	 * Obtain the shared dictionary for the given reference, reading the reference index if this is
+	 * the first time it's been requested
+	 * @param reference
+	 * @return
+	 * @throws IOException
+	 * @throws IndexNotFoundException
+	 */
+	public static synchronized ContigDictionary forReference(File reference) throws IOException, IndexNotFoundException {
+		String key = reference.getAbsolutePath();
+		ContigDictionary dict = cache.get(key);
+		if (dict == null) {
+			FastaIndex index = SharedReference.forReference(reference).getIndex();
+			List<String> contigNames = new ArrayList<String>(index.getContigs());
+			List<Long> contigLengths = new ArrayList<Long>(contigNames.size());
+			for(String contig : contigNames) {
+				contigLengths.add(index.getContigLength(contig));
+			}
+			dict = new ContigDictionary(contigNames, contigLengths);
+			cache.put(key, dict);
+		}
+		return dict;
+	}
+
+	/**
+	 * The ID of the given contig, or -1 if there's no contig with the name
+	 * @param contig
+	 * @return
+	 */
+	public int getId(String contig) {
+		Integer id = ids.get(contig);
+		if (id == null) {
+			return -1;
+		}
+		return id;
+	}
+
+	/**
+	 * The canonical name for the contig with the given ID
+	 * @param id
+	 * @return
+	 */
+	public String getName(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * Returns the canonical instance of the given name, or the name itself if it's not in the dictionary
+	 * @param contig
+	 * @return
+	 */
+	public String intern(String contig) {
+		int id = getId(contig);
+		if (id < 0) {
+			return contig;
+		}
+		return names.get(id);
+	}
+
+	public long getLength(int id) {
+		return lengths[id];
+	}
+
+	public boolean contains(String contig) {
+		return ids.containsKey(contig);
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * All contig names, in reference order
+	 * @return
+	 */
+	public List<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * Return a new list containing the given contig names sorted in reference order. Names that aren't
+	 * in the dictionary come last, in alphabetical order
+	 * @param contigs
+	 * @return
+	 */
+	public List<String> sort(Collection<String> contigs) {
+		List<String> sorted = new ArrayList<String>(contigs.size());
+		for(String contig : contigs) {
+			sorted.add(intern(contig));
+		}
+		Collections.sort(sorted, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return compareContigs(a, b);
+			}
+		});
+		return sorted;
+	}
+
+	/**
+	 * Compare contigs by reference order, with contigs not in the dictionary after all others
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public int compareContigs(String a, String b) {
+		int idA = getId(a);
+		int idB = getId(b);
+		if (idA < 0 && idB < 0) {
+			return a.compareTo(b);
+		}
+		if (idA < 0) {
+			return 1;
+		}
+		if (idB < 0) {
+			return -1;
+		}
+		return idA < idB ? -1 : (idA == idB ? 0 : 1);
+	}
+}
@@ -0,0 +1,80 @@
+package snpsvm.bamreading;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.DecimalFormat;
+
+import snpsvm.counters.ColumnComputer;
+
+/**
+ * Pieces shared by the emitters (ReferenceBAMEmitter, TrainingEmitter and MultiSampleEmitter), so that
+ * they skip the same sites and write data lines in exactly the same form
+ * @author brendan
+ *
+ */
+class EmitterUtils {
+
+	/**
+	 * Returns the next position after curPos at which depth in the column could possibly reach minDepth. Reads only
+	 * leave the window as it advances, so if the current depth is below minDepth it stays there
+	 * until the start of the next read. Never returns a value beyond end.
+	 * @param col
+	 * @param minDepth
+	 * @param curPos
+	 * @param end
+	 * @return
+	 */
+	static int nextEmittablePosition(AlignmentColumn col, int minDepth, int curPos, int end) {
+		if (col.getApproxDepth() >= minDepth) {
+			return curPos+1;
+		}
+
+		int nextStart = col.getNextReadStart();
+		if (nextStart < 0 || nextStart >= end) {
+			return end;
+		}
+		return Math.max(curPos+1, nextStart);
+	}
+
+	/**
+	 * Check the values computed by the counter and write the nonzero ones to the data line in
+	 * libsvm form (index:value), numbering columns from the given index
+	 * @param out
+	 * @param counter
+	 * @param values
+	 * @param index Column number of the first value
+	 * @param col Column the values were computed for, used in error messages
+	 * @param formatter
+	 * @return The column number following the last value
+	 */
+	static int writeValues(PrintStream out, ColumnComputer counter, double[] values, int index, AlignmentColumn col, DecimalFormat formatter) {
+		for(int i=0; i<values.length; i++) {
+			if (values[i] < -1.0 || values[i] > 1.0) {
+				throw new IllegalArgumentException("Invalid value for counter: " + counter.getName() + " found value=" + values[i] + " chr: " + col.getCurrentContig() + " pos:" + col.getCurrentPosition());
+			}
+			if (Double.isInfinite(values[i]) || Double.isNaN(values[i])) {
+				throw new IllegalArgumentException("Non-regular value for counter: " + counter.getName() + " found value=" + values[i]);
+			}
+			if (values[i] != 0)
+				out.print("\t" + index + ":" + formatter.format(values[i]) );
+			index++;
+		}
+		return index;
+	}
+
+	/**
+	 * Write the position line (contig:pos:ref:A,C,G,T counts) for the current site of the column
+	 * @param writer
+	 * @param col
+	 * @param refBase
+	 */
+	static void writePosition(BufferedWriter writer, AlignmentColumn col, char refBase) {
+		try {
+			int[] counts = col.getBaseCounts();
+			writer.write( col.getCurrentContig() + ":" + col.getCurrentPosition() + ":" + refBase + ":" + counts[AlignmentColumn.A] + "," + counts[AlignmentColumn.C] + "," + counts[AlignmentColumn.G] + "," + counts[AlignmentColumn.T] + "\n");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
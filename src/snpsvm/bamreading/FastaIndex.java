@@ -6,7 +6,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -16,7 +16,7 @@ import java.util.Map;
  */
 public class FastaIndex {
 
-	private Map<String, ChrInfo> infoMap = new HashMap<String, ChrInfo>();
+	private Map<String, ChrInfo> infoMap = new LinkedHashMap<String, ChrInfo>(); //Keeps contigs in the order they appear in the index
 	
 	public FastaIndex(File fastaFile) throws IndexNotFoundException, IOException {
 		if (! fastaFile.exists()) {
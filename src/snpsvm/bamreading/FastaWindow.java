@@ -6,29 +6,39 @@ import java.util.Collection;
 
 import snpsvm.bamreading.FastaIndex.IndexNotFoundException;
 import snpsvm.bamreading.FastaReader2.EndOfContigException;
-import util.ArrayCircularQueue;
-import util.ArrayCircularQueue.EmptyQueueException;
-import util.ArrayCircularQueue.FullQueueException;
 
+/**
+ * A window of reference bases that slides along a contig. Bases are looked up directly in the process-wide
+ * SharedReference, and getBaseAt works for any position in the current contig; the window edges are still
+ * maintained so that counters looking at the bases near a site see the same window as they always have.
+ * @author brendan
+ *
+ */
 public class FastaWindow {
 
 	final int windowSize = 256;
 	private int leftEdge = -1;
-	private FastaReader2 reader;
-	final ArrayCircularQueue bases = new ArrayCircularQueue(windowSize);
+	private final SharedReference shared;
+	private String sharedContig = null; //Current contig
+	private int sharedContigIndex = -1;
+	private int sharedContigLength = 0;
+	private ReferenceContext context = null; //Precomputed context track, if prepare-reference has been run
+	private SlidingContext slidingContext = null; //Created when first asked for
+	private String slidingContig = null; //Contig of the bases held by the sliding context
 	
 	public FastaWindow(File fastaFile) throws IOException, IndexNotFoundException {
-		this(new FastaReader2(fastaFile));
+		shared = SharedReference.forReference(fastaFile);
+		context = ReferenceContext.forReference(fastaFile);
 	}
 	
-	public FastaWindow(FastaReader2 reader) {
-		this.reader = reader;
+	/**
+	 * A window reading from the given shared reference, without using any precomputed context track
+	 * @param shared
+	 */
+	public FastaWindow(SharedReference shared) {
+		this.shared = shared;
 	}
 	
-//	public Map<String, Integer> getContigSizes() {
-//		return reader.getContigSizes();
-//	}
-	
 	/**
 	 * Reference index of left (trailing) edge
 	 * @return
@@ -42,7 +52,7 @@ public class FastaWindow {
 	 * @return
 	 */
 	public int indexOfRightEdge() {
-		return leftEdge+bases.size();
+		return leftEdge+getCurrentSize();
 	}
 	
 	/**
@@ -50,7 +60,10 @@ public class FastaWindow {
 	 * @return
 	 */
 	public int getCurrentSize() {
-		return bases.size();
+		if (sharedContig == null)
+			return 0;
+		//The window is filled up to (but not including) the end of the contig
+		return Math.max(0, Math.min(windowSize, sharedContigLength - leftEdge));
 	}
 	
 	public int getMaxSize() {
@@ -62,7 +75,7 @@ public class FastaWindow {
 	 * @return
 	 */
 	public Collection<String> getContigs() {
-		return reader.getIndex().getContigs();
+		return shared.getContigs();
 	}
 	
 	/**
@@ -71,7 +84,7 @@ public class FastaWindow {
 	 * @return
 	 */
 	public Long getContigLength(String contig) {
-		return reader.getContigLength(contig);
+		return shared.getContigLength(contig);
 	}
 	
 	/**
@@ -80,47 +93,22 @@ public class FastaWindow {
 	 * @param leftEdgePos
 	 * @throws IOException
 	 * @throws EndOfContigException 
-	 * @throws FullQueueException 
 	 */
-	public void resetTo(String contig, int leftEdgePos) throws IOException, EndOfContigException, FullQueueException {
-		if (reader.getCurrentContig() == null) {
-			reader.advanceToContig(contig);	
+	public void resetTo(String contig, int leftEdgePos) throws IOException, EndOfContigException {
+		if (slidingContext != null && !contig.equals(slidingContig)) {
+			slidingContext.clear();
+			slidingContig = contig;
 		}
 		
-		if ((! reader.getCurrentContig().equals(contig))) {
-			bases.clear();
-			this.leftEdge = 1;
-			reader.advanceToContig(contig);			
-		}
-		else {
-			if (leftEdgePos < indexOfRightEdge()) {
-				//System.out.println(" Shifting from " + leftEdge + "-" + indexOfRightEdge() + " to " + leftEdgePos + " without filling");
-				//Advance by amount less than current window size, so just shift and don't clear any bases
-				while(leftEdge < leftEdgePos) {
-					shift();
-				}
-				return;
+		if (! contig.equals(sharedContig)) {
+			sharedContigIndex = shared.getContigIndex(contig);
+			if (sharedContigIndex < 0) {
+				throw new IllegalArgumentException("Unknown contig : " + contig);
 			}
-
+			sharedContig = contig;
+			sharedContigLength = shared.getContigLength(contig).intValue();
 		}
-
-		//System.out.println(" Skipping from " + leftEdge + "-" + indexOfRightEdge() + " to " + leftEdgePos + " and re-filling");
-		bases.clear();
-		//Left edge may be at default value of -1
-		if (leftEdge < 0)
-			leftEdge = 1;
-
-		reader.advanceToPosition(leftEdgePos-1); //reader actually keeps things 0-indexed, so subtract 1
 		leftEdge = leftEdgePos;
-		int contigSize = (int) (reader.getContigLength(contig).intValue());
-//		System.out.println(">" + leftEdgePos);
-		for(int i=leftEdgePos; i<Math.min(leftEdgePos+windowSize, contigSize); i++) {
-			char c = reader.nextBase();
-			bases.add( c );
-			//System.out.print(c);
-		}
-	//	System.out.println();
-		
 	}
 	
 	/**
@@ -128,31 +116,12 @@ public class FastaWindow {
 	 * @throws EndOfContigException 
 	 */
 	public void shift() throws EndOfContigException {
-		if (bases.size()>0) {
-			try {
-				bases.remove();
-				leftEdge++;
-			} catch (EmptyQueueException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			
-			try {
-				bases.add( reader.nextBase() );
-			} catch (FullQueueException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (IOException e) {
-				
-				e.printStackTrace();
-			} 
-		}
-		
+		if (getCurrentSize() > 0)
+			leftEdge++;
 	}
 	
 	public void shift(int howmany) throws EndOfContigException {
-		for(int i=0; i<howmany; i++)
-			shift();
+		leftEdge = Math.min(leftEdge + howmany, Math.max(leftEdge, sharedContigLength));
 	}
 	
 	/**
@@ -161,26 +130,50 @@ public class FastaWindow {
 	 * @return
 	 */
 	public char getBaseAt(int refPos) {
-		if (refPos < leftEdge)
-			throw new IllegalArgumentException("Can't access position before left edge: position: " + refPos + " but left edge is: " + leftEdge);
-		if (refPos > leftEdge+bases.size()) {
-			throw new IllegalArgumentException("Can't access position after right edge: position: " + refPos + " but right edge is: " + (leftEdge+bases.size()));
+		return shared.getBaseAt(sharedContigIndex, refPos);
+	}
+	
+	/**
+	 * The precomputed context value (see ReferenceContext) at the given position of the current contig, or
+	 * -1 if there's no precomputed value
+	 * @param refPos
+	 * @return
+	 */
+	public int getContextAt(int refPos) {
+		if (context == null || sharedContig == null) {
+			return -1;
+		}
+		int value = context.getContext(sharedContigIndex, refPos);
+		if (value == ReferenceContext.NOT_COMPUTED) {
+			return -1;
+		}
+		return value;
+	}
+	
+	/**
+	 * Sequence-context features maintained incrementally as the sites examined move along the contig,
+	 * see SlidingContext
+	 * @return
+	 */
+	public SlidingContext getSlidingContext() {
+		if (slidingContext == null) {
+			slidingContext = new SlidingContext(this);
+			slidingContig = sharedContig;
 		}
-		int index = refPos - leftEdge;
-		return bases.get(index);
+		return slidingContext;
 	}
 	
 	public String allToString() {
 		StringBuilder strB  = new StringBuilder();
 		strB.append(leftEdge + " : " );
-		for(int i=0; i<bases.size(); i++) {
-			strB.append( bases.get(i));
+		for(int i=0; i<getCurrentSize(); i++) {
+			strB.append( getBaseAt(leftEdge+i) );
 		}
 		return strB.toString();
 	}
 
 	public boolean containsContig(String contig) {
-		return reader.containsContig(contig);
+		return shared.containsContig(contig);
 	}
 	
 }
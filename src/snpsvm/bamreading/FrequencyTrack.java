@@ -0,0 +1,344 @@
+package snpsvm.bamreading;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Population frequencies of known variant sites (such as those from the 1000 Genomes project), in a compact
+ * binary file built once from a text file with convert(..). For each contig the file holds the sorted positions
+ * of the known sites as ints followed by their frequencies as shorts (in units of 1/FREQ_SCALE), so 80 million
+ * sites take under 500Mb on disk and none of it is on the heap. The file is opened once and shared by all
+ * threads, and each contig is only memory-mapped the first time it's asked for.
+ *
+ * The layout follows the ReferenceContext: the data for each contig, then the header, then the offset
+ * of the header as the last 8 bytes.
+ * @author brendan
+ *
+ */
+public class FrequencyTrack {
+
+	public static final String SUFFIX = ".freqs";
+	public static final int FREQ_SCALE = 10000;
+	private static final int MAGIC = 0x53564652; //'SVFR'
+	private static final int VERSION = 1;
+
+	private static final Map<String, FrequencyTrack> cache = new HashMap<String, FrequencyTrack>();
+
+	private final File file;
+	private final Map<String, Integer> contigIndex = new HashMap<String, Integer>();
+	private final int[] counts;
+	private final long[] offsets;
+	private final ContigFrequencies[] loaded;
+
+	/**
+	 * Open an existing frequency file. Only the header is read here
+	 * @param file
+	 * @throws IOException
+	 */
+	public FrequencyTrack(File file) throws IOException {
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long fileLength = raf.length();
+			if (fileLength < 8) {
+				throw new IOException("Frequency file " + file.getName() + " is truncated");
+			}
+			raf.seek(fileLength - 8);
+			long headerOffset = raf.readLong();
+			if (headerOffset < 0 || headerOffset >= fileLength - 8) {
+				throw new IOException("Frequency file " + file.getName() + " has an invalid header offset");
+			}
+
+			byte[] headerBytes = new byte[(int)(fileLength - 8 - headerOffset)];
+			raf.seek(headerOffset);
+			raf.readFully(headerBytes);
+			DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBytes));
+			if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+				throw new IOException("File " + file.getName() + " does not appear to be a frequency file, use convert-freqs to create one");
+			}
+			int count = header.readInt();
+			counts = new int[count];
+			offsets = new long[count];
+			loaded = new ContigFrequencies[count];
+			for(int i=0; i<count; i++) {
+				contigIndex.put(header.readUTF(), i);
+				counts[i] = header.readInt();
+				offsets[i] = header.readLong();
+				if (offsets[i] < 0 || offsets[i] + 6L*counts[i] > headerOffset) {
+					throw new IOException("Frequency file " + file.getName() + " is truncated");
+				}
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Obtain the shared track for the given file, opening it if this is the first request
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static synchronized FrequencyTrack forFile(File file) throws IOException {
+		String key = file.getAbsolutePath();
+		FrequencyTrack track = cache.get(key);
+		if (track == null) {
+			track = new FrequencyTrack(file);
+			cache.put(key, track);
+		}
+		return track;
+	}
+
+	/**
+	 * The known sites in the given contig, mapping them if they haven't been already. Returns null if there
+	 * are no sites for the contig
+	 * @param contig
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized ContigFrequencies getContig(String contig) throws IOException {
+		Integer index = contigIndex.get(contig);
+		if (index == null) {
+			return null;
+		}
+		if (loaded[index] == null) {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel chan = raf.getChannel();
+				int n = counts[index];
+				IntBuffer positions = chan.map(MapMode.READ_ONLY, offsets[index], 4L*n).asIntBuffer();
+				ShortBuffer freqs = chan.map(MapMode.READ_ONLY, offsets[index] + 4L*n, 2L*n).asShortBuffer();
+				loaded[index] = new ContigFrequencies(positions, freqs, n);
+			}
+			finally {
+				raf.close(); //Mappings remain valid after the channel is closed
+			}
+		}
+		return loaded[index];
+	}
+
+	/**
+	 * The sorted positions and frequencies of the known sites in one contig. Lookups use absolute
+	 * gets only, so one instance can be shared by all threads
+	 */
+	public static class ContigFrequencies {
+		private final IntBuffer positions;
+		private final ShortBuffer freqs;
+		private final int size;
+
+		ContigFrequencies(IntBuffer positions, ShortBuffer freqs, int size) {
+			this.positions = positions;
+			this.freqs = freqs;
+			this.size = size;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int getPosition(int index) {
+			return positions.get(index);
+		}
+
+		/**
+		 * Frequency of the site with the given index, in units of 1/FREQ_SCALE
+		 * @param index
+		 * @return
+		 */
+		public int getFrequency(int index) {
+			return freqs.get(index);
+		}
+
+		/**
+		 * Index of the first site at or after the given position, or size() if there is none
+		 * @param pos
+		 * @return
+		 */
+		public int lowerBound(int pos) {
+			int lo = 0;
+			int hi = size;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (positions.get(mid) < pos)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+
+		/**
+		 * Index of the site at the given position, or -1 if there isn't one
+		 * @param pos
+		 * @return
+		 */
+		public int indexOf(int pos) {
+			int i = lowerBound(pos);
+			if (i < size && positions.get(i) == pos)
+				return i;
+			return -1;
+		}
+	}
+
+	/**
+	 * Build a frequency file from a tab-separated text file with the contig in the first column, the position in the
+	 * second and the frequency (0..1) in the sixth. Lines with any other number of columns are skipped. Lines
+	 * needn't be sorted or grouped by contig; the sites for every contig are collected before any are written.
+	 * As usual the file is written under a temporary name and renamed when complete
+	 * @param input
+	 * @param destination
+	 * @return The number of sites written
+	 * @throws IOException
+	 */
+	public static long convert(File input, File destination) throws IOException {
+		File tmpFile = new File(destination.getAbsolutePath() + ".tmp");
+		List<String> contigs = new ArrayList<String>();
+		List<Integer> contigCounts = new ArrayList<Integer>();
+		List<Long> contigOffsets = new ArrayList<Long>();
+		Map<String, SiteBuilder> builders = new LinkedHashMap<String, SiteBuilder>(); //In the order contigs are first seen
+		long offset = 0;
+
+		BufferedReader reader = new BufferedReader(new FileReader(input));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+		try {
+			SiteBuilder builder = null;
+
+			String line = reader.readLine();
+			while(line != null) {
+				String[] toks = line.split("\t");
+				if (toks.length == 6) {
+					if (builder == null || !builder.contig.equals(toks[0])) {
+						builder = builders.get(toks[0]);
+						if (builder == null) {
+							builder = new SiteBuilder(toks[0]);
+							builders.put(toks[0], builder);
+						}
+					}
+					int pos;
+					int freq;
+					try {
+						pos = Integer.parseInt(toks[1]);
+						freq = (int)Math.round(Double.parseDouble(toks[5]) * FREQ_SCALE);
+					}
+					catch (NumberFormatException ex) {
+						throw new IOException("Invalid line in " + input.getName() + " : " + line);
+					}
+					if (pos < 1) {
+						throw new IOException("Invalid position in " + input.getName() + " : " + line);
+					}
+					freq = Math.max(0, Math.min(FREQ_SCALE, freq));
+					builder.add(((long)pos << 32) | freq);
+				}
+				line = reader.readLine();
+			}
+			for(SiteBuilder contigSites : builders.values()) {
+				offset += writeContig(out, contigSites.sites, contigSites.count, contigSites.contig, contigs, contigCounts, contigOffsets, offset);
+			}
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(contigs.size());
+			for(int i=0; i<contigs.size(); i++) {
+				out.writeUTF(contigs.get(i));
+				out.writeInt(contigCounts.get(i));
+				out.writeLong(contigOffsets.get(i));
+			}
+			out.writeLong(offset);
+		}
+		finally {
+			reader.close();
+			out.close();
+		}
+
+		if (destination.exists())
+			destination.delete();
+		if (! tmpFile.renameTo(destination)) {
+			throw new IOException("Could not rename " + tmpFile.getName() + " to " + destination.getName());
+		}
+
+		long total = 0;
+		for(Integer count : contigCounts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Sort the sites for one contig and write their positions and then their frequencies, keeping only the first
+	 * site seen at each position. Returns the number of bytes written
+	 */
+	private static long writeContig(DataOutputStream out, long[] sites, int siteCount, String contig,
+			List<String> contigs, List<Integer> contigCounts, List<Long> contigOffsets, long offset) throws IOException {
+		//Sorting on the whole key would order duplicate positions by frequency, so sort on position only
+		//by stable-sorting the keys after tagging them with their input order
+		long[] keyed = new long[siteCount];
+		for(int i=0; i<siteCount; i++) {
+			keyed[i] = (sites[i] & 0xFFFFFFFF00000000L) | i;
+		}
+		Arrays.sort(keyed);
+
+		int[] order = new int[siteCount];
+		int unique = 0;
+		int prevPos = 0;
+		for(int i=0; i<siteCount; i++) {
+			int pos = (int)(keyed[i] >> 32);
+			if (unique > 0 && pos == prevPos)
+				continue;
+			order[unique] = (int)(keyed[i] & 0xFFFFFFFFL);
+			prevPos = pos;
+			unique++;
+		}
+
+		for(int i=0; i<unique; i++) {
+			out.writeInt((int)(sites[order[i]] >> 32));
+		}
+		for(int i=0; i<unique; i++) {
+			out.writeShort((int)(sites[order[i]] & 0xFFFF));
+		}
+
+		contigs.add(contig);
+		contigCounts.add(unique);
+		contigOffsets.add(offset);
+		return 6L*unique;
+	}
+
+	/**
+	 * The sites read so far for one contig, position in the high 32 bits and frequency in the low 16
+	 */
+	static class SiteBuilder {
+		final String contig;
+		long[] sites = new long[1024];
+		int count = 0;
+
+		SiteBuilder(String contig) {
+			this.contig = contig;
+		}
+
+		void add(long site) {
+			if (count == sites.length) {
+				sites = Arrays.copyOf(sites, 2*sites.length);
+			}
+			sites[count] = site;
+			count++;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package snpsvm.bamreading;
+
+import net.sf.samtools.Cigar;
+import net.sf.samtools.CigarElement;
+import net.sf.samtools.CigarOperator;
+
+/**
+ * Parses the reference positions of mismatching bases out of the MD tags written by most aligners,
+ * so mismatches can be found without looking at the reference at all. An instance keeps a buffer of
+ * positions that is reused for every read, so it should not be shared between threads.
+ * @author brendan
+ *
+ */
+public class MDTag {
+
+	public static final String MD = "MD";
+	public static final String NM = "NM";
+
+	private int[] positions = new int[64];
+
+	/**
+	 * Parse the reference positions of all mismatching bases from the given MD tag, and return the number
+	 * found. The positions are then available, in increasing order, from getPositions(). MD tags look like
+	 * 10A5^AC6, where numbers are runs of matching bases, letters are mismatching reference bases, and
+	 * letters following a ^ are deleted reference bases
+	 * @param md
+	 * @param alignmentStart
+	 * @return
+	 */
+	public int parse(String md, int alignmentStart) {
+		int count = 0;
+		int refPos = alignmentStart;
+		int run = 0;
+		boolean inDeletion = false;
+		for(int i=0; i<md.length(); i++) {
+			char c = md.charAt(i);
+			if (c >= '0' && c <= '9') {
+				run = run*10 + (c - '0');
+				inDeletion = false;
+			}
+			else {
+				refPos += run;
+				run = 0;
+				if (c == '^') {
+					inDeletion = true;
+				}
+				else if (inDeletion) {
+					refPos++;
+				}
+				else {
+					if (count == positions.length) {
+						int[] bigger = new int[2*positions.length];
+						System.arraycopy(positions, 0, bigger, 0, count);
+						positions = bigger;
+					}
+					positions[count] = refPos;
+					count++;
+					refPos++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Reference positions of the mismatches found by the last call to parse(..)
+	 * @return
+	 */
+	public int[] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * True if the MD tag can be used with the given cigar. Reference positions in MD tags don't
+	 * account for skipped regions (N operators), so those reads have to be compared with the reference
+	 * @param cig
+	 * @return
+	 */
+	public static boolean isUsable(Cigar cig) {
+		for(CigarElement el : cig.getCigarElements()) {
+			if (el.getOperator() == CigarOperator.N)
+				return false;
+		}
+		return true;
+	}
+}
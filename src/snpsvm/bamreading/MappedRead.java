@@ -2,7 +2,9 @@ package snpsvm.bamreading;
 
 import net.sf.samtools.Cigar;
 import net.sf.samtools.CigarElement;
+import net.sf.samtools.CigarOperator;
 import net.sf.samtools.SAMRecord;
+import util.IntArrayPool;
 
 public class MappedRead {
 
@@ -20,8 +22,13 @@ public class MappedRead {
 	final int readBasesCount;	//instant storage for number of bases in read 
 	final int readAlignmentStart; //instant storage for start of alignment of read
 	final byte[] readBases;		//instant storage for actual bases in read
+	private final IntArrayPool mapPool; //If non-null, refToReadMaps are borrowed from and returned to this pool
 
 	public MappedRead(SAMRecord rec) {
+		this(rec, null);
+	}
+	
+	public MappedRead(SAMRecord rec, IntArrayPool mapPool) {
 		if (! mapInitialized) {
 			for(int i=0; i<defaultMap.length; i++) {
 				defaultMap[i] = i;
@@ -33,12 +40,141 @@ public class MappedRead {
 		readBasesCount = read.getReadLength();
 		readAlignmentStart = read.getAlignmentStart();
 		readBases = read.getReadBases();
+		this.mapPool = mapPool;
+	}
+	
+	/**
+	 * Return any storage borrowed from the pool. This should be called when the read leaves
+	 * the window, after which the map will be rebuilt if it's needed again
+	 */
+	public void release() {
+		if (mapPool != null && refToReadMap != defaultMap) {
+			mapPool.release(refToReadMap);
+			refToReadMap = defaultMap;
+			initialized = false;
+		}
 	}
 	
 	public SAMRecord getRecord() {
 		return read;
 	}
 	
+	/**
+	 * Count the mismatches against the reference over the whole alignment, with the same quality filter as
+	 * getMismatchCount. This is called once when the read enters the window, after which the count is available
+	 * in constant time. If it's never called the mismatch count is computed from the FastaWindow on first use, as before.
+	 * Mismatches are found without touching the reference when possible: if the NM tag shows the read has no
+	 * mismatches there's nothing to find, otherwise the MD tag gives their positions. Only reads with neither
+	 * tag (or with skipped regions, which MD tags don't describe) are compared with the reference
+	 * @param ref
+	 * @param contigIndex Index of the read's contig in the reference
+	 * @param mdTag Used to parse MD tags, may be null in which case MD tags are ignored
+	 */
+	public void computeFeatures(SharedReference ref, int contigIndex, MDTag mdTag) {
+		Cigar cig = read.getCigar();
+		byte[] quals = read.getBaseQualities();
+		
+		//Indel bases account for part of the edit distance, and MD tags don't describe skipped regions
+		int indelBases = 0;
+		boolean skipped = false;
+		for(CigarElement el : cig.getCigarElements()) {
+			switch(el.getOperator()) {
+			case I :
+			case D :
+				indelBases += el.getLength();
+				break;
+			case N :
+				skipped = true;
+				break;
+			default :
+			}
+		}
+		
+		Integer nm = read.getIntegerAttribute(MDTag.NM);
+		String md = (mdTag == null || skipped) ? null : read.getStringAttribute(MDTag.MD);
+		if (nm != null && nm.intValue() == indelBases) {
+			//Edit distance is entirely due to indels, so there are no mismatches
+			mismatchCount = 0;
+		}
+		else if (md != null) {
+			mismatchCount = countMDMismatches(cig, quals, mdTag, mdTag.parse(md, readAlignmentStart));
+		}
+		else {
+			mismatchCount = countReferenceMismatches(cig, quals, ref, contigIndex);
+		}
+	}
+	
+	/**
+	 * Count the mismatches at the given reference positions (from an MD tag) whose bases have quality above 10.
+	 * A single walk over the cigar finds the read position of each one
+	 */
+	private int countMDMismatches(Cigar cig, byte[] quals, MDTag mdTag, int mdCount) {
+		if (mdCount == 0)
+			return 0;
+		
+		int[] positions = mdTag.getPositions();
+		int count = 0;
+		int mdIndex = 0;
+		int refPos = readAlignmentStart;
+		int readPos = 0;
+		for(CigarElement el : cig.getCigarElements()) {
+			CigarOperator op = el.getOperator();
+			int length = el.getLength();
+			if (op.consumesReadBases() && op.consumesReferenceBases()) {
+				int last = refPos + length - 1;
+				while(mdIndex < mdCount && positions[mdIndex] <= last) {
+					int pos = positions[mdIndex];
+					int index = readPos + pos - refPos;
+					if (pos >= refPos && index < quals.length && quals[index] > 10) {
+						count++;
+					}
+					mdIndex++;
+				}
+			}
+			if (op.consumesReadBases())
+				readPos += length;
+			if (op.consumesReferenceBases())
+				refPos += length;
+		}
+		return count;
+	}
+	
+	/**
+	 * Count the aligned bases with quality above 10 that differ from the reference
+	 */
+	private int countReferenceMismatches(Cigar cig, byte[] quals, SharedReference ref, int contigIndex) {
+		long contigLength = ref.getContigLength(contigIndex);
+		int count = 0;
+		int refPos = readAlignmentStart;
+		int readPos = 0;
+		for(CigarElement el : cig.getCigarElements()) {
+			CigarOperator op = el.getOperator();
+			int length = el.getLength();
+			if (op.consumesReadBases() && op.consumesReferenceBases()) {
+				for(int j=0; j<length; j++) {
+					int index = readPos + j;
+					int pos = refPos + j;
+					if (index < quals.length && quals[index] > 10 && pos <= contigLength 
+							&& ((char)readBases[index]) != ref.getBaseAt(contigIndex, pos)) {
+						count++;
+					}
+				}
+			}
+			if (op.consumesReadBases())
+				readPos += length;
+			if (op.consumesReferenceBases())
+				refPos += length;
+		}
+		return count;
+	}
+	
+	/**
+	 * Number of bases that align to the reference, have quality above 10 and differ from the reference base.
+	 * If computeFeatures has been called this covers the whole read, otherwise only the part of the read
+	 * within the given window (as it was on the first call) is examined
+	 * @param ref
+	 * @return
+	 */
 	public int getMismatchCount(FastaWindow ref) {
 		if (mismatchCount == -1) {
 			mismatchCount = 0;
@@ -81,6 +217,15 @@ public class MappedRead {
 		
 		return readBases[readPos];
 	}
+	
+	/**
+	 * Quality of the base at the given position in the read
+	 * @param readPos
+	 * @return
+	 */
+	public byte getQualityAtReadPos(int readPos) {
+		return read.getBaseQualities()[readPos];
+	}
 
 	/**
 	 * Return index of base in this read that maps to the given reference position
@@ -144,9 +289,15 @@ public class MappedRead {
 		boolean consumingRead = true;
 		boolean consumingReference = true;
 		
-		//56 is maximum deletion length we tolerate. remember we have -1's for every base on the read that missing in the reference,
-		//so we need extra space in the map for all those -1's 
-		refToReadMap = new int[ cig.getReferenceLength()+101 ];
+		//Map must cover every reference position spanned by the read as well as every offset up to the read length,
+		//since refPosToReadPos only checks the latter. Offsets beyond the reference span map to -1
+		int mapLength = Math.max(cig.getReferenceLength(), readBasesCount);
+		if (mapPool != null) {
+			refToReadMap = mapPool.acquire(mapLength);
+		}
+		else {
+			refToReadMap = new int[ mapLength ];
+		}
 		int refPos = 0;
 		int readPos = 0;
 		for(CigarElement el : cig.getCigarElements()) {
@@ -173,6 +324,10 @@ public class MappedRead {
 			}
 		}
 		
+		for(int i=refPos; i<mapLength; i++) {
+			refToReadMap[i] = -1;
+		}
+		
 		initialized = true;
 	}
 	
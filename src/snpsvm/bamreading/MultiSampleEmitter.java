@@ -0,0 +1,279 @@
+package snpsvm.bamreading;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.DecimalFormat;
+import java.util.BitSet;
+import java.util.List;
+
+import snpsvm.bamreading.FastaIndex.IndexNotFoundException;
+import snpsvm.bamreading.FastaReader2.EndOfContigException;
+import snpsvm.counters.ColumnComputer;
+import snpsvm.counters.ReferenceComputer;
+
+/**
+ * Like the ReferenceBAMEmitter, but for several samples (BAM files) at once. One AlignmentColumn for each
+ * sample is moved along in lockstep with a single FastaWindow, and whenever any sample has enough
+ * non-reference bases at a site, a line of data is written for every sample that has enough reads there.
+ * Counters that only depend on the reference (ReferenceComputers) are computed once per site and shared
+ * by all samples. Stretches of reference are only skipped when no sample could have a variant in them.
+ * Data and positions for each sample go to separate streams, so each can be run through the model on its own.
+ * @author brendan
+ *
+ */
+public class MultiSampleEmitter {
+
+	final FastaWindow refReader;
+	final AlignmentColumn[] columns;
+	final List<ColumnComputer> counters;
+	protected final int minDepth;
+	protected final int minVarDepth;
+	protected DecimalFormat formatter = new DecimalFormat("0.0####");
+	protected CandidateScanner scanner = null; //If non-null, used to find sites worth examining before emitting
+
+	private PrintStream[] dataStreams = null;
+	private BufferedWriter[] positionWriters = null;
+	private final double[][] sharedValues; //Values of ReferenceComputers at the current site, indexed by counter
+	private final boolean[] sharedComputed; //True if sharedValues[i] is up to date for the current site
+
+	public MultiSampleEmitter(File reference, List<ColumnComputer> counters, BamWindow[] windows, CallingOptions ops) throws IOException, IndexNotFoundException {
+		refReader = new FastaWindow(reference);
+		this.counters = counters;
+		this.minDepth = ops.getMinTotalDepth();
+		this.minVarDepth = ops.getMinVariantDepth();
+		columns = new AlignmentColumn[windows.length];
+		for(int i=0; i<windows.length; i++) {
+			windows[i].setDownsampling(ops.getMaxReadDepth(), ops.getDownsampleSeed(), ops.isStrandBalancedDownsampling());
+			windows[i].setPrefetch(ops.getPrefetchRecords());
+			windows[i].setReference(SharedReference.forReference(reference));
+			columns[i] = new AlignmentColumn(windows[i]);
+		}
+		sharedValues = new double[counters.size()][];
+		sharedComputed = new boolean[counters.size()];
+		if (ops.isScanForCandidates()) {
+			scanner = new CandidateScanner(reference, minVarDepth);
+		}
+	}
+
+	/**
+	 * Set the streams to which data and positions are written for each sample, in the same order as the windows
+	 * given to the constructor
+	 * @param dataStreams
+	 * @param positionWriters
+	 */
+	public void setOutputs(PrintStream[] dataStreams, BufferedWriter[] positionWriters) {
+		if (dataStreams.length != columns.length || positionWriters.length != columns.length) {
+			throw new IllegalArgumentException("Need exactly one data stream and positions writer per sample");
+		}
+		this.dataStreams = dataStreams;
+		this.positionWriters = positionWriters;
+	}
+
+	public int getSampleCount() {
+		return columns.length;
+	}
+
+	/**
+	 * Emit data for all samples for all sites in [start, end) where any sample may have a variant
+	 * @param contig
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	public void emitWindow(String contig, int start, int end) throws IOException {
+		if (! refReader.containsContig(contig)) {
+			System.err.println("Warning, reference does not contain contig: " + contig + ".  Skipping it.");
+			return;
+		}
+
+		try {
+			if (scanner != null) {
+				emitCandidates(contig, start, end);
+				return;
+			}
+
+			refReader.resetTo(contig, Math.max(1, start-refReader.windowSize/2));
+			for(AlignmentColumn col : columns) {
+				if (col.containContig(contig))
+					col.advanceTo(contig, start);
+			}
+
+			int curPos = start;
+			while(curPos < end && anyHasMoreReads()) {
+				emitSite(contig, curPos);
+
+				int nextPos = end;
+				for(AlignmentColumn col : columns) {
+					nextPos = Math.min(nextPos, EmitterUtils.nextEmittablePosition(col, minDepth, curPos, end));
+				}
+				if (nextPos >= end) {
+					break;
+				}
+
+				if (nextPos > curPos+1) {
+					//No sample can reach minDepth before nextPos, so jump straight there
+					advanceActive(contig, nextPos);
+					refReader.resetTo(contig, Math.max(1, nextPos-refReader.windowSize/2));
+					curPos = nextPos;
+					continue;
+				}
+
+				if (refReader.indexOfLeftEdge()<(curPos+1-refReader.windowSize/2)) {
+					try {
+						refReader.shift();
+					}
+					catch(EndOfContigException ex) {
+						//don't worry about it
+					}
+				}
+				advanceActive(contig, curPos+1);
+				curPos++;
+			}
+		} catch (EndOfContigException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Find candidate sites in every sample, then move all samples to each site found in any of them
+	 */
+	private void emitCandidates(String contig, int start, int end) throws IOException, EndOfContigException {
+		BitSet candidates = new BitSet();
+		for(AlignmentColumn col : columns) {
+			if (col.containContig(contig)) {
+				candidates.or( scanner.findCandidates(col.getBamWindow(), contig, start, end) );
+			}
+		}
+
+		//The scanner leaves the windows off any contig, so every sample is moved to the first site, after which
+		//only the samples that found reads need to be moved
+		boolean first = true;
+		for(int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i+1)) {
+			int pos = start + i;
+			if (first) {
+				advanceAll(contig, pos);
+				first = false;
+			}
+			else {
+				advanceActive(contig, pos);
+			}
+			refReader.resetTo(contig, Math.max(1, pos-refReader.windowSize/2));
+			emitSite(contig, pos);
+		}
+	}
+
+	/**
+	 * Move every sample that has reads in the contig to the given position
+	 */
+	private void advanceAll(String contig, int pos) {
+		for(AlignmentColumn col : columns) {
+			if (col.containContig(contig))
+				col.advanceTo(contig, pos);
+		}
+	}
+
+	/**
+	 * Move every sample that found reads in the current contig to the given position. Samples that didn't
+	 * find any reads when they were first moved to the contig won't find any later on, so we don't ask again
+	 */
+	private void advanceActive(String contig, int pos) {
+		for(AlignmentColumn col : columns) {
+			if (contig.equals(col.getCurrentContig()))
+				col.advanceTo(contig, pos);
+		}
+	}
+
+	private boolean anyHasMoreReads() {
+		for(AlignmentColumn col : columns) {
+			if (col.hasMoreReadsInCurrentContig() || col.getApproxDepth() > 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * True if the sample has enough reads at the site to be examined
+	 */
+	private boolean isExaminable(AlignmentColumn col, String contig, int pos) {
+		return contig.equals(col.getCurrentContig())
+				&& col.getCurrentPosition() == pos
+				&& col.getApproxDepth() >= minDepth;
+	}
+
+	/**
+	 * If any sample has enough non-reference bases at the current site, write data for all samples
+	 * with enough reads at the site
+	 * @param contig
+	 * @param pos
+	 */
+	protected void emitSite(String contig, int pos) {
+		final char refBase = refReader.getBaseAt(pos);
+		if (refBase == 'N') {
+			return;
+		}
+
+		boolean anyVariant = false;
+		for(AlignmentColumn col : columns) {
+			if (isExaminable(col, contig, pos) && col.hasXDifferingBases(refBase, minVarDepth)) {
+				anyVariant = true;
+				break;
+			}
+		}
+		if (! anyVariant) {
+			return;
+		}
+
+		for(int i=0; i<sharedComputed.length; i++) {
+			sharedComputed[i] = false;
+		}
+
+		for(int s=0; s<columns.length; s++) {
+			if (isExaminable(columns[s], contig, pos)) {
+				emitSample(s, refBase);
+			}
+		}
+	}
+
+	/**
+	 * Write the data and position lines for one sample at the current site
+	 */
+	private void emitSample(int sample, char refBase) {
+		AlignmentColumn col = columns[sample];
+		PrintStream out = dataStreams[sample];
+		out.print("-1"); //libsvm requires some label here but doesn't use it
+		int index = 1;
+		for(int c=0; c<counters.size(); c++) {
+			ColumnComputer counter = counters.get(c);
+			double[] values;
+			if (counter instanceof ReferenceComputer) {
+				if (! sharedComputed[c]) {
+					double[] computed = counter.computeValue(refBase, refReader, col);
+					if (sharedValues[c] == null || sharedValues[c].length != computed.length) {
+						sharedValues[c] = new double[computed.length];
+					}
+					System.arraycopy(computed, 0, sharedValues[c], 0, computed.length);
+					sharedComputed[c] = true;
+				}
+				values = sharedValues[c];
+			}
+			else {
+				values = counter.computeValue(refBase, refReader, col);
+			}
+
+			index = EmitterUtils.writeValues(out, counter, values, index, col, formatter);
+		}
+		out.println();
+
+		EmitterUtils.writePosition(positionWriters[sample], col, refBase);
+	}
+
+	/**
+	 * Release the reference readers used by this emitter
+	 */
+	public void close() {
+		if (scanner != null)
+			scanner.close();
+	}
+}
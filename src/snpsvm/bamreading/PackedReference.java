@@ -0,0 +1,483 @@
+package snpsvm.bamreading;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A reference genome stored as two bits per base, memory-mapped read-only and shared by all threads.
+ * The packed file is created once from the FASTA (it's written next to it, as reference.fasta.packed) and
+ * reused on later runs. Any base can then be looked up with a shift and a mask, instead of streaming bases
+ * through a FastaReader2.
+ * Bases other than A, C, G and T are flagged in an N-mask, and the few that aren't N (IUPAC ambiguity codes)
+ * are kept in a small sorted table. Lowercase (soft-masked) bases are flagged in a second mask, so getBaseAt
+ * returns exactly the character in the FASTA. Contigs without any N's or lowercase bases have no masks.
+ *
+ * File layout: for each contig the packed bases and its masks, then the ambiguity tables, then the header
+ * (contig names, lengths and offsets of everything), and finally the offset of the header as the last 8 bytes.
+ * @author brendan
+ *
+ */
+public class PackedReference {
+
+	public static final String SUFFIX = ".packed";
+	private static final int MAGIC = 0x53565032; //'SVP2'
+	private static final int VERSION = 1;
+	private static final char[] BASES = new char[]{'A', 'C', 'G', 'T'};
+	private static final long MIN_MAPPED_SIZE = 1 << 16; //Contigs whose data is smaller than this are read into memory instead of mapped
+
+	private static final Map<String, PackedReference> cache = new HashMap<String, PackedReference>();
+	private static final Map<String, Boolean> failed = new HashMap<String, Boolean>(); //References we couldn't pack, so we don't try again
+
+	private final File file;
+	private final Map<String, Integer> contigIndex = new LinkedHashMap<String, Integer>();
+	private final Contig[] contigs;
+
+	/**
+	 * Open and memory-map an existing packed reference file
+	 * @param packedFile
+	 * @throws IOException
+	 */
+	public PackedReference(File packedFile) throws IOException {
+		this.file = packedFile;
+		RandomAccessFile raf = new RandomAccessFile(packedFile, "r");
+		try {
+			FileChannel chan = raf.getChannel();
+			long fileLength = raf.length();
+			if (fileLength < 8) {
+				throw new IOException("Packed reference " + packedFile.getName() + " is truncated");
+			}
+			raf.seek(fileLength - 8);
+			long headerOffset = raf.readLong();
+			if (headerOffset < 0 || headerOffset >= fileLength - 8) {
+				throw new IOException("Packed reference " + packedFile.getName() + " has an invalid header offset");
+			}
+
+			byte[] headerBytes = new byte[(int)(fileLength - 8 - headerOffset)];
+			raf.seek(headerOffset);
+			raf.readFully(headerBytes);
+			DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBytes));
+			if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+				throw new IOException("File " + packedFile.getName() + " does not appear to be a packed reference");
+			}
+
+			int count = header.readInt();
+			contigs = new Contig[count];
+			for(int i=0; i<count; i++) {
+				Contig contig = new Contig();
+				contig.name = header.readUTF();
+				contig.length = header.readLong();
+				long seqOffset = header.readLong();
+				long nMaskOffset = header.readLong();
+				long caseMaskOffset = header.readLong();
+				int ambigCount = header.readInt();
+				long ambigOffset = header.readLong();
+
+				if (contig.length > 4L*Integer.MAX_VALUE) {
+					throw new IOException("Contig " + contig.name + " is too long to pack");
+				}
+				//Bases and masks are stored next to each other, so map them all at once
+				long maskBytes = (contig.length+7)/8;
+				long regionEnd = seqOffset + (contig.length+3)/4;
+				contig.nMaskStart = -1;
+				if (nMaskOffset >= 0) {
+					contig.nMaskStart = (int)(nMaskOffset - seqOffset);
+					regionEnd = nMaskOffset + maskBytes;
+				}
+				contig.caseMaskStart = -1;
+				if (caseMaskOffset >= 0) {
+					contig.caseMaskStart = (int)(caseMaskOffset - seqOffset);
+					regionEnd = caseMaskOffset + maskBytes;
+				}
+				contig.data = readRegion(chan, seqOffset, regionEnd - seqOffset);
+
+				contig.ambigPositions = new int[ambigCount];
+				contig.ambigBases = new byte[ambigCount];
+				if (ambigCount > 0) {
+					ByteBuffer ambig = chan.map(MapMode.READ_ONLY, ambigOffset, 5L*ambigCount);
+					for(int j=0; j<ambigCount; j++) {
+						contig.ambigPositions[j] = ambig.getInt();
+						contig.ambigBases[j] = ambig.get();
+					}
+				}
+				contigs[i] = contig;
+				contigIndex.put(contig.name, i);
+			}
+		}
+		finally {
+			//Mapped buffers stay valid after the channel is closed, so no file handle is held open
+			raf.close();
+		}
+	}
+
+	/**
+	 * Small regions (there may be many thousands of small contigs in a draft assembly) are read onto the heap,
+	 * larger ones are memory-mapped
+	 */
+	private static ByteBuffer readRegion(FileChannel chan, long offset, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Packed contig is too large to map");
+		}
+		if (size >= MIN_MAPPED_SIZE) {
+			return chan.map(MapMode.READ_ONLY, offset, size);
+		}
+		ByteBuffer buf = ByteBuffer.allocate((int)size);
+		while(buf.hasRemaining()) {
+			if (chan.read(buf, offset + buf.position()) < 0) {
+				throw new IOException("Packed reference is truncated");
+			}
+		}
+		return buf;
+	}
+
+	/**
+	 * Obtain the shared packed reference for the given FASTA, creating the packed file first if it doesn't
+	 * exist or is older than the FASTA. Returns null if the packed file can't be created (for instance if the
+	 * directory isn't writable), in which case callers should read the FASTA directly.
+	 * @param fastaFile
+	 * @return
+	 */
+	public static synchronized PackedReference forReference(File fastaFile) {
+		String key = fastaFile.getAbsolutePath();
+		PackedReference ref = cache.get(key);
+		if (ref != null || failed.containsKey(key)) {
+			return ref;
+		}
+
+		File packedFile = new File(key + SUFFIX);
+		try {
+			if ((! packedFile.exists()) || packedFile.lastModified() < fastaFile.lastModified()) {
+				System.err.println("Creating packed reference " + packedFile.getName() + " (only needs to be done once)");
+				pack(fastaFile, packedFile);
+			}
+			ref = new PackedReference(packedFile);
+			cache.put(key, ref);
+		}
+		catch (IOException ex) {
+			System.err.println("Warning, could not create packed reference " + packedFile.getAbsolutePath() + " : " + ex.getMessage() + ", reading FASTA directly");
+			failed.put(key, Boolean.TRUE);
+		}
+		return ref;
+	}
+
+	/**
+	 * Read the given FASTA and write it in packed form to the destination. The file is written under
+	 * a temporary name and renamed when complete, so a partial file is never used
+	 * @param fastaFile
+	 * @param destination
+	 * @throws IOException
+	 */
+	public static void pack(File fastaFile, File destination) throws IOException {
+		File tmpFile = new File(destination.getAbsolutePath() + ".tmp");
+		InputStream in = new BufferedInputStream(new FileInputStream(fastaFile), 1 << 16);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+		try {
+			List<Contig> packed = new ArrayList<Contig>();
+			List<ContigBuilder> ambiguous = new ArrayList<ContigBuilder>();
+			long offset = 0;
+
+			ContigBuilder builder = null;
+			int c = in.read();
+			while(c >= 0) {
+				if (c == '>') {
+					if (builder != null) {
+						offset = builder.write(out, offset, packed);
+						ambiguous.add(builder.ambiguousOnly());
+					}
+					builder = new ContigBuilder(readContigName(in));
+				}
+				else if (c != '\n' && c != '\r' && c != ' ' && c != '\t') {
+					if (builder == null) {
+						throw new IOException("FASTA file " + fastaFile.getName() + " does not start with a contig name");
+					}
+					builder.add((char)c);
+				}
+				c = in.read();
+			}
+			if (builder != null) {
+				offset = builder.write(out, offset, packed);
+				ambiguous.add(builder.ambiguousOnly());
+			}
+
+			//Tables of ambiguous bases for all contigs
+			long[] ambigOffsets = new long[packed.size()];
+			for(int i=0; i<packed.size(); i++) {
+				ambigOffsets[i] = offset;
+				ContigBuilder amb = ambiguous.get(i);
+				for(int j=0; j<amb.ambigCount; j++) {
+					out.writeInt(amb.ambigPositions[j]);
+					out.writeByte(amb.ambigBases[j]);
+				}
+				offset += 5L*amb.ambigCount;
+			}
+
+			long headerOffset = offset;
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(packed.size());
+			for(int i=0; i<packed.size(); i++) {
+				Contig contig = packed.get(i);
+				out.writeUTF(contig.name);
+				out.writeLong(contig.length);
+				out.writeLong(contig.seqOffset);
+				out.writeLong(contig.nMaskOffset);
+				out.writeLong(contig.caseMaskOffset);
+				out.writeInt(ambiguous.get(i).ambigCount);
+				out.writeLong(ambigOffsets[i]);
+			}
+			out.writeLong(headerOffset);
+		}
+		finally {
+			in.close();
+			out.close();
+		}
+
+		if (destination.exists())
+			destination.delete();
+		if (! tmpFile.renameTo(destination)) {
+			throw new IOException("Could not rename " + tmpFile.getName() + " to " + destination.getName());
+		}
+	}
+
+	/**
+	 * Read the rest of a '>' line and return the contig name, which is the first word, as in FastaIndex
+	 */
+	private static String readContigName(InputStream in) throws IOException {
+		ByteArrayOutputStream name = new ByteArrayOutputStream();
+		int c = in.read();
+		while(c >= 0 && c != '\n') {
+			name.write(c);
+			c = in.read();
+		}
+		return name.toString("UTF-8").trim().split("\\s")[0];
+	}
+
+	/**
+	 * The file this reference was read from
+	 * @return
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	public boolean containsContig(String contig) {
+		return contigIndex.containsKey(contig);
+	}
+
+	/**
+	 * All contig names, in the order they appear in the FASTA
+	 * @return
+	 */
+	public Collection<String> getContigs() {
+		return contigIndex.keySet();
+	}
+
+	/**
+	 * Length of the given contig, or null if there's no such contig
+	 * @param contig
+	 * @return
+	 */
+	public Long getContigLength(String contig) {
+		Integer index = contigIndex.get(contig);
+		if (index == null) {
+			return null;
+		}
+		return contigs[index].length;
+	}
+
+	/**
+	 * Index of the given contig, for use with getBaseAt(int, long), or -1 if there's no such contig
+	 * @param contig
+	 * @return
+	 */
+	public int getContigIndex(String contig) {
+		Integer index = contigIndex.get(contig);
+		if (index == null) {
+			return -1;
+		}
+		return index;
+	}
+
+	public char getBaseAt(String contig, long pos) {
+		int index = getContigIndex(contig);
+		if (index < 0) {
+			throw new IllegalArgumentException("Unknown contig : " + contig);
+		}
+		return getBaseAt(index, pos);
+	}
+
+	/**
+	 * Return the base at the given position (1-based) of the contig with the given index. Safe to call
+	 * from any number of threads at once.
+	 * @param contigIndex
+	 * @param pos
+	 * @return
+	 */
+	public char getBaseAt(int contigIndex, long pos) {
+		Contig contig = contigs[contigIndex];
+		if (pos < 1 || pos > contig.length) {
+			throw new IllegalArgumentException("Position " + pos + " is outside of contig " + contig.name + " (length " + contig.length + ")");
+		}
+		long i = pos - 1;
+		char base;
+		if (contig.nMaskStart >= 0 && (contig.data.get(contig.nMaskStart + (int)(i >>> 3)) & (1 << (i & 7))) != 0) {
+			base = 'N';
+			if (contig.ambigPositions.length > 0) {
+				int a = Arrays.binarySearch(contig.ambigPositions, (int)i);
+				if (a >= 0)
+					base = (char)contig.ambigBases[a];
+			}
+		}
+		else {
+			int b = contig.data.get((int)(i >>> 2));
+			base = BASES[(b >>> ((i & 3) << 1)) & 3];
+		}
+
+		if (contig.caseMaskStart >= 0 && (contig.data.get(contig.caseMaskStart + (int)(i >>> 3)) & (1 << (i & 7))) != 0) {
+			base = Character.toLowerCase(base);
+		}
+		return base;
+	}
+
+	static class Contig {
+		String name;
+		long length;
+		ByteBuffer data; //Packed bases, four per byte with the first base in the lowest two bits, followed by the masks
+		int nMaskStart; //Offset in data of N-mask, one bit per base set if base isn't A, C, G or T. -1 if there are none
+		int caseMaskStart; //Offset in data of mask of lowercase bases, -1 if there are none
+		int[] ambigPositions; //Sorted zero-based positions of masked bases that aren't N
+		byte[] ambigBases; //Uppercase base at each of the above positions
+
+		//Only used while packing
+		long seqOffset;
+		long nMaskOffset;
+		long caseMaskOffset;
+	}
+
+	/**
+	 * Accumulates the bases of one contig while packing
+	 */
+	static class ContigBuilder {
+		final String name;
+		byte[] seq = new byte[1024];
+		byte[] nMask = new byte[512];
+		byte[] caseMask = new byte[512];
+		boolean anyMasked = false;
+		boolean anyLower = false;
+		int[] ambigPositions = new int[16];
+		byte[] ambigBases = new byte[16];
+		int ambigCount = 0;
+		long length = 0;
+
+		ContigBuilder(String name) {
+			this.name = name;
+		}
+
+		void add(char c) throws IOException {
+			if (length >= 4L*Integer.MAX_VALUE - 4) {
+				throw new IOException("Contig " + name + " is too long to pack");
+			}
+			int seqIndex = (int)(length >>> 2);
+			int maskIndex = (int)(length >>> 3);
+			if (seqIndex >= seq.length) {
+				seq = Arrays.copyOf(seq, (int)Math.min(Integer.MAX_VALUE-8, 2L*seq.length));
+			}
+			if (maskIndex >= nMask.length) {
+				nMask = Arrays.copyOf(nMask, 2*nMask.length);
+				caseMask = Arrays.copyOf(caseMask, 2*caseMask.length);
+			}
+
+			if (Character.isLowerCase(c)) {
+				caseMask[maskIndex] |= 1 << (length & 7);
+				anyLower = true;
+				c = Character.toUpperCase(c);
+			}
+
+			int code = -1;
+			switch(c) {
+			case 'A' : code = 0; break;
+			case 'C' : code = 1; break;
+			case 'G' : code = 2; break;
+			case 'T' : code = 3; break;
+			}
+
+			if (code < 0) {
+				nMask[maskIndex] |= 1 << (length & 7);
+				anyMasked = true;
+				if (c != 'N') {
+					if (ambigCount == ambigPositions.length) {
+						ambigPositions = Arrays.copyOf(ambigPositions, 2*ambigCount);
+						ambigBases = Arrays.copyOf(ambigBases, 2*ambigCount);
+					}
+					ambigPositions[ambigCount] = (int)length;
+					ambigBases[ambigCount] = (byte)c;
+					ambigCount++;
+				}
+			}
+			else {
+				seq[seqIndex] |= code << ((length & 3) << 1);
+			}
+			length++;
+		}
+
+		/**
+		 * Write the packed bases and masks, add a description of the contig to the list and return the new offset
+		 */
+		long write(DataOutputStream out, long offset, List<Contig> contigs) throws IOException {
+			Contig contig = new Contig();
+			contig.name = name;
+			contig.length = length;
+			int seqBytes = (int)((length+3)/4);
+			int maskBytes = (int)((length+7)/8);
+
+			contig.seqOffset = offset;
+			out.write(seq, 0, seqBytes);
+			offset += seqBytes;
+
+			contig.nMaskOffset = -1;
+			if (anyMasked) {
+				contig.nMaskOffset = offset;
+				out.write(nMask, 0, maskBytes);
+				offset += maskBytes;
+			}
+
+			contig.caseMaskOffset = -1;
+			if (anyLower) {
+				contig.caseMaskOffset = offset;
+				out.write(caseMask, 0, maskBytes);
+				offset += maskBytes;
+			}
+			contigs.add(contig);
+			return offset;
+		}
+
+		/**
+		 * Release the packed bases and masks, keeping only the table of ambiguous bases
+		 */
+		ContigBuilder ambiguousOnly() {
+			seq = null;
+			nMask = null;
+			caseMask = null;
+			return this;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package snpsvm.bamreading;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+/**
+ * Wraps an iterator over SAMRecords and reads from it on a background thread, so that
+ * reading and decompressing the BAM overlaps with whatever the caller is doing with the records.
+ * Records are handed over in batches through a bounded queue, so at most about maxRecords are
+ * read ahead of the caller.
+ *
+ * The source iterator (and the SAMFileReader it came from) is only touched by the background thread
+ * until close() is called, which waits for that thread to finish before closing the source. So the reader
+ * can be queried again (for a new contig or region) as soon as close() returns.
+ * Background threads come from a shared pool and are reused for later iterators once closed, so
+ * re-querying a window doesn't start a new thread each time.
+ * @author brendan
+ *
+ */
+public class PrefetchingRecordIterator implements CloseableIterator<SAMRecord> {
+
+	public static final int BATCH_SIZE = 128; //Number of records handed between threads at once
+
+	private static final List<SAMRecord> END = new ArrayList<SAMRecord>(0); //Marks the end of the records
+
+	//Threads that read ahead for all iterators. Idle threads are kept for a while and then exit
+	private static final ExecutorService readers = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "BAM prefetch");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final CloseableIterator<SAMRecord> source;
+	private final BlockingQueue<List<SAMRecord>> queue;
+	private final Future<?> reading; //Completes when the background thread is done with the source
+	private volatile boolean closed = false;
+	private volatile Throwable error = null; //Set if the background thread failed
+
+	private List<SAMRecord> batch = null; //Batch currently being returned to the caller
+	private int batchIndex = 0;
+	private boolean finished = false;
+
+	public PrefetchingRecordIterator(CloseableIterator<SAMRecord> source, int maxRecords) {
+		this.source = source;
+		queue = new ArrayBlockingQueue<List<SAMRecord>>(Math.max(1, maxRecords / BATCH_SIZE));
+		reading = readers.submit(new Runnable() {
+			public void run() {
+				readRecords();
+			}
+		});
+	}
+
+	/**
+	 * Runs on the background thread, reads records from the source into the queue until
+	 * there are no more or we're closed
+	 */
+	private void readRecords() {
+		try {
+			List<SAMRecord> next = new ArrayList<SAMRecord>(BATCH_SIZE);
+			while(! closed && source.hasNext()) {
+				next.add(source.next());
+				if (next.size() == BATCH_SIZE) {
+					if (! put(next))
+						return;
+					next = new ArrayList<SAMRecord>(BATCH_SIZE);
+				}
+			}
+			if (next.size() > 0 && ! put(next))
+				return;
+		}
+		catch (Throwable t) {
+			error = t;
+		}
+		put(END);
+	}
+
+	/**
+	 * Add the batch to the queue, waiting for space if necessary. Returns false if this
+	 * iterator was closed before the batch could be added
+	 * @param records
+	 * @return
+	 */
+	private boolean put(List<SAMRecord> records) {
+		try {
+			while(! closed) {
+				if (queue.offer(records, 100, TimeUnit.MILLISECONDS))
+					return true;
+			}
+		} catch (InterruptedException e) {
+			//Treat like close
+		}
+		return false;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (batch != null && batchIndex < batch.size())
+			return true;
+		if (finished)
+			return false;
+
+		try {
+			batch = queue.take();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException("Interrupted while waiting for BAM records");
+		}
+		batchIndex = 0;
+
+		if (batch == END) {
+			batch = null;
+			finished = true;
+			if (error != null) {
+				throw new IllegalStateException("Error reading BAM records : " + error.getMessage(), error);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public SAMRecord next() {
+		if (! hasNext()) {
+			throw new NoSuchElementException();
+		}
+		SAMRecord rec = batch.get(batchIndex);
+		batch.set(batchIndex, null);
+		batchIndex++;
+		return rec;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Can't remove records from a BAM file");
+	}
+
+	/**
+	 * Stop the background thread, wait for it to finish, then close the source iterator
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		queue.clear(); //Frees the background thread if it's waiting for space
+		boolean interrupted = false;
+		while(! reading.isDone()) {
+			try {
+				reading.get();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			} catch (ExecutionException e) {
+				//readRecords catches everything, so this can't happen
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		queue.clear();
+		batch = null;
+		finished = true;
+		source.close();
+	}
+}
@@ -0,0 +1,184 @@
+package snpsvm.bamreading;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Downsampling of reads as they enter a BamWindow. Reads that share an alignment start position are
+ * collected into a group, and when the group is finished each read in it is kept with probability
+ * targetDepth / depth, where depth is the number of reads offered so far (kept or not) that cover the start
+ * position, including the group itself. Whether a read is kept is decided by a hash of the seed and the
+ * read name rather than by a random number stream, so both reads of a pair are usually kept or dropped
+ * together.
+ * Every read covering a position is offered before the window passes it however the window got there, since
+ * queries return all reads overlapping their start. So the depth, and hence the reads kept, don't depend on
+ * where the window started or how the regions were divided among threads or batches, and the same seed
+ * always gives the same results.
+ * When balancing strands, forward and reverse strand reads are counted separately and each strand is
+ * given half the target depth, or more if the other strand has fewer reads than its half.
+ * @author brendan
+ *
+ */
+public class ReadDownsampler {
+
+	private final int targetDepth;
+	private final long seed;
+	private final boolean strandBalanced;
+
+	//Alignment ends of the forward and reverse strand reads offered so far, used to count the reads covering
+	//each new group. If we're not balancing strands everything goes into forward
+	private final PriorityQueue<Integer> forwardEnds = new PriorityQueue<Integer>();
+	private final PriorityQueue<Integer> reverseEnds = new PriorityQueue<Integer>();
+
+	private final List<SAMRecord> group = new ArrayList<SAMRecord>();
+	private final List<SAMRecord> kept = new ArrayList<SAMRecord>();
+	private int lastContigIndex = -1;
+	private int groupContigIndex = -1;
+	private int groupStart = -1;
+
+	public ReadDownsampler(int targetDepth, long seed, boolean strandBalanced) {
+		if (targetDepth < 1) {
+			throw new IllegalArgumentException("Downsampling target depth must be at least one, got : " + targetDepth);
+		}
+		this.targetDepth = targetDepth;
+		this.seed = seed;
+		this.strandBalanced = strandBalanced;
+	}
+
+	public int getTargetDepth() {
+		return targetDepth;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public boolean isStrandBalanced() {
+		return strandBalanced;
+	}
+
+	/**
+	 * True if there's a group of reads currently being collected and the given read
+	 * belongs to it (it has the same contig and alignment start)
+	 * @param read
+	 * @return
+	 */
+	public boolean isInGroup(SAMRecord read) {
+		return groupStart >= 0
+				&& read.getAlignmentStart() == groupStart
+				&& read.getReferenceIndex().intValue() == groupContigIndex;
+	}
+
+	/**
+	 * Begin collecting reads that start at the given position. Groups must be begun in order of
+	 * start position along each contig
+	 * @param contigIndex Index of the contig in the BAM header
+	 * @param start
+	 */
+	public void beginGroup(int contigIndex, int start) {
+		group.clear();
+		if (contigIndex != lastContigIndex) {
+			forwardEnds.clear();
+			reverseEnds.clear();
+			lastContigIndex = contigIndex;
+		}
+		groupContigIndex = contigIndex;
+		groupStart = start;
+	}
+
+	/**
+	 * Offer a read from the current group
+	 * @param read
+	 */
+	public void offer(SAMRecord read) {
+		group.add(read);
+	}
+
+	/**
+	 * Close the current group and select the reads to keep, which can be obtained with getKept(i).
+	 * @return The number of reads kept
+	 */
+	public int finishGroup() {
+		kept.clear();
+		if (groupStart < 0) {
+			return 0;
+		}
+
+		//Reads that ended before this group no longer count towards the depth
+		while(! forwardEnds.isEmpty() && forwardEnds.peek() < groupStart)
+			forwardEnds.poll();
+		while(! reverseEnds.isEmpty() && reverseEnds.peek() < groupStart)
+			reverseEnds.poll();
+
+		for(SAMRecord read : group) {
+			if (strandBalanced && read.getReadNegativeStrandFlag())
+				reverseEnds.add(read.getAlignmentEnd());
+			else
+				forwardEnds.add(read.getAlignmentEnd());
+		}
+
+		double forwardRate;
+		double reverseRate;
+		if (! strandBalanced) {
+			forwardRate = (double)targetDepth / forwardEnds.size();
+			reverseRate = forwardRate;
+		}
+		else {
+			double half = targetDepth / 2.0;
+			forwardRate = Math.max(half, targetDepth - reverseEnds.size()) / forwardEnds.size();
+			reverseRate = Math.max(half, targetDepth - forwardEnds.size()) / reverseEnds.size();
+		}
+
+		for(SAMRecord read : group) {
+			double rate = (strandBalanced && read.getReadNegativeStrandFlag()) ? reverseRate : forwardRate;
+			if (rate >= 1.0 || hash(read.getReadName()) < rate) {
+				kept.add(read);
+			}
+		}
+
+		group.clear();
+		groupStart = -1;
+		groupContigIndex = -1;
+		return kept.size();
+	}
+
+	/**
+	 * A number in [0, 1) that depends only on the seed and the read name
+	 */
+	private double hash(String readName) {
+		long h = seed * 0x9E3779B97F4A7C15L + (readName == null ? 0 : readName.hashCode());
+		//Final mixing step from MurmurHash3, so that similar names give unrelated values
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (h >>> 11) / (double)(1L << 53);
+	}
+
+	/**
+	 * Obtain the i-th read kept after the last call to finishGroup()
+	 * @param i
+	 * @return
+	 */
+	public SAMRecord getKept(int i) {
+		return kept.get(i);
+	}
+
+	/**
+	 * Discard the current group, all reads in it and the record of reads offered so far. Must be called
+	 * whenever the reads start coming from a new query
+	 */
+	public void reset() {
+		group.clear();
+		kept.clear();
+		forwardEnds.clear();
+		reverseEnds.clear();
+		lastContigIndex = -1;
+		groupStart = -1;
+		groupContigIndex = -1;
+	}
+}
@@ -0,0 +1,104 @@
+package snpsvm.bamreading;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+/**
+ * An in-memory, coordinate-sorted collection of all the reads that overlap one region of a contig,
+ * used when reads are streamed from a source without an index. A BamWindow given a batch reads
+ * from it instead of querying a BAM file, so it can only be moved around within the batch's region.
+ * Reads that extend beyond the edges of the region are included, so neighboring batches share
+ * the reads that straddle the boundary between them.
+ * @author brendan
+ *
+ */
+public class RecordBatch {
+
+	private final String contig;
+	private final int start; //First position in region
+	private final int end; //One past the last position in region
+	private final List<SAMRecord> records;
+
+	public RecordBatch(String contig, int start, int end) {
+		this.contig = contig;
+		this.start = start;
+		this.end = end;
+		this.records = new ArrayList<SAMRecord>();
+	}
+
+	/**
+	 * Add a read to the batch. Reads must be added in order of alignment start
+	 * @param read
+	 */
+	public void add(SAMRecord read) {
+		records.add(read);
+	}
+
+	public String getContig() {
+		return contig;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public int size() {
+		return records.size();
+	}
+
+	public List<SAMRecord> getRecords() {
+		return records;
+	}
+
+	/**
+	 * Obtain an iterator over all reads in this batch that overlap the given region, in order
+	 * of alignment start
+	 * @param queryContig
+	 * @param queryStart
+	 * @param queryEnd
+	 * @return
+	 */
+	public CloseableIterator<SAMRecord> query(String queryContig, final int queryStart, final int queryEnd) {
+		final int size = contig.equals(queryContig) ? records.size() : 0;
+
+		return new CloseableIterator<SAMRecord>() {
+			int index = advance(0);
+
+			private int advance(int i) {
+				while(i < size && records.get(i).getAlignmentEnd() < queryStart) {
+					i++;
+				}
+				return i;
+			}
+
+			public boolean hasNext() {
+				return index < size && records.get(index).getAlignmentStart() <= queryEnd;
+			}
+
+			public SAMRecord next() {
+				if (! hasNext()) {
+					throw new NoSuchElementException();
+				}
+				SAMRecord rec = records.get(index);
+				index = advance(index+1);
+				return rec;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException("Can't remove records from a batch");
+			}
+
+			public void close() {
+				index = size;
+			}
+		};
+	}
+}
@@ -5,12 +5,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import snpsvm.bamreading.FastaIndex.IndexNotFoundException;
 import snpsvm.bamreading.FastaReader2.EndOfContigException;
+import snpsvm.bamreading.intervalProcessing.IntervalList.Interval;
 import snpsvm.counters.BinomProbComputer;
 import snpsvm.counters.ColumnComputer;
 
@@ -25,6 +29,8 @@ public class ReferenceBAMEmitter {
 	protected BinomProbComputer binomComputer = new BinomProbComputer(); //Used for initial filtering 
 	protected final int minDepth;
 	protected final int minVarDepth;
+	protected CandidateScanner scanner = null; //If non-null, used to find sites worth examining before emitting
+	protected final int queryMergeGap; //Intervals closer than this are scanned with a single BAM query
 	
 	
 	public ReferenceBAMEmitter(File reference, List<ColumnComputer> counters, BamWindow window, CallingOptions ops) throws IOException, IndexNotFoundException {
@@ -36,7 +42,14 @@ public class ReferenceBAMEmitter {
 		alnCol = new AlignmentColumn(window);
 		this.minDepth = ops.getMinTotalDepth();
 		this.minVarDepth = ops.getMinVariantDepth();
+		this.queryMergeGap = ops.getQueryMergeGap();
 		this.counters = counters;
+		alnCol.getBamWindow().setDownsampling(ops.getMaxReadDepth(), ops.getDownsampleSeed(), ops.isStrandBalancedDownsampling());
+		alnCol.getBamWindow().setPrefetch(ops.getPrefetchRecords());
+		alnCol.getBamWindow().setReference(SharedReference.forReference(reference));
+		if (ops.isScanForCandidates()) {
+			scanner = new CandidateScanner(reference, minVarDepth);
+		}
 	}
 	
 	public ReferenceBAMEmitter(File reference, File bamFile, List<ColumnComputer> counters, CallingOptions ops) throws IOException, IndexNotFoundException {
@@ -45,7 +58,14 @@ public class ReferenceBAMEmitter {
 		alnCol = new AlignmentColumn(bamFile);
 		this.minDepth = ops.getMinTotalDepth();
 		this.minVarDepth = ops.getMinVariantDepth();
+		this.queryMergeGap = ops.getQueryMergeGap();
 		this.counters = counters;
+		alnCol.getBamWindow().setDownsampling(ops.getMaxReadDepth(), ops.getDownsampleSeed(), ops.isStrandBalancedDownsampling());
+		alnCol.getBamWindow().setPrefetch(ops.getPrefetchRecords());
+		alnCol.getBamWindow().setReference(SharedReference.forReference(reference));
+		if (ops.isScanForCandidates()) {
+			scanner = new CandidateScanner(reference, minVarDepth);
+		}
 	}
 	
 	/**
@@ -77,29 +97,12 @@ public class ReferenceBAMEmitter {
 			int index = 1;
 			for(ColumnComputer counter : counters) {
 				final double[] values = counter.computeValue(refBase, refReader, alnCol);
-				for(int i=0; i<values.length; i++) {
-					if (values[i] < -1.0 || values[i] > 1.0) {
-						//final double x = values[i];
-						throw new IllegalArgumentException("Invalid value for counter: " + counter.getName() + " found value=" + values[i] + " chr: " + alnCol.getCurrentContig() + " pos:" + alnCol.getCurrentPosition());
-					}
-					if (Double.isInfinite(values[i]) || Double.isNaN(values[i])) {
-						throw new IllegalArgumentException("Non-regular value for counter: " + counter.getName() + " found value=" + values[i]);
-					}
-					if (values[i] != 0)
-						out.print("\t" + index + ":" + formatter.format(values[i]) );
-					index++;
-				}
+				index = EmitterUtils.writeValues(out, counter, values, index, alnCol, formatter);
 			}
 			out.println();
 			
 			if (positionWriter != null) {
-				try {
-					int[] counts = alnCol.getBaseCounts();
-					positionWriter.write( alnCol.getCurrentContig() + ":" + alnCol.getCurrentPosition() + ":" + refBase + ":" + counts[AlignmentColumn.A] + "," + counts[AlignmentColumn.C] + "," + counts[AlignmentColumn.G] + "," + counts[AlignmentColumn.T] + "\n");
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+				EmitterUtils.writePosition(positionWriter, alnCol, refBase);
 			}
 		}
 	}
@@ -132,6 +135,105 @@ public class ReferenceBAMEmitter {
 		emitWindow(contig, start, end, System.out);
 	}
 	
+	/**
+	 * Returns the next position after curPos at which depth could possibly reach minDepth, see
+	 * EmitterUtils.nextEmittablePosition
+	 * @param curPos
+	 * @param end
+	 * @return
+	 */
+	protected int nextEmittablePosition(int curPos, int end) {
+		return EmitterUtils.nextEmittablePosition(alnCol, minDepth, curPos, end);
+	}
+	
+	/**
+	 * Two-pass version of emitWindow: first find the positions with enough non-reference bases using
+	 * the CandidateScanner, then move directly to each of them and emit
+	 * @param contig
+	 * @param start
+	 * @param end
+	 * @param out
+	 * @throws IOException
+	 * @throws EndOfContigException
+	 */
+	protected void emitCandidates(String contig, int start, int end, PrintStream out) throws IOException, EndOfContigException {
+		BitSet candidates = scanner.findCandidates(alnCol.getBamWindow(), contig, start, end);
+		emitCandidates(contig, candidates, start, start, end, 0, out);
+	}
+	
+	/**
+	 * Move to and emit each position in candidates that falls in [start, end) and is beyond lastEmitted. Positions
+	 * in candidates are relative to offset. Returns the last position emitted, or lastEmitted if nothing was
+	 * @return
+	 */
+	private int emitCandidates(String contig, BitSet candidates, int offset, int start, int end, int lastEmitted, PrintStream out) throws IOException, EndOfContigException {
+		int first = Math.max(start, lastEmitted+1) - offset;
+		for(int i = candidates.nextSetBit(first); i >= 0 && offset + i < end; i = candidates.nextSetBit(i+1)) {
+			int pos = offset + i;
+			alnCol.advanceTo(contig, pos);
+			refReader.resetTo(contig, Math.max(1, pos-refReader.windowSize/2));
+			emitLine(out);
+			lastEmitted = pos;
+		}
+		return lastEmitted;
+	}
+	
+	/**
+	 * Emit all of the given intervals in one contig. When candidate scanning is on, intervals that are
+	 * within queryMergeGap bases of each other are scanned together with a single BAM query, instead of
+	 * one query per interval, so for panels with many small nearby intervals the blocks they share are only
+	 * read once per pass. Sites covered by more than one interval are only emitted once. 
+	 * @param contig
+	 * @param intervals
+	 * @param out
+	 * @throws IOException
+	 */
+	public void emitIntervals(String contig, List<Interval> intervals, PrintStream out) throws IOException {
+		if (scanner == null || intervals.size() < 2) {
+			for(Interval interval : intervals) {
+				emitWindow(contig, interval.getFirstPos(), interval.getLastPos(), out);
+			}
+			return;
+		}
+		
+		if (! refReader.containsContig(contig)) {
+			System.err.println("Warning, reference does not contain contig: " + contig + ".  Skipping it.");
+			return;
+		}
+		
+		if (! alnCol.containContig(contig)) {
+			System.err.println("Warning, alignment does not contain contig: " + contig + ".  Skipping it.");
+			return;
+		}
+		
+		List<Interval> sorted = new ArrayList<Interval>(intervals);
+		Collections.sort(sorted);
+		
+		try {
+			int lastEmitted = 0;
+			int groupStart = 0; //Index of first interval in current group
+			while(groupStart < sorted.size()) {
+				//Extend group while the next interval is close to the end of the group
+				int groupEnd = groupStart;
+				int regionEnd = sorted.get(groupStart).getLastPos();
+				while(groupEnd+1 < sorted.size() && sorted.get(groupEnd+1).getFirstPos() - regionEnd <= queryMergeGap) {
+					groupEnd++;
+					regionEnd = Math.max(regionEnd, sorted.get(groupEnd).getLastPos());
+				}
+				
+				int regionStart = sorted.get(groupStart).getFirstPos();
+				BitSet candidates = scanner.findCandidates(alnCol.getBamWindow(), contig, regionStart, regionEnd);
+				for(int i=groupStart; i<=groupEnd; i++) {
+					Interval interval = sorted.get(i);
+					lastEmitted = emitCandidates(contig, candidates, regionStart, interval.getFirstPos(), interval.getLastPos(), lastEmitted, out);
+				}
+				groupStart = groupEnd+1;
+			}
+		} catch (EndOfContigException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	public void emitWindow(String contig, int start, int end, PrintStream out) throws IOException {
 		if (! refReader.containsContig(contig)) {
 			//throw new IllegalArgumentException("Reference does not have contig : " + contig);
@@ -145,6 +247,11 @@ public class ReferenceBAMEmitter {
 		}
 		
 		try {
+			if (scanner != null) {
+				emitCandidates(contig, start, end, out);
+				return;
+			}
+			
 			refReader.resetTo(contig, Math.max(1, start-refReader.windowSize/2));
 			alnCol.advanceTo(contig, start);
 
@@ -152,6 +259,19 @@ public class ReferenceBAMEmitter {
 			while(curPos < end && alnCol.hasMoreReadsInCurrentContig()) {
 				emitLine(out);
 
+				int nextPos = nextEmittablePosition(curPos, end);
+				if (nextPos >= end) {
+					break;
+				}
+				if (nextPos > curPos+1) {
+					//Jump over the stretch where depth can't reach minDepth, seeking both the
+					//reads and the reference instead of moving them one base at a time
+					alnCol.advanceTo(contig, nextPos);
+					refReader.resetTo(contig, Math.max(1, nextPos-refReader.windowSize/2));
+					curPos = nextPos;
+					continue;
+				}
+				
 				if (refReader.indexOfLeftEdge()<(alnCol.getCurrentPosition()-refReader.windowSize/2)) {
 					try {
 						refReader.shift();
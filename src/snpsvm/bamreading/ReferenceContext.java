@@ -0,0 +1,306 @@
+package snpsvm.bamreading;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import snpsvm.bamreading.FastaIndex.IndexNotFoundException;
+import snpsvm.counters.DinucRepeatCounter;
+import snpsvm.counters.HomopolymerRunCounter;
+
+/**
+ * A precomputed track of sequence-context features for every position of a reference, written by the
+ * prepare-reference module next to the FASTA (as reference.fasta.context) and memory-mapped read-only by
+ * all threads. Each position has a 16-bit value holding the homopolymer run lengths and dinucleotide repeat
+ * counts to the left and right of the site, exactly as HomopolymerRunCounter and DinucRepeatCounter compute
+ * them, so those counters can do a single lookup instead of scanning the reference at every site.
+ * Positions where the counters can't compute a value (at the very ends of contigs) are stored as NOT_COMPUTED,
+ * and the counters then fall back to computing the value themselves.
+ *
+ * The file layout follows the PackedReference: the values for each contig, then the header, then the offset
+ * of the header as the last 8 bytes.
+ * @author brendan
+ *
+ */
+public class ReferenceContext {
+
+	public static final String SUFFIX = ".context";
+	public static final int NOT_COMPUTED = 0xFFFF;
+	private static final int MAGIC = 0x53564358; //'SVCX'
+	private static final int VERSION = 1;
+	private static final int BLOCK_SIZE = 1 << 20; //Number of positions computed by each task when building
+	private static final long MIN_MAPPED_SIZE = 1 << 16; //Contigs with less data than this are read into memory
+
+	private static final Map<String, ReferenceContext> cache = new HashMap<String, ReferenceContext>();
+	private static final Map<String, Boolean> missing = new HashMap<String, Boolean>();
+
+	private final ByteBuffer[] values; //Two bytes per position for each contig, null for contigs without a track
+	private final long[] lengths;
+
+	/**
+	 * Open an existing context track, which must have been built from the given reference
+	 * @param contextFile
+	 * @param reference
+	 * @throws IOException
+	 */
+	public ReferenceContext(File contextFile, SharedReference reference) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(contextFile, "r");
+		try {
+			FileChannel chan = raf.getChannel();
+			long fileLength = raf.length();
+			if (fileLength < 8) {
+				throw new IOException("Context track " + contextFile.getName() + " is truncated");
+			}
+			raf.seek(fileLength - 8);
+			long headerOffset = raf.readLong();
+			if (headerOffset < 0 || headerOffset >= fileLength - 8) {
+				throw new IOException("Context track " + contextFile.getName() + " has an invalid header offset");
+			}
+
+			byte[] headerBytes = new byte[(int)(fileLength - 8 - headerOffset)];
+			raf.seek(headerOffset);
+			raf.readFully(headerBytes);
+			DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBytes));
+			if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+				throw new IOException("File " + contextFile.getName() + " does not appear to be a context track");
+			}
+			if (header.readInt() != HomopolymerRunCounter.MAX_LENGTH || header.readInt() != DinucRepeatCounter.MAX_LENGTH) {
+				throw new IOException("Context track " + contextFile.getName() + " was computed with different settings, please run prepare-reference again");
+			}
+
+			int count = header.readInt();
+			if (count != reference.getContigs().size()) {
+				throw new IOException("Context track " + contextFile.getName() + " does not match reference, please run prepare-reference again");
+			}
+			values = new ByteBuffer[count];
+			lengths = new long[count];
+			for(int i=0; i<count; i++) {
+				String name = header.readUTF();
+				lengths[i] = header.readLong();
+				long offset = header.readLong();
+				if (reference.getContigIndex(name) != i || reference.getContigLength(name) != lengths[i]) {
+					throw new IOException("Context track " + contextFile.getName() + " does not match reference, please run prepare-reference again");
+				}
+				if (offset >= 0) {
+					values[i] = readRegion(chan, offset, 2*lengths[i]);
+				}
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static ByteBuffer readRegion(FileChannel chan, long offset, long size) throws IOException {
+		if (size >= MIN_MAPPED_SIZE) {
+			return chan.map(MapMode.READ_ONLY, offset, size);
+		}
+		ByteBuffer buf = ByteBuffer.allocate((int)size);
+		while(buf.hasRemaining()) {
+			if (chan.read(buf, offset + buf.position()) < 0) {
+				throw new IOException("Context track is truncated");
+			}
+		}
+		return buf;
+	}
+
+	/**
+	 * Obtain the shared context track for the given reference, or null if prepare-reference hasn't
+	 * been run for it (or the track is out of date). Tracks are never built here, see build(..)
+	 * @param fastaFile
+	 * @return
+	 */
+	public static synchronized ReferenceContext forReference(File fastaFile) {
+		String key = fastaFile.getAbsolutePath();
+		ReferenceContext context = cache.get(key);
+		if (context != null || missing.containsKey(key)) {
+			return context;
+		}
+
+		File contextFile = new File(key + SUFFIX);
+		if (contextFile.exists() && contextFile.lastModified() >= fastaFile.lastModified()) {
+			try {
+				context = new ReferenceContext(contextFile, SharedReference.forReference(fastaFile));
+				cache.put(key, context);
+				return context;
+			}
+			catch (IOException ex) {
+				System.err.println("Warning, could not read context track " + contextFile.getName() + " : " + ex.getMessage());
+			}
+			catch (IndexNotFoundException ex) {
+				System.err.println("Warning, could not read context track " + contextFile.getName() + ", no index found for reference");
+			}
+		}
+		missing.put(key, Boolean.TRUE);
+		return null;
+	}
+
+	/**
+	 * The context value at the given position (1-based) of the contig with the given index in the
+	 * shared reference, or NOT_COMPUTED if there isn't one
+	 * @param contigIndex
+	 * @param pos
+	 * @return
+	 */
+	public int getContext(int contigIndex, long pos) {
+		ByteBuffer buf = values[contigIndex];
+		if (buf == null || pos < 1 || pos > lengths[contigIndex]) {
+			return NOT_COMPUTED;
+		}
+		return buf.getShort((int)(2*(pos-1))) & 0xFFFF;
+	}
+
+	public static int homopolymerLeft(int context) {
+		return context & 0xF;
+	}
+
+	public static int homopolymerRight(int context) {
+		return (context >> 4) & 0xF;
+	}
+
+	public static int dinucLeft(int context) {
+		return (context >> 8) & 0xF;
+	}
+
+	public static int dinucRight(int context) {
+		return (context >> 12) & 0xF;
+	}
+
+	/**
+	 * Compute the context value at a position of the reference, using a window positioned the same way the
+	 * emitters position theirs (left edge half a window before the site)
+	 * @param window
+	 * @param contig
+	 * @param pos
+	 * @return
+	 */
+	static int computeContext(FastaWindow window, String contig, int pos) throws Exception {
+		window.resetTo(contig, Math.max(1, pos - window.getMaxSize()/2));
+		try {
+			int hLeft = HomopolymerRunCounter.leftRun(window, pos);
+			int hRight = HomopolymerRunCounter.rightRun(window, pos);
+			int dLeft = DinucRepeatCounter.leftRepeats(window, pos);
+			int dRight = DinucRepeatCounter.rightRepeats(window, pos);
+			return hLeft | (hRight << 4) | (dLeft << 8) | (dRight << 12);
+		}
+		catch (IllegalArgumentException ex) {
+			//Too close to the end of the contig, the counters will handle these sites themselves
+			return NOT_COMPUTED;
+		}
+	}
+
+	/**
+	 * Compute the context track for the given reference and write it to the destination,
+	 * splitting the work over the given number of threads. As with the PackedReference the file is
+	 * written under a temporary name and renamed when complete
+	 * @param reference
+	 * @param destination
+	 * @param threads
+	 * @throws IOException
+	 */
+	public static void build(final SharedReference reference, File destination, int threads) throws IOException {
+		File tmpFile = new File(destination.getAbsolutePath() + ".tmp");
+		List<String> contigs = new ArrayList<String>(reference.getContigs());
+		long[] offsets = new long[contigs.size()];
+		long offset = 0;
+		for(int i=0; i<contigs.size(); i++) {
+			long length = reference.getContigLength(contigs.get(i));
+			if (2*length > Integer.MAX_VALUE) {
+				//Too long to map in one piece, the counters will compute values for this contig themselves
+				offsets[i] = -1;
+				System.err.println("Warning, contig " + contigs.get(i) + " is too long for the context track, skipping it");
+				continue;
+			}
+			offsets[i] = offset;
+			offset += 2*length;
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			raf.setLength(0);
+			final FileChannel chan = raf.getChannel();
+			List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+			for(int i=0; i<contigs.size(); i++) {
+				if (offsets[i] < 0)
+					continue;
+				final String contig = contigs.get(i);
+				final int length = reference.getContigLength(contig).intValue();
+				for(int blockStart=1; blockStart<=length; blockStart+=BLOCK_SIZE) {
+					final int first = blockStart;
+					final int last = (int)Math.min(length, (long)blockStart + BLOCK_SIZE - 1);
+					final long blockOffset = offsets[i] + 2L*(first-1);
+					tasks.add(pool.submit(new Callable<Object>() {
+						public Object call() throws Exception {
+							FastaWindow window = new FastaWindow(reference);
+							ByteBuffer buf = ByteBuffer.allocate(2*(last-first+1));
+							for(int pos=first; pos<=last; pos++) {
+								buf.putShort((short)computeContext(window, contig, pos));
+							}
+							buf.flip();
+							long writePos = blockOffset;
+							while(buf.hasRemaining()) {
+								writePos += chan.write(buf, writePos);
+							}
+							return null;
+						}
+					}));
+				}
+			}
+
+			for(Future<Object> task : tasks) {
+				try {
+					task.get();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while building context track");
+				} catch (ExecutionException e) {
+					throw new IOException("Error building context track : " + e.getCause().getMessage());
+				}
+			}
+
+			ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+			DataOutputStream header = new DataOutputStream(headerBytes);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeInt(HomopolymerRunCounter.MAX_LENGTH);
+			header.writeInt(DinucRepeatCounter.MAX_LENGTH);
+			header.writeInt(contigs.size());
+			for(int i=0; i<contigs.size(); i++) {
+				header.writeUTF(contigs.get(i));
+				header.writeLong(reference.getContigLength(contigs.get(i)));
+				header.writeLong(offsets[i]);
+			}
+			header.writeLong(offset);
+			header.close();
+
+			raf.seek(offset);
+			raf.write(headerBytes.toByteArray());
+		}
+		finally {
+			pool.shutdownNow();
+			raf.close();
+		}
+
+		if (destination.exists())
+			destination.delete();
+		if (! tmpFile.renameTo(destination)) {
+			throw new IOException("Could not rename " + tmpFile.getName() + " to " + destination.getName());
+		}
+	}
+}
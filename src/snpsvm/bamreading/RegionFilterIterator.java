@@ -0,0 +1,81 @@
+package snpsvm.bamreading;
+
+import java.util.NoSuchElementException;
+
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+/**
+ * Passes through only those records from a coordinate-sorted source that overlap a region, and stops
+ * reading from the source once records start beyond the region. Used for index queries that return
+ * whole chunks of a BAM file, which may contain many reads outside of the region asked for.
+ * @author brendan
+ *
+ */
+public class RegionFilterIterator implements CloseableIterator<SAMRecord> {
+
+	private final CloseableIterator<SAMRecord> source; //May be null, in which case there are no records
+	private final int refIndex;
+	private final int start;
+	private final int end;
+	private SAMRecord next = null;
+
+	/**
+	 * @param source Records to filter, or null if there are none
+	 * @param refIndex Index in the BAM header of the region's contig
+	 * @param start First position of region
+	 * @param end Last position of region, inclusive
+	 */
+	public RegionFilterIterator(CloseableIterator<SAMRecord> source, int refIndex, int start, int end) {
+		this.source = source;
+		this.refIndex = refIndex;
+		this.start = start;
+		this.end = end;
+		findNext();
+	}
+
+	private void findNext() {
+		next = null;
+		if (source == null)
+			return;
+
+		while(source.hasNext()) {
+			SAMRecord rec = source.next();
+			int recIndex = rec.getReferenceIndex().intValue();
+			if (recIndex > refIndex || (recIndex == refIndex && rec.getAlignmentStart() > end)) {
+				return; //Sorted, so nothing after this can overlap
+			}
+			if (recIndex == refIndex && rec.getAlignmentEnd() >= start) {
+				next = rec;
+				return;
+			}
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	@Override
+	public SAMRecord next() {
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		SAMRecord rec = next;
+		findNext();
+		return rec;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Can't remove records from a BAM file");
+	}
+
+	@Override
+	public void close() {
+		next = null;
+		if (source != null)
+			source.close();
+	}
+}
@@ -99,25 +99,26 @@ public class ResultEmitter {
 		
 		//Compute het prob
 		//Each read has 50% chance of coming from source with a non-reference base
-		double hetProb = util.Math.binomPDF((int)Math.round(X), (int)Math.round(T), 0.5);
-		
+		double hetLog = util.Math.logBinomPDF(X, T, 0.5);
 		
 		//Compute homo non-reference prob
-		double homNonRefProb = util.Math.binomPDF((int)Math.round(X), (int)Math.round(T), 0.99);
+		double homNonRefLog = util.Math.logBinomPDF(X, T, 0.99);
 		
 		//Compute homo-reference prob
-		double homRefProb = util.Math.binomPDF((int)Math.round(X), (int)Math.round(T), 0.005);
-		
-		double tot = hetProb + homNonRefProb + homRefProb;
+		double homRefLog = util.Math.logBinomPDF(X, T, 0.005);
 		
-		double varProb = 1.0 - homRefProb / (homRefProb + hetProb + homNonRefProb);
+		//Normalize in log space so nothing underflows
+		double tot = util.Math.logSumExp(hetLog, homNonRefLog, homRefLog);
+		double hetProb = Math.exp(hetLog - tot);
+		double homNonRefProb = Math.exp(homNonRefLog - tot);
+		double homRefProb = Math.exp(homRefLog - tot);
 		
 		String zyg = "het";
 		if (homNonRefProb > hetProb) {
 			zyg = "hom";
 		}
 		
-		output.write(contig + "\t" + pos + "\t" + (end) + "\t" + ref + "\t" + alt + "\t" + formatter.format(qScore) + "\t" + depth + "\t" + zyg + "\t" + formatter.format(homRefProb/tot) + "\t" + formatter.format(hetProb/tot) + "\t" + formatter.format(homNonRefProb/tot) + "\n");
+		output.write(contig + "\t" + pos + "\t" + (end) + "\t" + ref + "\t" + alt + "\t" + formatter.format(qScore) + "\t" + depth + "\t" + zyg + "\t" + formatter.format(homRefProb) + "\t" + formatter.format(hetProb) + "\t" + formatter.format(homNonRefProb) + "\n");
 	}
 
 	/**
@@ -19,6 +19,7 @@ import libsvm.LIBSVMResult;
 public class ResultVariantConverter {
 	
 	private double variantQualityCutoff = 0.01;
+	private ContigDictionary contigDict = null; //If non-null, used to give variants contig IDs
 	
 
 	public double getVariantQualityCutoff() {
@@ -33,6 +34,14 @@ public class ResultVariantConverter {
 		this.variantQualityCutoff = variantQualityCutoff;
 	}
 
+	/**
+	 * Dictionary used to assign contig IDs to the variants created, so they sort in reference order
+	 * @param contigDict
+	 */
+	public void setContigDictionary(ContigDictionary contigDict) {
+		this.contigDict = contigDict;
+	}
+
 	public List<Variant> createVariantList(LIBSVMResult result) throws IOException {
 
 		//Check validity of result
@@ -79,7 +88,7 @@ public class ResultVariantConverter {
 			toks = resultLine.split(" ");
 			double qScore = parseQuality(toks[noVarIndex], toks[varIndex]);
 			if (qScore > variantQualityCutoff) {
-				Variant var = toVariant(posLine, qScore);
+				Variant var = toVariant(posLine, qScore, contigDict);
 				variants.add(var);
 			}
 
@@ -94,6 +103,18 @@ public class ResultVariantConverter {
 	}
 
 	public static Variant toVariant(String posLine, double qScore) {
+		return toVariant(posLine, qScore, null);
+	}
+	
+	/**
+	 * Create a variant from a line of the positions file, using the dictionary (if non-null) to 
+	 * assign the contig ID
+	 * @param posLine
+	 * @param qScore
+	 * @param contigDict
+	 * @return
+	 */
+	public static Variant toVariant(String posLine, double qScore, ContigDictionary contigDict) {
 		String[] posToks = posLine.split(":");
 
 		char ref = posToks[2].charAt(0);
@@ -112,16 +133,17 @@ public class ResultVariantConverter {
 		}
 		
 		
+		//Likelihoods are natural logs, so they don't underflow at high depth
 		//Compute het prob
 		//Each read has 50% chance of coming from source with a non-reference base
-		double hetProb = util.Math.binomPDF((int)Math.round(X), (int)Math.round(T), 0.5);
+		double hetLikelihood = util.Math.logBinomPDF(X, T, 0.5);
 		
 		
 		//Compute homo non-reference prob
-		double homNonRefProb = util.Math.binomPDF((int)Math.round(X), (int)Math.round(T), 0.99);
+		double homNonRefLikelihood = util.Math.logBinomPDF(X, T, 0.99);
 		
 		//Compute homo-reference prob
-		double homRefProb = util.Math.binomPDF((int)Math.round(X), (int)Math.round(T), 0.005);
+		double homRefLikelihood = util.Math.logBinomPDF(X, T, 0.005);
 		
 		char alt = 'N';
 		if (altIndex == 0)
@@ -135,7 +157,12 @@ public class ResultVariantConverter {
 		
 		int depth = baseCounts[0] + baseCounts[1] + baseCounts[2] + baseCounts[3];
 		int varDepth = baseCounts[altIndex];
-		Variant var = new Variant(contig, pos, ref, alt, qScore, depth, varDepth, homRefProb, hetProb, homNonRefProb);
+		int contigId = -1;
+		if (contigDict != null) {
+			contigId = contigDict.getId(contig);
+			contig = contigDict.intern(contig);
+		}
+		Variant var = Variant.fromLogLikelihoods(contig, contigId, pos, ref, alt, qScore, depth, varDepth, homRefLikelihood, hetLikelihood, homNonRefLikelihood);
 		return var;
 	}
 
@@ -0,0 +1,256 @@
+package snpsvm.bamreading;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import snpsvm.bamreading.FastaIndex.IndexNotFoundException;
+import snpsvm.bamreading.intervalProcessing.IntervalList;
+
+/**
+ * The one reference object shared by every thread in the process. The .fai index is parsed once, and
+ * bases are read with plain lookups that need no locking, so any number of windows and scanners can
+ * borrow it at once instead of each opening their own FastaReader2 (which re-parsed the index and held
+ * a file handle open that was never closed).
+ * Bases come from the PackedReference when there is one. Otherwise the FASTA itself is memory-mapped in
+ * 1Gb segments, and the byte offset of a base is computed from the line layout given in the index.
+ * Either way no file handles are held open once the reference has been loaded.
+ * Obtain the shared instance with forReference(file).
+ * @author brendan
+ *
+ */
+public class SharedReference {
+
+	private static final int SEGMENT_BITS = 30; //FASTA is mapped in segments of 2^30 bytes
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	private static final Map<String, SharedReference> cache = new HashMap<String, SharedReference>();
+
+	private final File fastaFile;
+	private final FastaIndex index;
+	private final Map<String, Integer> contigIndex = new HashMap<String, Integer>();
+	private final List<String> names;
+	private final long[] lengths;
+	private final long[] byteOffsets; //File offset of first base of each contig
+	private final int[] lineBases; //Bases per line for each contig
+	private final int[] lineLengths; //Bytes per line, including newline characters, for each contig
+
+	private final PackedReference packed; //If non-null, bases are read from here
+	private final ByteBuffer[] segments; //Mapped FASTA, only used if there's no packed reference
+
+	private SharedReference(File fastaFile) throws IOException, IndexNotFoundException {
+		this.fastaFile = fastaFile;
+		this.index = new FastaIndex(fastaFile);
+		names = new ArrayList<String>(index.getContigs());
+		lengths = new long[names.size()];
+		byteOffsets = new long[names.size()];
+		lineBases = new int[names.size()];
+		lineLengths = new int[names.size()];
+		for(int i=0; i<names.size(); i++) {
+			String name = names.get(i);
+			contigIndex.put(name, i);
+			lengths[i] = index.getContigLength(name);
+			byteOffsets[i] = index.getContigByteOffset(name);
+			lineBases[i] = index.getLineBaseCount(name);
+			lineLengths[i] = index.getLineLength(name);
+		}
+
+		PackedReference packedRef = PackedReference.forReference(fastaFile);
+		if (packedRef != null && ! matches(packedRef)) {
+			System.err.println("Warning, packed reference " + packedRef.getFile().getName() + " does not match the FASTA index, reading FASTA directly");
+			packedRef = null;
+		}
+		packed = packedRef;
+
+		if (packed == null) {
+			segments = mapFasta(fastaFile);
+		}
+		else {
+			segments = null;
+		}
+	}
+
+	/**
+	 * Obtain the shared reference for the given FASTA file, loading it if this is the first request
+	 * @param fastaFile
+	 * @return
+	 * @throws IOException
+	 * @throws IndexNotFoundException
+	 */
+	public static synchronized SharedReference forReference(File fastaFile) throws IOException, IndexNotFoundException {
+		String key = fastaFile.getAbsolutePath();
+		SharedReference ref = cache.get(key);
+		if (ref == null) {
+			ref = new SharedReference(fastaFile);
+			cache.put(key, ref);
+		}
+		return ref;
+	}
+
+	/**
+	 * True if the packed reference has exactly the same contigs, in the same order and with the same lengths,
+	 * as the index, so that contig indexes can be used with either
+	 */
+	private boolean matches(PackedReference packedRef) {
+		if (packedRef.getContigs().size() != names.size()) {
+			return false;
+		}
+		for(int i=0; i<names.size(); i++) {
+			if (packedRef.getContigIndex(names.get(i)) != i || packedRef.getContigLength(names.get(i)) != lengths[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static ByteBuffer[] mapFasta(File fastaFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(fastaFile, "r");
+		try {
+			FileChannel chan = raf.getChannel();
+			long size = chan.size();
+			int count = (int)((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+			ByteBuffer[] segs = new ByteBuffer[count];
+			for(int i=0; i<count; i++) {
+				long start = (long)i << SEGMENT_BITS;
+				segs[i] = chan.map(MapMode.READ_ONLY, start, Math.min(size - start, 1L << SEGMENT_BITS));
+			}
+			return segs;
+		}
+		finally {
+			//Mapped buffers stay valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Return the base at the given position (1-based) of the contig with the given index. Safe to call from
+	 * any number of threads at once.
+	 * @param contig
+	 * @param pos
+	 * @return
+	 */
+	public char getBaseAt(int contig, long pos) {
+		if (packed != null) {
+			return packed.getBaseAt(contig, pos);
+		}
+
+		if (pos < 1 || pos > lengths[contig]) {
+			throw new IllegalArgumentException("Position " + pos + " is outside of contig " + names.get(contig) + " (length " + lengths[contig] + ")");
+		}
+		long i = pos - 1;
+		long offset = byteOffsets[contig] + (i / lineBases[contig]) * lineLengths[contig] + (i % lineBases[contig]);
+		return (char)segments[(int)(offset >>> SEGMENT_BITS)].get((int)(offset & SEGMENT_MASK));
+	}
+
+	public char getBaseAt(String contig, long pos) {
+		int which = getContigIndex(contig);
+		if (which < 0) {
+			throw new IllegalArgumentException("Unknown contig : " + contig);
+		}
+		return getBaseAt(which, pos);
+	}
+
+	/**
+	 * Index of the contig with the given name, in the order contigs appear in the index, or -1 if there's no such contig.
+	 * Indexes are the same as those used by the PackedReference and the ReferenceContext
+	 * @param contig
+	 * @return
+	 */
+	public int getContigIndex(String contig) {
+		Integer which = contigIndex.get(contig);
+		if (which == null) {
+			return -1;
+		}
+		return which;
+	}
+
+	public boolean containsContig(String contig) {
+		return contigIndex.containsKey(contig);
+	}
+
+	/**
+	 * Length of the given contig, or null if there's no such contig
+	 * @param contig
+	 * @return
+	 */
+	public Long getContigLength(String contig) {
+		Integer which = contigIndex.get(contig);
+		if (which == null) {
+			return null;
+		}
+		return lengths[which];
+	}
+
+	/**
+	 * Length of the contig with the given index
+	 * @param contig
+	 * @return
+	 */
+	public long getContigLength(int contig) {
+		return lengths[contig];
+	}
+	
+	/**
+	 * All contig names, in index order
+	 * @return
+	 */
+	public Collection<String> getContigs() {
+		return index.getContigs();
+	}
+
+	/**
+	 * The (shared, parsed once) index of the reference
+	 * @return
+	 */
+	public FastaIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * True if bases are read from a packed copy of the reference
+	 * @return
+	 */
+	public boolean isPacked() {
+		return packed != null;
+	}
+
+	public PackedReference getPackedReference() {
+		return packed;
+	}
+
+	/**
+	 * The FASTA file this reference was read from
+	 * @return
+	 */
+	public File getFile() {
+		return fastaFile;
+	}
+
+	/**
+	 * Returns sum of all contig sizes
+	 * @return
+	 */
+	public long getExtent() {
+		return index.getExtent();
+	}
+
+	/**
+	 * An interval list covering every contig in the reference
+	 * @return
+	 */
+	public IntervalList toIntervals() {
+		IntervalList intervals = new IntervalList();
+		for(int i=0; i<names.size(); i++) {
+			intervals.addInterval(names.get(i), 1, (int)lengths[i]);
+		}
+		return intervals;
+	}
+}
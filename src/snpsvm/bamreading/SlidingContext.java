@@ -0,0 +1,282 @@
+package snpsvm.bamreading;
+
+/**
+ * Sequence-context features of the reference around a site, maintained incrementally as the site moves
+ * along a contig one base at a time, for the counters that used to rescan the bases around every site
+ * (HomopolymerRunCounter, DinucRepeatCounter, NucDiversityCounter and ContextComputer). Each FastaWindow
+ * owns one, see FastaWindow.getSlidingContext().
+ *
+ * The bases from SPAN before to SPAN after the current site are kept in a small ring, along with, for each
+ * base, the length of the homopolymer run and of the dinucleotide (period 2) run ending there and the position
+ * at which those runs next break. Moving to the next site adds one base, which updates all of them and the base
+ * composition of the diversity window in constant (amortized) time, and a rolling 2-bit code holds
+ * the CONTEXT_RANGE bases to either side. The values are then read directly for the current position.
+ * Jumps backwards or by more than MAX_SLIDE bases rebuild the ring around the new site.
+ *
+ * Near the edges of the window (which in practice means near the ends of a contig) the original counters are
+ * bounded by the window edges, so for those sites isInterior(pos) is false and the counters compute
+ * the values themselves as they always have.
+ * @author brendan
+ *
+ */
+public class SlidingContext {
+
+	public static final int RUN_LENGTH = 10; //Same as HomopolymerRunCounter.MAX_LENGTH and DinucRepeatCounter.MAX_LENGTH
+	public static final int DIVERSITY_WINDOW = 10; //Composition is counted from DIVERSITY_WINDOW before to DIVERSITY_WINDOW-1 after the site
+	public static final int CONTEXT_RANGE = 5; //Bases to either side of the site in the context code
+
+	private static final int SPAN = RUN_LENGTH + 2; //Bases held on either side of the current site
+	private static final int RING = 32; //Power of two, at least 2*SPAN+1
+	private static final int MASK = RING - 1;
+	private static final int MAX_SLIDE = 64; //Larger jumps rebuild the ring rather than sliding to the new site
+
+	private static final int CONTEXT_BASES = 2*CONTEXT_RANGE + 1;
+	private static final int CONTEXT_MASK = (1 << (2*CONTEXT_BASES)) - 1;
+	private static final int CONTEXT_FLAG_MASK = (1 << CONTEXT_BASES) - 1;
+
+	private final FastaWindow window;
+
+	private int pos = -1; //Current site, -1 if nothing is held
+	private int hi = -1; //Last position held, always pos+SPAN once something is held
+
+	private final char[] bases = new char[RING];
+	private final int[] run1 = new int[RING]; //Number of consecutive positions, ending here, whose base equals the one before
+	private final int[] run2 = new int[RING]; //Number of consecutive positions, ending here, whose base equals the one two before
+	private final int[] nextBreak1 = new int[RING]; //First position at or after this one whose base differs from the one before
+	private final int[] nextBreak2 = new int[RING]; //First position at or after this one whose base differs from the one two before
+	private int pending1; //First position for which nextBreak1 isn't known yet
+	private int pending2;
+
+	private final int[] composition = new int[4]; //A, C, T, G in the diversity window of the current site
+
+	private int contextCode = 0; //Two bits per base, oldest (leftmost) base in the highest bits
+	private int contextN = 0; //One bit per base set if the base is N
+	private int contextOther = 0; //One bit per base set if the base isn't A, C, G, T or N
+
+	SlidingContext(FastaWindow window) {
+		this.window = window;
+	}
+
+	/**
+	 * Forget everything held, called when the window moves to another contig
+	 */
+	void clear() {
+		pos = -1;
+		hi = -1;
+	}
+
+	/**
+	 * True if the features at the given position don't depend on the edges of the window, so that they can
+	 * be read from here. Only then may the other methods be called for the position
+	 * @param refPos
+	 * @return
+	 */
+	public boolean isInterior(int refPos) {
+		int left = window.indexOfLeftEdge();
+		return left > 0 && refPos - SPAN >= left && refPos + SPAN + 1 <= window.indexOfRightEdge() - 1;
+	}
+
+	/**
+	 * Length of the homopolymer run to the left of the site, as in HomopolymerRunCounter.leftRun
+	 * @param refPos
+	 * @return
+	 */
+	public int homopolymerLeft(int refPos) {
+		moveTo(refPos);
+		return Math.min(run1[(refPos-1) & MASK], RUN_LENGTH - 1);
+	}
+
+	/**
+	 * Length of the homopolymer run to the right of the site, as in HomopolymerRunCounter.rightRun
+	 * @param refPos
+	 * @return
+	 */
+	public int homopolymerRight(int refPos) {
+		moveTo(refPos);
+		int start = refPos + 2;
+		return Math.min(breakAfter(start, pending1, nextBreak1) - start, RUN_LENGTH - 1);
+	}
+
+	/**
+	 * Number of additional copies of the dinucleotide just before the site, as in DinucRepeatCounter.leftRepeats
+	 * @param refPos
+	 * @return
+	 */
+	public int dinucLeft(int refPos) {
+		moveTo(refPos);
+		if (bases[(refPos-1) & MASK] == bases[(refPos-2) & MASK])
+			return 0;
+		return Math.min(run2[(refPos-1) & MASK] / 2, (RUN_LENGTH - 2) / 2);
+	}
+
+	/**
+	 * Number of additional copies of the dinucleotide just after the site, as in DinucRepeatCounter.rightRepeats
+	 * @param refPos
+	 * @return
+	 */
+	public int dinucRight(int refPos) {
+		moveTo(refPos);
+		if (bases[(refPos+1) & MASK] == bases[(refPos+2) & MASK])
+			return 0;
+		int start = refPos + 3;
+		return Math.min((breakAfter(start, pending2, nextBreak2) - start) / 2, (RUN_LENGTH - 2) / 2);
+	}
+
+	/**
+	 * Counts of A, C, T and G (in that order) from DIVERSITY_WINDOW bases before the site to DIVERSITY_WINDOW-1
+	 * bases after it. The array is reused
+	 * @param refPos
+	 * @return
+	 */
+	public int[] getComposition(int refPos) {
+		moveTo(refPos);
+		return composition;
+	}
+
+	/**
+	 * The bases from CONTEXT_RANGE before to CONTEXT_RANGE after the site, two bits each (A=0, C=1, T=2, G=3), with
+	 * the leftmost in the highest bits. Bases that are N have their bit set in getContextN(refPos)
+	 * @param refPos
+	 * @return
+	 */
+	public int getContextCode(int refPos) {
+		moveTo(refPos);
+		return contextCode;
+	}
+
+	/**
+	 * One bit per base of the context code, leftmost highest, set if the base is N
+	 * @param refPos
+	 * @return
+	 */
+	public int getContextN(int refPos) {
+		moveTo(refPos);
+		return contextN;
+	}
+
+	/**
+	 * True if any base of the context is something other than A, C, G, T or N
+	 * @param refPos
+	 * @return
+	 */
+	public boolean hasUnknownContextBase(int refPos) {
+		moveTo(refPos);
+		return contextOther != 0;
+	}
+
+	/**
+	 * Position of the first break at or after start, or one past the last position held if it's beyond that
+	 */
+	private int breakAfter(int start, int pending, int[] nextBreak) {
+		if (start >= pending) {
+			return hi + 1;
+		}
+		return nextBreak[start & MASK];
+	}
+
+	private void moveTo(int refPos) {
+		if (refPos == pos) {
+			return;
+		}
+		if (pos < 0 || refPos < pos || refPos - pos > MAX_SLIDE) {
+			rebuild(refPos);
+			return;
+		}
+		while(pos < refPos) {
+			slide();
+		}
+	}
+
+	/**
+	 * Fill the ring with the bases around refPos and compute everything from scratch
+	 */
+	private void rebuild(int refPos) {
+		int lo = refPos - SPAN;
+		hi = lo - 1;
+		pending1 = lo;
+		pending2 = lo;
+		contextCode = 0;
+		contextN = 0;
+		contextOther = 0;
+		for(int i=0; i<4; i++) {
+			composition[i] = 0;
+		}
+		for(int p=lo; p<=refPos+SPAN; p++) {
+			append(p, lo);
+		}
+
+		pos = refPos;
+		for(int p=pos-DIVERSITY_WINDOW; p<pos+DIVERSITY_WINDOW; p++) {
+			addComposition(bases[p & MASK], 1);
+		}
+		for(int p=pos-CONTEXT_RANGE; p<=pos+CONTEXT_RANGE; p++) {
+			addContext(bases[p & MASK]);
+		}
+	}
+
+	/**
+	 * Move the current site one base to the right
+	 */
+	private void slide() {
+		append(hi + 1, hi + 1 - 2*SPAN);
+		pos++;
+		addComposition(bases[(pos - DIVERSITY_WINDOW - 1) & MASK], -1);
+		addComposition(bases[(pos + DIVERSITY_WINDOW - 1) & MASK], 1);
+		addContext(bases[(pos + CONTEXT_RANGE) & MASK]);
+	}
+
+	/**
+	 * Add the base at position p to the ring and update the runs. Positions before lo aren't held (any more), so
+	 * the runs treat lo as the start of the sequence
+	 */
+	private void append(int p, int lo) {
+		final char base = window.getBaseAt(p);
+		final int i = p & MASK;
+		bases[i] = base;
+		hi = p;
+
+		boolean same1 = p > lo && base == bases[(p-1) & MASK];
+		run1[i] = same1 ? run1[(p-1) & MASK] + 1 : 0;
+		if (! same1) {
+			for(int q=Math.max(pending1, lo); q<=p; q++) {
+				nextBreak1[q & MASK] = p;
+			}
+			pending1 = p + 1;
+		}
+
+		boolean same2 = p > lo + 1 && base == bases[(p-2) & MASK];
+		run2[i] = same2 ? run2[(p-1) & MASK] + 1 : 0;
+		if (! same2) {
+			for(int q=Math.max(pending2, lo); q<=p; q++) {
+				nextBreak2[q & MASK] = p;
+			}
+			pending2 = p + 1;
+		}
+	}
+
+	private void addComposition(char base, int amount) {
+		switch(base) {
+		case 'A' : composition[0] += amount; break;
+		case 'C' : composition[1] += amount; break;
+		case 'T' : composition[2] += amount; break;
+		case 'G' : composition[3] += amount; break;
+		}
+	}
+
+	private void addContext(char base) {
+		int code = 0;
+		int n = 0;
+		int other = 0;
+		switch(base) {
+		case 'A' : code = 0; break;
+		case 'C' : code = 1; break;
+		case 'T' : code = 2; break;
+		case 'G' : code = 3; break;
+		case 'N' : n = 1; break;
+		default : other = 1;
+		}
+		contextCode = ((contextCode << 2) | code) & CONTEXT_MASK;
+		contextN = ((contextN << 1) | n) & CONTEXT_FLAG_MASK;
+		contextOther = ((contextOther << 1) | other) & CONTEXT_FLAG_MASK;
+	}
+}
@@ -0,0 +1,109 @@
+package snpsvm.bamreading;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of a tabix index (.tbi, as produced by 'tabix -p vcf') we need to read all the records for one contig
+ * of a bgzipped file without reading the ones before it: the virtual file offset of the first record of
+ * each contig. Records for each contig are contiguous in a tabix-indexed file, so reading can start at
+ * that offset and stop at the first record for another contig.
+ * @author brendan
+ *
+ */
+public class TabixIndex {
+
+	private static final byte[] MAGIC = new byte[]{'T', 'B', 'I', 1};
+	private static final int PSEUDO_BIN = 37450; //Holds counts rather than chunks in indexes written by htslib
+
+	private final List<String> contigs = new ArrayList<String>();
+	private final Map<String, Long> contigStarts = new HashMap<String, Long>();
+
+	public TabixIndex(File tbiFile) throws IOException {
+		ByteBuffer buf = CSIIndex.readAll(tbiFile);
+
+		for(int i=0; i<MAGIC.length; i++) {
+			if (buf.get() != MAGIC[i]) {
+				throw new IOException("File " + tbiFile.getName() + " does not appear to be a tabix index");
+			}
+		}
+
+		int refCount = buf.getInt();
+		buf.position(buf.position() + 6*4); //format, sequence/start/end columns, comment char and lines to skip
+		int namesLength = buf.getInt();
+		byte[] names = new byte[namesLength];
+		buf.get(names);
+		int nameStart = 0;
+		for(int i=0; i<namesLength; i++) {
+			if (names[i] == 0) {
+				contigs.add(new String(names, nameStart, i - nameStart, "US-ASCII"));
+				nameStart = i+1;
+			}
+		}
+		if (contigs.size() != refCount) {
+			throw new IOException("Tabix index " + tbiFile.getName() + " has " + contigs.size() + " names for " + refCount + " contigs");
+		}
+
+		for(int i=0; i<refCount; i++) {
+			long first = Long.MAX_VALUE;
+			int binCount = buf.getInt();
+			for(int j=0; j<binCount; j++) {
+				int binNumber = buf.getInt();
+				int chunkCount = buf.getInt();
+				for(int k=0; k<chunkCount; k++) {
+					long chunkStart = buf.getLong();
+					buf.getLong(); //chunk end
+					if (binNumber != PSEUDO_BIN) {
+						first = Math.min(first, chunkStart);
+					}
+				}
+			}
+			int intervalCount = buf.getInt();
+			buf.position(buf.position() + 8*intervalCount); //Linear index
+
+			if (first != Long.MAX_VALUE) {
+				contigStarts.put(contigs.get(i), first);
+			}
+		}
+	}
+
+	/**
+	 * Names of all contigs in the index, in file order
+	 * @return
+	 */
+	public List<String> getContigs() {
+		return Collections.unmodifiableList(contigs);
+	}
+
+	/**
+	 * Virtual file offset of the first record for the contig, or -1 if there are no records for it
+	 * @param contig
+	 * @return
+	 */
+	public long getContigStart(String contig) {
+		Long start = contigStarts.get(contig);
+		if (start == null) {
+			return -1;
+		}
+		return start;
+	}
+
+	/**
+	 * Look for a tabix index next to the given bgzipped file (file.gz.tbi)
+	 * @param file
+	 * @return The index, or null if there isn't one
+	 */
+	public static File findIndex(File file) {
+		File index = new File(file.getAbsolutePath() + ".tbi");
+		if (index.exists()) {
+			return index;
+		}
+		return null;
+	}
+}
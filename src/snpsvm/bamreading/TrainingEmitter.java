@@ -29,13 +29,24 @@ public class TrainingEmitter extends ReferenceBAMEmitter {
 			File reference, 
 			File bamFile,
 			List<ColumnComputer> counters) throws IOException, IndexNotFoundException {
-		super(reference, bamFile, counters, new CallingOptions()); 
+		super(reference, bamFile, counters, trainingOptions()); 
 		
 		this.knownTrueSites = new VariantPositionList(knownVarSites);
 		this.knownFalseSites = new VariantPositionList(knownFalseSites);
 	}
 	
 	
+	/**
+	 * Known false sites need not contain any non-reference bases, so we can't skip
+	 * sites using a candidate scan when emitting training data
+	 * @return
+	 */
+	private static CallingOptions trainingOptions() {
+		CallingOptions ops = new CallingOptions();
+		ops.setScanForCandidates(false);
+		return ops;
+	}
+	
 	public void emitLine(PrintStream out) {
 		if (alnCol.getApproxDepth()>1) {
 			try {
@@ -72,17 +83,7 @@ public class TrainingEmitter extends ReferenceBAMEmitter {
 				//out.print(alnCol.getCurrentPosition() + "\t" + refReader.getCurrentBase() + " : " + alnCol.getBasesAsString());
 				for(ColumnComputer counter : counters) {
 					double[] values = counter.computeValue(refBase, refReader, alnCol);
-					for(int i=0; i<values.length; i++) {
-						if (values[i] < -1 || values[i] > 1) {
-							throw new IllegalArgumentException("Invalid value for counter: " + counter.getName() + " found value=" + values[i]);
-						}
-						if (Double.isInfinite(values[i]) || Double.isNaN(values[i])) {
-							throw new IllegalArgumentException("Invalid value for counter: " + counter.getName() + " found value=" + values[i]);
-						}
-						if (values[i] != 0)
-							out.print("\t" + index + ":" + formatter.format(values[i]) );
-						index++;
-					}
+					index = EmitterUtils.writeValues(out, counter, values, index, alnCol, formatter);
 				}
 				out.println();
 				
@@ -7,10 +7,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import snpsvm.bamreading.ContigDictionary;
+
 /**
  * Container for a sorted list of Intervals, grouped by contig
  * @author brendan
@@ -18,7 +20,7 @@ import java.util.Map;
  */
 public class IntervalList {
 
-	protected Map<String, List<Interval>> intervals = new HashMap<String, List<Interval>>();
+	protected Map<String, List<Interval>> intervals = new LinkedHashMap<String, List<Interval>>();
 	
 	/**
 	 * Create a single new list that contains all intervals
@@ -40,7 +42,7 @@ public class IntervalList {
 	 * @param inputStr
 	 */
 	public void buildFromString(String inputStr) {
-		intervals = new HashMap<String, List<Interval>>();
+		intervals = new LinkedHashMap<String, List<Interval>>();
 		String[] toks = inputStr.split(",");
 		for(int i=0; i<toks.length; i++) {
 			String tok = toks[i].trim();
@@ -78,7 +80,7 @@ public class IntervalList {
 	}
 	
 	public void buildFromBEDFile(File bedFile) throws IOException {
-		intervals = new HashMap<String, List<Interval>>();
+		intervals = new LinkedHashMap<String, List<Interval>>();
 		
 		BufferedReader reader = new BufferedReader(new FileReader(bedFile));
 		String line = reader.readLine();
@@ -173,6 +175,19 @@ public class IntervalList {
 		}
 	}
 	
+	/**
+	 * Reorder the contigs in this list so that they're in reference order, and replace each
+	 * contig name with the dictionary's canonical instance
+	 * @param dict
+	 */
+	public void sortContigs(ContigDictionary dict) {
+		Map<String, List<Interval>> sorted = new LinkedHashMap<String, List<Interval>>();
+		for(String contig : dict.sort(intervals.keySet())) {
+			sorted.put(contig, intervals.get(contig));
+		}
+		intervals = sorted;
+	}
+	
 	/**
 	 * Merges all mergeable intervals in the given list
 	 * @param inters
@@ -0,0 +1,61 @@
+package snpsvm.bamreading.snpCalling;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import snpsvm.bamreading.BAMWindowStore;
+import snpsvm.bamreading.CallingOptions;
+import snpsvm.bamreading.intervalProcessing.AbstractIntervalProcessor;
+import snpsvm.bamreading.intervalProcessing.IntervalCaller;
+import snpsvm.bamreading.intervalProcessing.IntervalList;
+import snpsvm.bamreading.variant.MultiSampleVariant;
+import snpsvm.counters.CounterSource;
+
+/**
+ * A type of interval processor that calls snps jointly in several samples for each interval processed
+ * @author brendan
+ *
+ */
+public class MultiSampleIntervalCaller extends AbstractIntervalProcessor<List<MultiSampleVariant>> {
+
+	private File reference;
+	private File model;
+	protected BAMWindowStore[] bamWindows; //One store for each sample
+
+	public MultiSampleIntervalCaller(ThreadPoolExecutor pool,
+								CallingOptions ops,
+								File referenceFile,
+								File modelFile,
+								BAMWindowStore[] bamWindows) {
+		super(pool, ops);
+		this.reference = referenceFile;
+		this.model = modelFile;
+		this.bamWindows = bamWindows;
+	}
+
+	@Override
+	protected IntervalCaller<List<MultiSampleVariant>> getIntervalCaller(IntervalList intervals)
+			throws Exception {
+
+		return new MultiSampleSNPCaller(reference,
+				model,
+				intervals,
+				CounterSource.getCounters(),
+				bamWindows,
+				options);
+	}
+
+	public List<MultiSampleVariant> getResult() {
+		super.waitForCompletion();
+		List<MultiSampleVariant> vars = new ArrayList<MultiSampleVariant>();
+		for(IntervalCaller<List<MultiSampleVariant>> caller : callers) {
+			List<MultiSampleVariant> subVars = caller.getResult();
+			if (subVars != null) {
+				vars.addAll( subVars );
+			}
+		}
+		return vars;
+	}
+}
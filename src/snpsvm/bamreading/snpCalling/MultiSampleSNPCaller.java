@@ -0,0 +1,158 @@
+package snpsvm.bamreading.snpCalling;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import snpsvm.bamreading.BAMWindowStore;
+import snpsvm.bamreading.BamWindow;
+import snpsvm.bamreading.CallingOptions;
+import snpsvm.bamreading.MultiSampleEmitter;
+import snpsvm.bamreading.FastaIndex.IndexNotFoundException;
+import snpsvm.bamreading.intervalProcessing.IntervalCaller;
+import snpsvm.bamreading.intervalProcessing.IntervalList;
+import snpsvm.bamreading.intervalProcessing.IntervalList.Interval;
+import snpsvm.bamreading.variant.MultiSampleVariant;
+import snpsvm.bamreading.variant.Variant;
+import snpsvm.counters.ColumnComputer;
+
+/**
+ * Calls SNPs jointly in several BAM files. All samples are read in a single pass over the intervals
+ * with a MultiSampleEmitter, then the model is run on each sample's data and the calls are merged
+ * into MultiSampleVariants. A site is reported if its quality is high enough in any sample.
+ * @author brendan
+ *
+ */
+public class MultiSampleSNPCaller implements IntervalCaller<List<MultiSampleVariant>> {
+
+	protected final File referenceFile;
+	protected final File modelFile;
+	protected final IntervalList intervals;
+	protected List<ColumnComputer> counters;
+	protected List<MultiSampleVariant> variants = null;
+	protected BAMWindowStore[] bamWindows; //One store for each sample
+	protected CallingOptions options = null;
+
+	private long basesComputed = 0;
+
+	public MultiSampleSNPCaller(File referenceFile,
+			File modelFile,
+			IntervalList intervals,
+			List<ColumnComputer> counters,
+			BAMWindowStore[] bamWindows,
+			CallingOptions options) {
+		this.referenceFile = referenceFile;
+		this.intervals = intervals;
+		this.modelFile = modelFile;
+		this.counters = counters;
+		this.bamWindows = bamWindows;
+		this.options = options;
+	}
+
+	@Override
+	public void run() {
+		try {
+			int samples = bamWindows.length;
+			String tmpDataPrefix =  "." + SNPCaller.generateRandomString(12);
+
+			File[] dataFiles = new File[samples];
+			File[] positionsFiles = new File[samples];
+			PrintStream[] dataStreams = new PrintStream[samples];
+			BufferedWriter[] posWriters = new BufferedWriter[samples];
+			for(int s=0; s<samples; s++) {
+				dataFiles[s] = new File(tmpDataPrefix + "." + s + ".data");
+				positionsFiles[s] = new File(tmpDataPrefix + "." + s + ".pos");
+				dataStreams[s] = new PrintStream(new FileOutputStream(dataFiles[s]));
+				posWriters[s] = new BufferedWriter(new FileWriter(positionsFiles[s]));
+			}
+
+			BamWindow[] windows = new BamWindow[samples];
+			MultiSampleEmitter emitter = null;
+			try {
+				for(int s=0; s<samples; s++) {
+					windows[s] = bamWindows[s].getWindow();
+				}
+
+				emitter = new MultiSampleEmitter(referenceFile, counters, windows, options);
+				emitter.setOutputs(dataStreams, posWriters);
+
+				for(String contig : intervals.getContigs()) {
+					for(Interval interval : intervals.getIntervalsInContig(contig)) {
+						emitter.emitWindow(contig, interval.getFirstPos(), interval.getLastPos());
+						basesComputed += interval.getSize();
+					}
+				}
+			}
+			finally {
+				//CRITICAL: windows must go back to their stores, each store only has a limited number
+				for(int s=0; s<samples; s++) {
+					if (windows[s] != null)
+						bamWindows[s].returnToStore(windows[s]);
+				}
+				if (emitter != null)
+					emitter.close();
+			}
+
+			for(int s=0; s<samples; s++) {
+				dataStreams[s].close();
+				posWriters[s].close();
+			}
+
+			//Keep every examined site, so samples below the cutoff can still be reported as reference
+			Map<String, MultiSampleVariant> sites = new HashMap<String, MultiSampleVariant>();
+			List<MultiSampleVariant> siteList = new ArrayList<MultiSampleVariant>();
+			for(int s=0; s<samples; s++) {
+				List<Variant> calls = SNPCaller.predictVariants(dataFiles[s], positionsFiles[s], referenceFile, modelFile, options, Double.NEGATIVE_INFINITY);
+				for(Variant call : calls) {
+					String key = call.contig + ":" + call.pos;
+					MultiSampleVariant site = sites.get(key);
+					if (site == null) {
+						site = new MultiSampleVariant(call.contig, call.contigId, call.pos, call.ref, samples);
+						sites.put(key, site);
+						siteList.add(site);
+					}
+					site.setCall(s, call);
+				}
+			}
+
+			List<MultiSampleVariant> vars = new ArrayList<MultiSampleVariant>();
+			for(MultiSampleVariant site : siteList) {
+				if (site.getQuality() > options.getMinQuality()) {
+					vars.add(site);
+				}
+			}
+			variants = vars;
+		}
+		catch (IOException iox) {
+			iox.printStackTrace();
+		} catch (IndexNotFoundException e) {
+			e.printStackTrace();
+		}
+		catch (Exception ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Obtain the approximate number of bases so far called by this caller
+	 * @return
+	 */
+	public long getBasesCalled() {
+		return basesComputed;
+	}
+
+	public List<MultiSampleVariant> getResult() {
+		return variants;
+	}
+
+	public boolean isResultReady() {
+		return variants != null;
+	}
+}
@@ -14,6 +14,7 @@ import libsvm.LIBSVMResult;
 import snpsvm.bamreading.BAMWindowStore;
 import snpsvm.bamreading.BamWindow;
 import snpsvm.bamreading.CallingOptions;
+import snpsvm.bamreading.ContigDictionary;
 import snpsvm.bamreading.FastaIndex;
 import snpsvm.bamreading.ReferenceBAMEmitter;
 import snpsvm.bamreading.ResultVariantConverter;
@@ -65,46 +66,37 @@ public class SNPCaller implements IntervalCaller<List<Variant>> {
 	@Override
 	public void run()  {
 		try {		
-			BamWindow window = bamWindows.getWindow();
-			ReferenceBAMEmitter emitter = new ReferenceBAMEmitter(referenceFile, counters, window, options);
-
 			//Store intermediate results in temporary files
 			String tmpDataPrefix =  "." + generateRandomString(12);
 
 			File data = new File(tmpDataPrefix + ".data");
 			File positionsFile = new File(tmpDataPrefix + ".pos");
 			BufferedWriter posWriter = new BufferedWriter(new FileWriter(positionsFile));
-			emitter.setPositionsWriter(posWriter);
 
 			//Read BAM file, write results to temporary file
 			PrintStream dataStream = new PrintStream(new FileOutputStream(data));		
-						
-			for(String contig : intervals.getContigs()) {
-				for(Interval interval : intervals.getIntervalsInContig(contig)) {
-					emitter.emitWindow(contig, interval.getFirstPos(), interval.getLastPos(), dataStream);
-					basesComputed += interval.getSize();
+			
+			BamWindow window = bamWindows.getWindow();
+			try {
+				ReferenceBAMEmitter emitter = new ReferenceBAMEmitter(referenceFile, counters, window, options);
+				emitter.setPositionsWriter(posWriter);
+				
+				for(String contig : intervals.getContigs()) {
+					List<Interval> contigIntervals = intervals.getIntervalsInContig(contig);
+					emitter.emitIntervals(contig, contigIntervals, dataStream);
+					for(Interval interval : contigIntervals) {
+						basesComputed += interval.getSize();
+					}
 				}
 			}
-			
-			//CRITICAL: must return its bamWindow to the BAMWindowStore
-			bamWindows.returnToStore(window);
+			finally {
+				//CRITICAL: must return its bamWindow to the BAMWindowStore, the store only has a limited number
+				bamWindows.returnToStore(window);
+			}
 			dataStream.close();
 			posWriter.close();
 	
-			LIBSVMPredictor predictor = new LIBSVMPredictor();
-			
-			LIBSVMResult result = predictor.predictData(data, new LIBSVMModel(modelFile));
-			result.setPositionsFile(positionsFile);
-
-			ResultVariantConverter converter = new ResultVariantConverter();
-			converter.setVariantQualityCutoff(options.getMinQuality());
-			variants = converter.createVariantList(result);
-
-			//Remove temporary files 
-			if (options.isRemoveTempFiles()) {
-				data.delete();
-				positionsFile.delete();
-			}
+			variants = predictVariants(data, positionsFile, referenceFile, modelFile, options);
 		}
 		catch (IOException iox) {
 
@@ -119,6 +111,45 @@ public class SNPCaller implements IntervalCaller<List<Variant>> {
 		
 	}
 
+	/**
+	 * Run the model on the emitted data and convert the results into a list of variants, removing
+	 * the data and positions files afterward if the options say so
+	 * @param data
+	 * @param positionsFile
+	 * @param referenceFile
+	 * @param modelFile
+	 * @param options
+	 * @return
+	 * @throws IOException 
+	 * @throws IndexNotFoundException 
+	 */
+	protected static List<Variant> predictVariants(File data, File positionsFile, File referenceFile, File modelFile, CallingOptions options) throws IOException, IndexNotFoundException {
+		return predictVariants(data, positionsFile, referenceFile, modelFile, options, options.getMinQuality());
+	}
+	
+	/**
+	 * Same as above, but only variants with quality above the given cutoff are returned instead of
+	 * those above the minimum quality in the options
+	 */
+	protected static List<Variant> predictVariants(File data, File positionsFile, File referenceFile, File modelFile, CallingOptions options, double qualityCutoff) throws IOException, IndexNotFoundException {
+		LIBSVMPredictor predictor = new LIBSVMPredictor();
+		
+		LIBSVMResult result = predictor.predictData(data, new LIBSVMModel(modelFile));
+		result.setPositionsFile(positionsFile);
+
+		ResultVariantConverter converter = new ResultVariantConverter();
+		converter.setVariantQualityCutoff(qualityCutoff);
+		converter.setContigDictionary(ContigDictionary.forReference(referenceFile));
+		List<Variant> vars = converter.createVariantList(result);
+
+		//Remove temporary files 
+		if (options.isRemoveTempFiles()) {
+			data.delete();
+			positionsFile.delete();
+		}
+		return vars;
+	}
+	
 	/**
 	 * Obtain the approximate number of bases so far called by this caller 
 	 * @return
@@ -143,7 +174,7 @@ public class SNPCaller implements IntervalCaller<List<Variant>> {
 		return variants != null;
 	}
 	
-	private static String generateRandomString(int length) {
+	protected static String generateRandomString(int length) {
 		StringBuilder strB = new StringBuilder();
 		while(strB.length() < length) {
 			char c = chars.charAt( (int)(chars.length()*Math.random()) );
@@ -0,0 +1,344 @@
+package snpsvm.bamreading.snpCalling;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import snpsvm.bamreading.BamWindow;
+import snpsvm.bamreading.CallingOptions;
+import snpsvm.bamreading.FastaIndex.IndexNotFoundException;
+import snpsvm.bamreading.RecordBatch;
+import snpsvm.bamreading.ReferenceBAMEmitter;
+import snpsvm.bamreading.intervalProcessing.IntervalList;
+import snpsvm.bamreading.intervalProcessing.IntervalList.Interval;
+import snpsvm.bamreading.variant.VCFVariantEmitter;
+import snpsvm.bamreading.variant.Variant;
+import snpsvm.counters.CounterSource;
+
+/**
+ * Calls SNPs from a coordinate-sorted stream of reads (typically a BAM on stdin) in a single pass, without
+ * needing an index. Reads are collected into batches that each cover BATCH_LENGTH bases of one contig,
+ * and each batch is handed to a worker thread as soon as a read starting beyond its region arrives. Reads
+ * that straddle the boundary between two batches are put into both, so each worker sees every read
+ * covering its region. Variants are written to the VCF in order as soon as the batches before them are done.
+ * @author brendan
+ *
+ */
+public class StreamingSNPCaller {
+
+	public static final int BATCH_LENGTH = 100000; //Number of reference bases covered by each batch of reads
+
+	private final File referenceFile;
+	private final File modelFile;
+	private final CallingOptions options;
+	private final int threads;
+
+	private final VCFVariantEmitter vcfWriter = new VCFVariantEmitter();
+	private final LinkedList<Future<List<Variant>>> pending = new LinkedList<Future<List<Variant>>>(); //Submitted batches, in order
+	private Map<String, List<Interval>> sortedIntervals = null;
+	private Map<String, Integer> intervalCursors = null; //Index of first interval in each contig that may overlap the next batch
+	private BlockingQueue<Worker> workers = null;
+	private ExecutorService pool = null;
+	private long variantsWritten = 0;
+
+	public StreamingSNPCaller(File referenceFile,
+			File modelFile,
+			CallingOptions options,
+			int threads) {
+		this.referenceFile = referenceFile;
+		this.modelFile = modelFile;
+		this.options = options;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Read all reads from the given stream, which must contain a coordinate-sorted BAM, and write
+	 * variants found in the given intervals to the vcf stream as they are called. The VCF header must already
+	 * have been written.
+	 * @param input
+	 * @param intervals
+	 * @param vcf
+	 * @throws IOException
+	 * @throws IndexNotFoundException
+	 */
+	public void callVariants(InputStream input, IntervalList intervals, PrintStream vcf) throws IOException, IndexNotFoundException {
+		SAMFileReader reader = new SAMFileReader(input);
+		reader.setValidationStringency(ValidationStringency.SILENT);
+		SAMFileHeader header = reader.getFileHeader();
+		if (header.getSortOrder() != SAMFileHeader.SortOrder.coordinate) {
+			System.err.println("Warning, input BAM header does not say it's sorted by coordinate. Reads must be coordinate sorted for streaming.");
+		}
+
+		Map<String, Integer> contigLengths = new HashMap<String, Integer>();
+		for(SAMSequenceRecord seq : header.getSequenceDictionary().getSequences()) {
+			contigLengths.put(seq.getSequenceName(), seq.getSequenceLength());
+		}
+
+		prepareIntervals(intervals);
+
+		workers = new ArrayBlockingQueue<Worker>(threads);
+		for(int i=0; i<threads; i++) {
+			//Counters aren't thread safe, so each worker gets its own
+			BamWindow window = new BamWindow(contigLengths);
+			workers.add(new Worker(window, new ReferenceBAMEmitter(referenceFile, CounterSource.getCounters(), window, options)));
+		}
+		pool = Executors.newFixedThreadPool(threads);
+
+		try {
+			String prevContig = null;
+			int prevStart = 0;
+			Set<String> finishedContigs = new HashSet<String>();
+			RecordBatch batch = null;
+
+			for(SAMRecord read : reader) {
+				if (read.getReadUnmappedFlag()) {
+					continue;
+				}
+
+				String contig = read.getReferenceName();
+				int start = read.getAlignmentStart();
+				if (! contig.equals(prevContig)) {
+					if (finishedContigs.contains(contig)) {
+						throw new IllegalArgumentException("Reads are not sorted by coordinate, found read on contig " + contig + " after reads on " + prevContig);
+					}
+					while(batch != null) {
+						batch = nextBatch(batch, vcf);
+					}
+					if (prevContig != null)
+						finishedContigs.add(prevContig);
+					prevContig = contig;
+					prevStart = 0;
+				}
+
+				if (start < prevStart) {
+					throw new IllegalArgumentException("Reads are not sorted by coordinate, found read at " + contig + ":" + start + " after read at " + prevStart);
+				}
+				prevStart = start;
+
+				if (! sortedIntervals.containsKey(contig)) {
+					continue;
+				}
+
+				while(batch != null && start >= batch.getEnd()) {
+					batch = nextBatch(batch, vcf);
+				}
+
+				if (batch == null) {
+					int batchStart = ((start-1) / BATCH_LENGTH) * BATCH_LENGTH + 1;
+					batch = new RecordBatch(contig, batchStart, batchStart + BATCH_LENGTH);
+				}
+				batch.add(read);
+			}
+
+			while(batch != null) {
+				batch = nextBatch(batch, vcf);
+			}
+
+			writeCompleted(vcf, true);
+		}
+		finally {
+			pool.shutdownNow();
+			reader.close();
+		}
+	}
+
+	/**
+	 * Total number of variants written so far
+	 * @return
+	 */
+	public long getVariantsWritten() {
+		return variantsWritten;
+	}
+
+	/**
+	 * Sort intervals in every contig so that we can move through them in order as the batches go by
+	 * @param intervals
+	 */
+	private void prepareIntervals(IntervalList intervals) {
+		sortedIntervals = new HashMap<String, List<Interval>>();
+		intervalCursors = new HashMap<String, Integer>();
+		for(String contig : intervals.getContigs()) {
+			List<Interval> list = new ArrayList<Interval>(intervals.getIntervalsInContig(contig));
+			Collections.sort(list);
+			sortedIntervals.put(contig, list);
+			intervalCursors.put(contig, 0);
+		}
+	}
+
+	/**
+	 * Submit the given batch for calling, then create the batch following it containing all reads that extend
+	 * beyond its end (or, when downsampling, that come within BamWindow.DOWNSAMPLING_LOOKBEHIND of it).
+	 * Returns null if there are no such reads.
+	 * @param batch
+	 * @param vcf
+	 * @return
+	 * @throws IOException
+	 */
+	private RecordBatch nextBatch(RecordBatch batch, PrintStream vcf) throws IOException {
+		submit(batch, vcf);
+
+		RecordBatch next = new RecordBatch(batch.getContig(), batch.getEnd(), batch.getEnd() + BATCH_LENGTH);
+		int keepFrom = options.getMaxReadDepth() > 0 ? batch.getEnd() - BamWindow.DOWNSAMPLING_LOOKBEHIND : batch.getEnd();
+		for(SAMRecord read : batch.getRecords()) {
+			if (read.getAlignmentEnd() >= keepFrom) {
+				next.add(read);
+			}
+		}
+
+		if (next.size() == 0) {
+			return null;
+		}
+		return next;
+	}
+
+	/**
+	 * Find the parts of the intervals that fall in the batch's region, and if there are any submit the batch
+	 * to the thread pool. Then write whatever results are ready, waiting for some if too many batches are pending
+	 * @param batch
+	 * @param vcf
+	 * @throws IOException
+	 */
+	private void submit(final RecordBatch batch, PrintStream vcf) throws IOException {
+		String contig = batch.getContig();
+		List<Interval> contigIntervals = sortedIntervals.get(contig);
+		int cursor = intervalCursors.get(contig);
+
+		//Intervals are emitted up to but not including their last position, see SNPCaller
+		while(cursor < contigIntervals.size() && contigIntervals.get(cursor).getLastPos() <= batch.getStart()) {
+			cursor++;
+		}
+		intervalCursors.put(contig, cursor);
+
+		IntervalList pieces = new IntervalList();
+		for(int i=cursor; i<contigIntervals.size() && contigIntervals.get(i).getFirstPos() < batch.getEnd(); i++) {
+			Interval interval = contigIntervals.get(i);
+			int first = Math.max(interval.getFirstPos(), batch.getStart());
+			int last = Math.min(interval.getLastPos(), batch.getEnd());
+			if (first < last) {
+				pieces.addInterval(contig, first, last);
+			}
+		}
+
+		final List<Interval> batchIntervals = pieces.getIntervalsInContig(contig);
+		if (batchIntervals != null) {
+			pending.add(pool.submit(new Callable<List<Variant>>() {
+				public List<Variant> call() throws Exception {
+					return callBatch(batch, batchIntervals);
+				}
+			}));
+		}
+
+		writeCompleted(vcf, false);
+		while(pending.size() > 2*threads) {
+			writeNext(vcf);
+		}
+	}
+
+	/**
+	 * Write results for all batches at the front of the pending list that are done. If waitForAll
+	 * is true, wait for and write every pending batch
+	 * @param vcf
+	 * @param waitForAll
+	 * @throws IOException
+	 */
+	private void writeCompleted(PrintStream vcf, boolean waitForAll) throws IOException {
+		while(! pending.isEmpty() && (waitForAll || pending.getFirst().isDone())) {
+			writeNext(vcf);
+		}
+		vcf.flush();
+	}
+
+	/**
+	 * Wait for the first pending batch to be done, then write its variants
+	 * @param vcf
+	 * @throws IOException
+	 */
+	private void writeNext(PrintStream vcf) throws IOException {
+		Future<List<Variant>> first = pending.removeFirst();
+		List<Variant> vars;
+		try {
+			vars = first.get();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException("Interrupted while waiting for variants");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IllegalStateException("Error calling variants : " + e.getCause().getMessage(), e.getCause());
+		}
+
+		if (vars != null) {
+			Collections.sort(vars);
+			vcfWriter.writeVariants(vars, vcf);
+			variantsWritten += vars.size();
+		}
+	}
+
+	/**
+	 * Runs on a worker thread, emits data for all sites in the given intervals of the batch and then
+	 * runs the model to call variants
+	 * @param batch
+	 * @param batchIntervals
+	 * @return
+	 * @throws Exception
+	 */
+	private List<Variant> callBatch(RecordBatch batch, List<Interval> batchIntervals) throws Exception {
+		String tmpDataPrefix =  "." + SNPCaller.generateRandomString(12);
+		File data = new File(tmpDataPrefix + ".data");
+		File positionsFile = new File(tmpDataPrefix + ".pos");
+		BufferedWriter posWriter = new BufferedWriter(new FileWriter(positionsFile));
+		PrintStream dataStream = new PrintStream(new FileOutputStream(data));
+
+		Worker worker = workers.take();
+		try {
+			worker.window.setRecordBatch(batch);
+			worker.emitter.setPositionsWriter(posWriter);
+			worker.emitter.emitIntervals(batch.getContig(), batchIntervals, dataStream);
+		}
+		finally {
+			worker.window.setRecordBatch(null);
+			workers.put(worker);
+		}
+		dataStream.close();
+		posWriter.close();
+
+		return SNPCaller.predictVariants(data, positionsFile, referenceFile, modelFile, options);
+	}
+
+	/**
+	 * A window and the emitter that reads from it, used by one thread at a time
+	 */
+	class Worker {
+		final BamWindow window;
+		final ReferenceBAMEmitter emitter;
+
+		Worker(BamWindow window, ReferenceBAMEmitter emitter) {
+			this.window = window;
+			this.emitter = emitter;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package snpsvm.bamreading.variant;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A site called jointly in several samples. Holds the call made in each sample, or null for samples
+ * that didn't have enough reads at the site to be examined. Calls for samples that were examined
+ * are kept even if their quality is low, so the sample can be written as homozygous reference.
+ * @author brendan
+ *
+ */
+public class MultiSampleVariant implements Comparable<MultiSampleVariant> {
+
+	public final String contig;
+	public final int contigId; //ID of contig from a ContigDictionary, or -1 if unknown
+	public final int pos;
+	public final char ref;
+	private final Variant[] calls; //Call for each sample, null if sample was not examined
+
+	public MultiSampleVariant(String contig, int contigId, int pos, char ref, int sampleCount) {
+		this.contig = contig;
+		this.contigId = contigId;
+		this.pos = pos;
+		this.ref = ref;
+		this.calls = new Variant[sampleCount];
+	}
+
+	public int getSampleCount() {
+		return calls.length;
+	}
+
+	public void setCall(int sample, Variant call) {
+		calls[sample] = call;
+	}
+
+	/**
+	 * The call made for the given sample, or null if the sample wasn't examined at this site
+	 * @param sample
+	 * @return
+	 */
+	public Variant getCall(int sample) {
+		return calls[sample];
+	}
+
+	/**
+	 * Highest quality of the calls in any sample
+	 * @return
+	 */
+	public double getQuality() {
+		double max = Double.NEGATIVE_INFINITY;
+		for(Variant call : calls) {
+			if (call != null && call.quality > max) {
+				max = call.quality;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Total depth over all examined samples
+	 * @return
+	 */
+	public int getDepth() {
+		int depth = 0;
+		for(Variant call : calls) {
+			if (call != null) {
+				depth += call.depth;
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * Distinct alt alleles of all calls with quality above the cutoff, in sample order
+	 * @param qualityCutoff
+	 * @return
+	 */
+	public List<Character> getAlts(double qualityCutoff) {
+		List<Character> alts = new ArrayList<Character>(2);
+		for(Variant call : calls) {
+			if (call != null && call.quality > qualityCutoff && (! alts.contains(call.alt))) {
+				alts.add(call.alt);
+			}
+		}
+		return alts;
+	}
+
+	/**
+	 * Same order as Variant.compareTo
+	 */
+	@Override
+	public int compareTo(MultiSampleVariant arg0) {
+		int comp = Variant.compareContigs(this.contigId, this.contig, arg0.contigId, arg0.contig);
+		if (comp != 0)
+			return comp;
+		if (this.pos == arg0.pos)
+			return 0;
+		return this.pos < arg0.pos ? -1 : 1;
+	}
+}
@@ -2,12 +2,12 @@ package snpsvm.bamreading.variant;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import snpsvm.bamreading.FastaIndex;
-import snpsvm.bamreading.FastaReader2;
+import snpsvm.bamreading.SharedReference;
 
 import libsvm.LIBSVMModel;
 
@@ -18,7 +18,20 @@ import libsvm.LIBSVMModel;
  */
 public class VCFVariantEmitter {
 		
-	public void writeHeader(PrintStream out, FastaReader2 reference, String sampleName, LIBSVMModel model) {
+	public void writeHeader(PrintStream out, SharedReference reference, String sampleName, LIBSVMModel model) {
+		List<String> sampleNames = new ArrayList<String>(1);
+		sampleNames.add(sampleName);
+		writeHeader(out, reference, sampleNames, model);
+	}
+	
+	/**
+	 * Write a header with one column for each of the given samples
+	 * @param out
+	 * @param reference
+	 * @param sampleNames
+	 * @param model
+	 */
+	public void writeHeader(PrintStream out, SharedReference reference, List<String> sampleNames, LIBSVMModel model) {
 		out.println("##fileformat=VCFv4.1");
 		out.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
 		out.println("##FORMAT=<ID=AD,Number=.,Type=Integer,Description=\"Allelic depths for the ref and alt alleles in the order listed\">");
@@ -28,18 +41,19 @@ public class VCFVariantEmitter {
 		out.println("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Total read depth at site\">");
 		out.println("##INFO=<ID=VD,Number=A,Type=Integer,Description=\"Number of reads containing alt allele\">");
 		
-		List<String> contigs = new ArrayList<String>();
+		//Index order is reference order, which is also the order variants are written in
 		FastaIndex refIndex = reference.getIndex();
-		contigs.addAll( refIndex.getContigs() );
-		Collections.sort(contigs);
-		for(String contig : contigs) {
+		for(String contig : refIndex.getContigs()) {
 			out.println("##contig=<ID=" + contig + ",length=" + refIndex.getContigLength(contig) + ">");
 		}
 		
 		out.println("##reference=file://" + reference.getFile().getAbsolutePath() );
 		out.println("##model=file://" + model.getModelPath() );
-		out.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t" + sampleName);
-		
+		out.print("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+		for(String sampleName : sampleNames) {
+			out.print("\t" + sampleName);
+		}
+		out.println();
 	}
 
 	public void writeVariants(List<Variant> vars, PrintStream output) throws IOException {
@@ -58,12 +72,79 @@ public class VCFVariantEmitter {
 			if (var.isHetMostLikely())
 				hetStr = "0/1";
 			
-			int homRefPL = (int)Math.round(probToPhred(var.homRefProb));
-			int hetPL = (int)Math.round(probToPhred(var.hetProb));
-			int homAltPL = (int)Math.round(probToPhred(var.homAltProb));
+			int[] pls = var.getPhredLikelihoods();
+			
+			output.print("\t" + hetStr + ":" + (var.depth - var.varDepth) + "," + var.depth + ":" + var.depth + ":" + pls[0] + "," + pls[1] + "," + pls[2] );
+			
+			output.println();
+		}
+	}
+	
+	/**
+	 * Write sites called jointly in several samples, one column per sample. Samples that weren't examined at
+	 * a site are written as ./., samples whose call is not above the quality cutoff are written as 0/0
+	 * @param vars
+	 * @param qualityCutoff
+	 * @param output
+	 * @throws IOException
+	 */
+	public void writeMultiSampleVariants(List<MultiSampleVariant> vars, double qualityCutoff, PrintStream output) throws IOException {
+		DecimalFormat qualFormatter = new DecimalFormat("0.000");
+		for(MultiSampleVariant var : vars) {
+			List<Character> alts = var.getAlts(qualityCutoff);
+			if (alts.isEmpty()) {
+				continue;
+			}
 			
-			output.print("\t" + hetStr + ":" + (var.depth - var.varDepth) + "," + var.depth + ":" + var.depth + ":" + homRefPL + "," + hetPL + "," + homAltPL );
+			StringBuilder altStr = new StringBuilder();
+			StringBuilder vdStr = new StringBuilder();
+			for(int i=0; i<alts.size(); i++) {
+				int varDepth = 0;
+				for(int s=0; s<var.getSampleCount(); s++) {
+					Variant call = var.getCall(s);
+					if (call != null && call.alt == alts.get(i))
+						varDepth += call.varDepth;
+				}
+				if (i > 0) {
+					altStr.append(",");
+					vdStr.append(",");
+				}
+				altStr.append(alts.get(i));
+				vdStr.append(varDepth);
+			}
+			
+			output.print(var.contig + "\t" + var.pos + "\t.\t" + var.ref + "\t" + altStr + "\t" + qualFormatter.format(var.getQuality()) + "\tPASS");
+			output.print("\tDP=" + var.getDepth() + ";VD=" + vdStr);
+			output.print("\tGT:AD:DP:PL");
 			
+			for(int s=0; s<var.getSampleCount(); s++) {
+				Variant call = var.getCall(s);
+				if (call == null) {
+					output.print("\t./.");
+					continue;
+				}
+				
+				int altIndex = alts.indexOf(call.alt) + 1; //0 if the sample's alt isn't one of the site's alts
+				String gt = "0/0";
+				if (call.quality > qualityCutoff) {
+					gt = call.isHetMostLikely() ? "0/" + altIndex : altIndex + "/" + altIndex;
+				}
+				
+				StringBuilder ad = new StringBuilder();
+				ad.append(call.depth - call.varDepth);
+				for(int i=0; i<alts.size(); i++) {
+					ad.append(",").append(i+1 == altIndex ? call.varDepth : 0);
+				}
+				
+				//Likelihoods are only for the sample's own alt allele, so only write them if that's the only alt
+				String pl = ".";
+				if (alts.size() == 1 && altIndex == 1) {
+					int[] pls = call.getPhredLikelihoods();
+					pl = pls[0] + "," + pls[1] + "," + pls[2];
+				}
+				
+				output.print("\t" + gt + ":" + ad + ":" + call.depth + ":" + pl);
+			}
 			output.println();
 		}
 	}
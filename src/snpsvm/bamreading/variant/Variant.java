@@ -9,17 +9,23 @@ import java.text.DecimalFormat;
  */
 public class Variant implements Comparable<Variant> {
 
+	private static final double LN10 = Math.log(10.0);
+	
 	final DecimalFormat qualFormatter = new DecimalFormat("0.000");
 	public final String contig;
+	public final int contigId; //ID of contig from a ContigDictionary, or -1 if unknown
 	public final int pos;
 	public final char ref;
 	public final char alt;
 	public final double quality;
 	public final int depth;
 	public final int varDepth;
-	public final double homRefProb;
+	public final double homRefProb; //Probability of each genotype
 	public final double hetProb;
 	public final double homAltProb;
+	public final double homRefLogLikelihood; //Natural log of the likelihood of each genotype, which don't underflow
+	public final double hetLogLikelihood;
+	public final double homAltLogLikelihood;
 	
 	
 	public Variant(String contig, 
@@ -32,7 +38,46 @@ public class Variant implements Comparable<Variant> {
 			double homRefProb,
 			double hetProb,
 			double homAltProb) {
+		this(contig, -1, pos, ref, alt, quality, depth, varDepth, homRefProb, hetProb, homAltProb);
+	}
+	
+	/**
+	 * Create a new variant whose contig has the given ID in a ContigDictionary, so variants
+	 * can be sorted in reference order. The genotype probabilities are stored as given, use
+	 * fromLogLikelihoods when the likelihoods may be too small to represent
+	 */
+	public Variant(String contig,
+			int contigId,
+			int pos, 
+			char ref, 
+			char alt,
+			double quality, 
+			int depth,
+			int varDepth,
+			double homRefProb,
+			double hetProb,
+			double homAltProb) {
+		this(contig, contigId, pos, ref, alt, quality, depth, varDepth,
+				homRefProb, hetProb, homAltProb,
+				Math.log(homRefProb), Math.log(hetProb), Math.log(homAltProb));
+	}
+	
+	private Variant(String contig,
+			int contigId,
+			int pos, 
+			char ref, 
+			char alt,
+			double quality, 
+			int depth,
+			int varDepth,
+			double homRefProb,
+			double hetProb,
+			double homAltProb,
+			double homRefLogLikelihood,
+			double hetLogLikelihood,
+			double homAltLogLikelihood) {
 		this.contig = contig;
+		this.contigId = contigId;
 		this.pos = pos;
 		this.ref = ref;
 		this.alt = alt;
@@ -42,6 +87,56 @@ public class Variant implements Comparable<Variant> {
 		this.homRefProb = homRefProb;
 		this.hetProb = hetProb;
 		this.homAltProb = homAltProb;
+		this.homRefLogLikelihood = homRefLogLikelihood;
+		this.hetLogLikelihood = hetLogLikelihood;
+		this.homAltLogLikelihood = homAltLogLikelihood;
+	}
+	
+	/**
+	 * Create a new variant from the natural logs of the genotype likelihoods. The genotype probabilities
+	 * are derived from them, normalized so they sum to one
+	 * @param contigId ID of the contig in a ContigDictionary, or -1 if unknown
+	 */
+	public static Variant fromLogLikelihoods(String contig,
+			int contigId,
+			int pos, 
+			char ref, 
+			char alt,
+			double quality, 
+			int depth,
+			int varDepth,
+			double homRefLogLikelihood,
+			double hetLogLikelihood,
+			double homAltLogLikelihood) {
+		double total = util.Math.logSumExp(homRefLogLikelihood, hetLogLikelihood, homAltLogLikelihood);
+		return new Variant(contig, contigId, pos, ref, alt, quality, depth, varDepth,
+				Math.exp(homRefLogLikelihood - total),
+				Math.exp(hetLogLikelihood - total),
+				Math.exp(homAltLogLikelihood - total),
+				homRefLogLikelihood, hetLogLikelihood, homAltLogLikelihood);
+	}
+	
+	/**
+	 * Phred-scaled likelihoods of the hom-ref, het and hom-alt genotypes, normalized so that the most
+	 * likely genotype has a value of zero, as in the PL field of a VCF. These are computed from the log
+	 * likelihoods, so they stay finite even when the likelihoods themselves are too small to represent
+	 * @return
+	 */
+	public int[] getPhredLikelihoods() {
+		double best = Math.max(homRefLogLikelihood, Math.max(hetLogLikelihood, homAltLogLikelihood));
+		int[] pls = new int[3];
+		pls[0] = toPhred(homRefLogLikelihood - best);
+		pls[1] = toPhred(hetLogLikelihood - best);
+		pls[2] = toPhred(homAltLogLikelihood - best);
+		return pls;
+	}
+	
+	/**
+	 * Phred scale a natural log likelihood ratio, capped so that a likelihood of zero (which can only come
+	 * from a probability given to the constructor) doesn't overflow
+	 */
+	private static int toPhred(double logRatio) {
+		return (int)Math.min(Integer.MAX_VALUE, Math.round(-10.0 * logRatio / LN10));
 	}
 	
 	/**
@@ -49,7 +144,7 @@ public class Variant implements Comparable<Variant> {
 	 * @return
 	 */
 	public boolean isHetMostLikely() {
-		return hetProb > homRefProb && hetProb > homAltProb;
+		return hetLogLikelihood > homRefLogLikelihood && hetLogLikelihood > homAltLogLikelihood;
 	}
 	
 	public String toString() {
@@ -59,16 +154,35 @@ public class Variant implements Comparable<Variant> {
 		return contig + "\t" + pos + "\t" + (pos+1) + "\t" + ref + "\t" + alt + "\t" + qualFormatter.format(quality) + "\t" + depth + "\t" + hetStr + "\t" + qualFormatter.format(hetProb);
 	}
 
+	/**
+	 * Variants whose contigs are in the dictionary come first, ordered by contig ID (which follows reference
+	 * order), then those with unknown contigs, ordered by contig name. Within a contig variants are ordered by
+	 * position. Mixing the two kinds this way keeps the ordering transitive
+	 */
 	@Override
 	public int compareTo(Variant arg0) {
-		if (this.contig.equals(arg0.contig)) {
-			if (this.pos == arg0.pos)
-				return 0;
-			
-			return this.pos < arg0.pos ? -1 : 1;
-		}
-		else {
-			return this.contig.compareTo(arg0.contig);
+		int comp = compareContigs(this.contigId, this.contig, arg0.contigId, arg0.contig);
+		if (comp != 0)
+			return comp;
+		if (this.pos == arg0.pos)
+			return 0;
+		return this.pos < arg0.pos ? -1 : 1;
+	}
+	
+	/**
+	 * Compare two contigs given their IDs and names: contigs with IDs (>= 0) before those without (-1), by ID,
+	 * and those without by name. Also used by MultiSampleVariant
+	 */
+	static int compareContigs(int id, String name, int otherId, String otherName) {
+		if (id != otherId) {
+			if (id < 0)
+				return 1;
+			if (otherId < 0)
+				return -1;
+			return id < otherId ? -1 : 1;
 		}
+		if (id < 0)
+			return name.compareTo(otherName);
+		return 0;
 	}
 }
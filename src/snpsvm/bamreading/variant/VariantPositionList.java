@@ -2,78 +2,269 @@ package snpsvm.bamreading.variant;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+import snpsvm.bamreading.TabixIndex;
 
 /**
- * Structure that holds a list of variant sites but no other information, useful for 
- * holding big lists of 'known' variants
+ * Structure that holds a list of variant sites but no other information, useful for
+ * holding big lists of 'known' variants. Only single-base substitutions are kept.
+ *
+ * If the VCF is bgzipped and has a tabix index (file.vcf.gz.tbi) the sites for each contig are read
+ * from the index position when the contig is loaded, and only the sites for the current contig are held.
+ * Otherwise the whole file is read once, the first time a contig is loaded, and the sites for
+ * every contig are held. Either way sites are stored as a sorted int[] per contig, or as a bitset if the sites
+ * are dense enough for that to be smaller, and hasSNP(..) advances a cursor through them since the
+ * emitters visit positions in increasing order.
  * @author brendan
  *
  */
 public class VariantPositionList {
 
-	private Set<Integer> knownSites = null;
-	private File sourceFile = null;
+	private final File sourceFile;
+	private File tabixFile = null;
+	private TabixIndex tabix = null;
+	private Map<String, ContigSites> allSites = null; //Sites for all contigs, if read in a single pass
 	private String currentContig = null;
-	
+	private ContigSites sites = null; //Sites in current contig, null if there are none
+	private int cursor = 0; //Index of the first site at or after the last position looked up
+
 	public VariantPositionList(File vcfFile) {
 		sourceFile = vcfFile;
+		if (vcfFile.getName().endsWith(".gz")) {
+			tabixFile = TabixIndex.findIndex(vcfFile);
+		}
 	}
-	
+
 	public String getCurrentContig() {
 		return currentContig;
 	}
-	
+
 	/**
-	 * True if this list contains a variant at the current contig and at the given position
+	 * True if this list contains a variant at the current contig and at the given position.
+	 * Fastest when positions are visited in increasing order
 	 * @param pos
 	 * @return
 	 */
 	public boolean hasSNP(int pos) {
-		return knownSites.contains(pos);
+		if (sites == null) {
+			return false;
+		}
+		if (sites.bits != null) {
+			return pos >= sites.first && sites.bits.get(pos - sites.first);
+		}
+
+		final int[] positions = sites.positions;
+		if (cursor > 0 && positions[cursor-1] >= pos) {
+			//Moved backwards
+			int index = Arrays.binarySearch(positions, pos);
+			cursor = index >= 0 ? index : -(index+1);
+		}
+		while(cursor < positions.length && positions[cursor] < pos) {
+			cursor++;
+		}
+		return cursor < positions.length && positions[cursor] == pos;
 	}
-	
+
 	public void loadContig(String contig) throws IOException {
 		if (contig.equals(currentContig)) {
 			return;
 		}
-		
-		knownSites = new HashSet<Integer>();
+
+		if (tabixFile != null) {
+			sites = readContig(contig);
+		}
+		else {
+			if (allSites == null) {
+				allSites = readAll();
+			}
+			sites = allSites.get(contig);
+		}
 		currentContig = contig;
-		
-		BufferedReader reader = new BufferedReader(new FileReader(sourceFile));
-		String line = reader.readLine();
-		
-		while(line != null && line.startsWith("#")) {
-			line = reader.readLine();
-		}
-		
-		while(line != null) {
-			
-			int index = line.indexOf("\t");
-			if (index > 0) {
-				String chr = line.substring(0, index).trim();
-				if (chr.equals(contig)) {
-					String[] toks = line.split("\t");
-					if (toks.length < 4) {
-						System.err.println("Could not parse info from vcf for line : " + line);
-						continue;
+		cursor = 0;
+	}
+
+	/**
+	 * Read the sites for every contig in a single pass over the file
+	 */
+	private Map<String, ContigSites> readAll() throws IOException {
+		Map<String, SiteBuilder> builders = new HashMap<String, SiteBuilder>();
+		BufferedReader reader = openReader();
+		try {
+			SiteBuilder builder = null;
+			String line = reader.readLine();
+			while(line != null) {
+				if (! line.startsWith("#")) {
+					int tab = line.indexOf('\t');
+					if (tab > 0) {
+						String contig = line.substring(0, tab);
+						if (builder == null || !builder.contig.equals(contig)) {
+							builder = builders.get(contig);
+							if (builder == null) {
+								builder = new SiteBuilder(contig);
+								builders.put(contig, builder);
+							}
+						}
+						addSite(builder, line, tab);
 					}
-					
-					int pos = Integer.parseInt(toks[1]);
-					String ref = toks[3];
-					String alt = toks[4];
-					if (ref.length()==1 && (!ref.equals("-") && alt.length()==1 && (!alt.equals("-")))) {
-						knownSites.add(pos);
+				}
+				line = reader.readLine();
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		Map<String, ContigSites> all = new HashMap<String, ContigSites>();
+		for(SiteBuilder builder : builders.values()) {
+			all.put(builder.contig, builder.build());
+		}
+		return all;
+	}
+
+	/**
+	 * Read the sites for one contig using the tabix index, returning null if there are none
+	 */
+	private ContigSites readContig(String contig) throws IOException {
+		if (tabix == null) {
+			tabix = new TabixIndex(tabixFile);
+		}
+		long start = tabix.getContigStart(contig);
+		if (start < 0) {
+			return null;
+		}
+
+		SiteBuilder builder = new SiteBuilder(contig);
+		BlockCompressedInputStream in = new BlockCompressedInputStream(sourceFile);
+		in.seek(start);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		try {
+			String line = reader.readLine();
+			while(line != null) {
+				int tab = line.indexOf('\t');
+				if (tab > 0 && !line.startsWith("#")) {
+					if (! line.regionMatches(0, contig, 0, tab) || tab != contig.length()) {
+						break; //Records for the next contig
 					}
+					addSite(builder, line, tab);
+				}
+				line = reader.readLine();
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return builder.build();
+	}
+
+	private BufferedReader openReader() throws IOException {
+		if (sourceFile.getName().endsWith(".gz")) {
+			return new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(sourceFile), 1 << 16)));
+		}
+		return new BufferedReader(new InputStreamReader(new FileInputStream(sourceFile)), 1 << 16);
+	}
+
+	/**
+	 * Parse the position, ref and alt from the VCF line, whose contig ends at the given tab, and add the
+	 * site to the builder if it's a single-base substitution
+	 */
+	private static void addSite(SiteBuilder builder, String line, int tab) {
+		int posEnd = line.indexOf('\t', tab+1);
+		int idEnd = posEnd < 0 ? -1 : line.indexOf('\t', posEnd+1);
+		int refEnd = idEnd < 0 ? -1 : line.indexOf('\t', idEnd+1);
+		if (refEnd < 0) {
+			System.err.println("Could not parse info from vcf for line : " + line);
+			return;
+		}
+		int altEnd = line.indexOf('\t', refEnd+1);
+		if (altEnd < 0)
+			altEnd = line.length();
+
+		//ref and alt must both be single bases
+		if (refEnd - idEnd != 2 || altEnd - refEnd != 2 || line.charAt(idEnd+1) == '-' || line.charAt(refEnd+1) == '-') {
+			return;
+		}
+
+		int pos;
+		try {
+			pos = Integer.parseInt(line.substring(tab+1, posEnd));
+		}
+		catch (NumberFormatException ex) {
+			System.err.println("Could not parse info from vcf for line : " + line);
+			return;
+		}
+		builder.add(pos);
+	}
+
+	/**
+	 * Positions of the sites in one contig, as a sorted array with no duplicates, or as a bitset (where bit i is set
+	 * if there's a site at position first+i) if that would be smaller
+	 */
+	static class ContigSites {
+		final int[] positions;
+		final BitSet bits;
+		final int first;
+
+		ContigSites(int[] positions, BitSet bits, int first) {
+			this.positions = positions;
+			this.bits = bits;
+			this.first = first;
+		}
+	}
+
+	/**
+	 * Collects positions for a contig in any order
+	 */
+	static class SiteBuilder {
+		final String contig;
+		int[] positions = new int[1024];
+		int count = 0;
+
+		SiteBuilder(String contig) {
+			this.contig = contig;
+		}
+
+		void add(int pos) {
+			if (count == positions.length) {
+				positions = Arrays.copyOf(positions, 2*positions.length);
+			}
+			positions[count] = pos;
+			count++;
+		}
+
+		ContigSites build() {
+			int[] sorted = Arrays.copyOf(positions, count);
+			Arrays.sort(sorted);
+			int unique = 0;
+			for(int i=0; i<sorted.length; i++) {
+				if (unique == 0 || sorted[i] != sorted[unique-1]) {
+					sorted[unique] = sorted[i];
+					unique++;
+				}
+			}
+			if (unique == 0) {
+				return new ContigSites(sorted, null, 0);
+			}
+
+			int first = sorted[0];
+			long span = (long)sorted[unique-1] - first + 1;
+			if (span < 32L*unique) {
+				//A bit per position in the span takes less space than an int per site
+				BitSet bits = new BitSet((int)span);
+				for(int i=0; i<unique; i++) {
+					bits.set(sorted[i] - first);
 				}
+				return new ContigSites(null, bits, first);
 			}
-			line = reader.readLine();
+			return new ContigSites(Arrays.copyOf(sorted, unique), null, first);
 		}
-		
-		reader.close();
 	}
 }
@@ -1,10 +1,9 @@
 package snpsvm.counters;
 
-import java.util.Iterator;
-
 import snpsvm.bamreading.AlignmentColumn;
+import snpsvm.bamreading.ColumnSummary;
 import snpsvm.bamreading.FastaWindow;
-import snpsvm.bamreading.MappedRead;
+import util.BinomialTable;
 
 /**
  * Attempts to compute something similar to a GaTK / samtools calculation, where
@@ -14,30 +13,17 @@ import snpsvm.bamreading.MappedRead;
  */
 public class BinomProbComputer implements ColumnComputer {
 
+	static final BinomialTable HET = BinomialTable.forProbability(0.5);
+	static final BinomialTable HOM_NON_REF = BinomialTable.forProbability(0.99);
+	static final BinomialTable HOM_REF = BinomialTable.forProbability(0.005);
+	
 	double[] value = new double[1];
 	
 	@Override
 	public double[] computeValue(final char refBase, FastaWindow window, AlignmentColumn col) {
-		int refCount = 0;
-		int altCount = 0;
-		if (col.getDepth() > 0) {
-			Iterator<MappedRead> it = col.getIterator();
-			while(it.hasNext()) {
-				MappedRead read = it.next();
-				if (read.hasBaseAtReferencePos(col.getCurrentPosition())) {
-					byte b = read.getBaseAtReferencePos(col.getCurrentPosition());
-					byte q = read.getQualityAtReferencePos(col.getCurrentPosition());
-					if (b == 'N' || q < 10.0) 
-						continue;
-					if (b == refBase)
-						refCount++;
-					else
-						altCount++;
-				}
-			}
-		}
-		
-		
+		ColumnSummary sum = col.getSummary(refBase, window);
+		int refCount = sum.getQualityCount(ColumnSummary.REF);
+		int altCount = sum.getQualityCount(ColumnSummary.ALT);
 		
 		int T = refCount + altCount;
 		int X = altCount;
@@ -50,29 +36,20 @@ public class BinomProbComputer implements ColumnComputer {
 		
 		//Compute het prob
 		//Each read has 50% chance of coming from source with a non-reference base
-		double hetProb = util.Math.binomPDF((int)Math.round(X), (int)Math.round(T), 0.5);
-		
+		double hetProb = HET.logPMF(X, T);
 		
 		//Compute homo non-reference prob
-		double homNonRefProb = util.Math.binomPDF((int)Math.round(X), (int)Math.round(T), 0.99);
+		double homNonRefProb = HOM_NON_REF.logPMF(X, T);
 		
 		//Compute homo-reference prob
-		double homRefProb = util.Math.binomPDF((int)Math.round(X), (int)Math.round(T), 0.005);
+		double homRefProb = HOM_REF.logPMF(X, T);
 		
-		double result =  1.0 - homRefProb / (hetProb + homNonRefProb + homRefProb); 
+		//Everything is in log space, so normalize with log-sum-exp
+		double result =  1.0 - Math.exp(homRefProb - util.Math.logSumExp(hetProb, homNonRefProb, homRefProb)); 
 		
 		if (result < 0 || result > 1) {
 			System.err.println("Whoa, got result : " + result);
 		}
-		if (hetProb < 0 || hetProb > 1) {
-			System.err.println("Whoa, got het probability: " + hetProb);
-		}
-		if (homNonRefProb < 0 || homNonRefProb > 1) {
-			System.err.println("Whoa, got homo non ref probability: " + homNonRefProb);
-		}
-		if (homRefProb < 0 || homRefProb > 1) {
-			System.err.println("Whoa, got homo ref probability: " + homRefProb);
-		}
 		
 		value[0] = result;
 		value[0] = value[0]*2.0 - 1.0; //Scale to between -1 and 1
@@ -82,7 +59,7 @@ public class BinomProbComputer implements ColumnComputer {
 
 	@Override
 	public String getName() {
-		return "distro.prob";
+		return "binom.prob";
 	}
 
 
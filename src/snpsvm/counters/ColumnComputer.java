@@ -25,7 +25,9 @@ public interface ColumnComputer {
 	public String getColumnDesc(int which);
 	
 	/**
-	 * Compute the values for this position
+	 * Compute the values for this position. Values that depend on the reads at the site should be derived
+	 * from col.getSummary(refBase, window), which is computed in one pass over the reads and shared by all
+	 * counters, rather than by iterating over the reads again
 	 * @param col
 	 * @return
 	 */
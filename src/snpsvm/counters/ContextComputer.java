@@ -2,8 +2,9 @@ package snpsvm.counters;
 
 import snpsvm.bamreading.AlignmentColumn;
 import snpsvm.bamreading.FastaWindow;
+import snpsvm.bamreading.SlidingContext;
 
-public class ContextComputer implements ColumnComputer {
+public class ContextComputer implements ReferenceComputer {
 
 	final int RANGE = 5; //number of bases in either direction to record
 	private final double[] values = new double[4*(2*RANGE+1)];
@@ -22,6 +23,21 @@ public class ContextComputer implements ColumnComputer {
 		
 		int refPos = col.getCurrentPosition();
 		
+		SlidingContext sliding = window.getSlidingContext();
+		if (RANGE == SlidingContext.CONTEXT_RANGE && sliding.isInterior(refPos) && !sliding.hasUnknownContextBase(refPos)) {
+			//Read the bases from the rolling code maintained as the window moves along
+			int code = sliding.getContextCode(refPos);
+			int ns = sliding.getContextN(refPos);
+			int offset = 0;
+			for(int i=2*RANGE; i>=0; i--) {
+				if (((ns >> i) & 1) == 0) {
+					values[offset + ((code >> (2*i)) & 3)] = 1.0;
+				}
+				offset += 4;
+			}
+			return values;
+		}
+		
 		int offset = 0;
 		for(int pos = refPos - RANGE; pos <= (refPos+RANGE); pos++) {
 			char base = window.getBaseAt(pos);
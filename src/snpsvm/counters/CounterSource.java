@@ -1,14 +1,110 @@
 package snpsvm.counters;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class CounterSource {
 
 	private static List<Integer> exclusions = null;
 	private static boolean countersObtained = false;
 	
+	//If set, counters are built from the manifest of the model in use rather than the default list
+	private static FeatureManifest manifest = null;
+	private static BitSet usedColumns = null;
+	
+	//Every counter that can appear in a model, by name, and the version of its computation. The version
+	//must be incremented whenever the values a counter produces change, so that models trained
+	//with the old values are rejected rather than silently given different inputs
+	private static final Map<String, Class<? extends ColumnComputer>> registry = new HashMap<String, Class<? extends ColumnComputer>>();
+	private static final Map<String, Integer> versions = new HashMap<String, Integer>();
+	static {
+		register("dup.counter", 2, DuplicateCounter.class);
+		register("total.depth", 1, DepthComputer.class);
+		register("binom.prob", 2, BinomProbComputer.class);
+		register("quality.sums", 1, QualSumComputer.class);
+		register("mean.quality", 1, MeanQualityComputer.class);
+		register("pos.dev", 1, PosDevComputer.class);
+		register("var.frac", 1, VarFracCounter.class);
+		register("mapping.quality", 1, MQComputer.class);
+		register("distro.prob", 2, DistroProbComputer.class);
+		register("strand.bias", 2, StrandBiasComputer.class);
+		register("mismatch.counts", 2, MismatchComputer.class);
+		register("read.pos", 1, ReadPosCounter.class);
+		register("hrun.counter", 1, HomopolymerRunCounter.class);
+		register("dinuc.counter", 1, DinucRepeatCounter.class);
+		register("nuc.diversity", 1, NucDiversityCounter.class);
+		register("mismatches.per.read", 2, MismatchTotal.class);
+		register("overlapping.indels", 1, OverlappingIndelComputer.class);
+		register("TsTV.counter", 1, TsTvComputer.class);
+		register("mut.class", 1, MutClassCounter.class);
+		register("1000G.freq", 1, TGPCounter.class);
+		register("nuc.context.computer", 1, ContextComputer.class);
+		register("nearby.qualities", 1, NearbyQualComputer.class);
+		register("var.counts", 1, VarCountComputer.class);
+	}
+	
+	private static void register(String name, int version, Class<? extends ColumnComputer> clazz) {
+		registry.put(name, clazz);
+		versions.put(name, version);
+	}
+	
+	/**
+	 * Create a new instance of the counter with the given name, or return null if there is no such counter
+	 * @param name
+	 * @return
+	 */
+	public static ColumnComputer createCounter(String name) {
+		Class<? extends ColumnComputer> clazz = registry.get(name);
+		if (clazz == null) {
+			return null;
+		}
+		ColumnComputer counter;
+		try {
+			counter = clazz.newInstance();
+		} catch (InstantiationException e) {
+			throw new IllegalStateException("Could not create counter " + name, e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Could not create counter " + name, e);
+		}
+		if (! counter.getName().equals(name)) {
+			throw new IllegalStateException("Counter registered as " + name + " has name " + counter.getName());
+		}
+		return counter;
+	}
+	
+	/**
+	 * The current version of the computation performed by the counter with the given name, or -1
+	 * if there is no such counter
+	 * @param name
+	 * @return
+	 */
+	public static int getCounterVersion(String name) {
+		Integer version = versions.get(name);
+		if (version == null) {
+			return -1;
+		}
+		return version;
+	}
+	
+	/**
+	 * Build counters from the given manifest in all future calls to getCounters(), instead of using the default
+	 * list. If usedColumns is non-null, counters none of whose columns (numbered from 1) are set in it aren't
+	 * computed at all. The manifest should have been checked with FeatureManifest.validate() first
+	 * @param manifest
+	 * @param usedColumns
+	 */
+	public static void useManifest(FeatureManifest manifest, BitSet usedColumns) {
+		if (countersObtained) {
+			throw new IllegalArgumentException("Counters already computed, can't change the manifest now");
+		}
+		CounterSource.manifest = manifest;
+		CounterSource.usedColumns = usedColumns;
+	}
+	
 	public static void excludeCounter(int col) {
 		if (exclusions == null)
 			exclusions = new ArrayList<Integer>();
@@ -19,11 +115,17 @@ public class CounterSource {
 	}
 	/**
 	 * Obtain a list of all column computers in use. This must return new instances of counters
-	 * on each call because counters are not in general thread safe 
+	 * on each call because counters are not in general thread safe. If a manifest has been given with useManifest(..)
+	 * the counters it lists are returned, and exclusions are ignored
 	 *  
 	 * @return
 	 */
 	public static List<ColumnComputer> getCounters() {
+		if (manifest != null) {
+			countersObtained = true;
+			return manifest.createCounters(usedColumns);
+		}
+		
 		List<ColumnComputer> counters = new ArrayList<ColumnComputer>();
 		counters.add( new DuplicateCounter()); 
 //		/* 0 */ counters.add( new DepthComputer());  // col 1
@@ -2,12 +2,15 @@ package snpsvm.counters;
 
 import snpsvm.bamreading.AlignmentColumn;
 import snpsvm.bamreading.FastaWindow;
+import snpsvm.bamreading.ReferenceContext;
+import snpsvm.bamreading.SlidingContext;
 
-public class DinucRepeatCounter implements ColumnComputer {
+public class DinucRepeatCounter implements ReferenceComputer {
 
 	final double[] values = new double[2];
 	
-	final int maxLength = 10; //dont look beyond this many bases in either direction
+	public static final int MAX_LENGTH = 10; //dont look beyond this many bases in either direction
+	final int maxLength = MAX_LENGTH;
 	
 	@Override
 	public String getName() {
@@ -32,39 +35,68 @@ public class DinucRepeatCounter implements ColumnComputer {
 	public double[] computeValue(char refBase, FastaWindow window,
 			AlignmentColumn col) {
 		
-		
-		//Looking backward
 		int refPos = col.getCurrentPosition();
+		int context = window.getContextAt(refPos);
+		if (context >= 0) {
+			//Precomputed by prepare-reference
+			values[0] = ReferenceContext.dinucLeft(context);
+			values[1] = ReferenceContext.dinucRight(context);
+		}
+		else if (window.getSlidingContext().isInterior(refPos)) {
+			//Maintained incrementally as the window moves along
+			SlidingContext sliding = window.getSlidingContext();
+			values[0] = sliding.dinucLeft(refPos);
+			values[1] = sliding.dinucRight(refPos);
+		}
+		else {
+			values[0] = leftRepeats(window, refPos);
+			values[1] = rightRepeats(window, refPos);
+		}
+		
+		values[0] = values[0] / maxLength * 2.0 -1.0;
+		values[1] = values[1] / maxLength * 2.0 -1.0;
+		return values;
+	}
+	
+	/**
+	 * Number of additional copies of the dinucleotide just before the site, looking backward
+	 * @param window
+	 * @param refPos
+	 * @return
+	 */
+	public static int leftRepeats(FastaWindow window, int refPos) {
 		char base0 = window.getBaseAt(refPos-1);
 		char base1 = window.getBaseAt(refPos-2);
-		double count = 0;
+		int count = 0;
 		if (base0 != base1) {
-			for(int i=refPos-3; (i-1)>Math.max(window.indexOfLeftEdge(), refPos-1-maxLength); i-=2) {
+			for(int i=refPos-3; (i-1)>Math.max(window.indexOfLeftEdge(), refPos-1-MAX_LENGTH); i-=2) {
 				if (base0 == window.getBaseAt(i) && base1 == window.getBaseAt(i-1))
 					count++;
 				else
 					break;
 			}
 		}
-		values[0] = count;
-		
-		//Looking forward
-		base0 = window.getBaseAt(refPos+1);
-		base1 = window.getBaseAt(refPos+2);
-		
-		count = 0;
+		return count;
+	}
+	
+	/**
+	 * Number of additional copies of the dinucleotide just after the site, looking forward
+	 * @param window
+	 * @param refPos
+	 * @return
+	 */
+	public static int rightRepeats(FastaWindow window, int refPos) {
+		char base0 = window.getBaseAt(refPos+1);
+		char base1 = window.getBaseAt(refPos+2);
+		int count = 0;
 		if (base0 != base1) {
-			for(int i=refPos+3; (i+1)<Math.min(window.indexOfRightEdge(), refPos+1+maxLength); i+=2) {
+			for(int i=refPos+3; (i+1)<Math.min(window.indexOfRightEdge(), refPos+1+MAX_LENGTH); i+=2) {
 				if (base0 == window.getBaseAt(i) && base1 == window.getBaseAt(i+1))
 					count++;
 				else
 					break;
 			}
 		}
-		values[1] = count;
-		
-		values[0] = values[0] / maxLength * 2.0 -1.0;
-		values[1] = values[1] / maxLength * 2.0 -1.0;
-		return values;
+		return count;
 	}
 }
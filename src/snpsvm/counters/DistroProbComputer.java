@@ -1,13 +1,16 @@
 package snpsvm.counters;
 
-import java.util.Iterator;
-
 import snpsvm.bamreading.AlignmentColumn;
+import snpsvm.bamreading.ColumnSummary;
 import snpsvm.bamreading.FastaWindow;
-import snpsvm.bamreading.MappedRead;
+import util.BinomialTable;
 
 public class DistroProbComputer implements ColumnComputer {
 
+	static final BinomialTable HET = BinomialTable.forProbability(0.5);
+	static final BinomialTable HOM = BinomialTable.forProbability(0.99);
+	static final BinomialTable ERR = BinomialTable.forProbability(0.05);
+	
 	double[] value = new double[1];
 	
 	@Override
@@ -23,25 +26,9 @@ public class DistroProbComputer implements ColumnComputer {
 	
 	@Override
 	public double[] computeValue(final char refBase, FastaWindow window, AlignmentColumn col) {
-		int refCount = 0;
-		int altCount = 0;
-		if (col.getDepth() > 0) {
-			Iterator<MappedRead> it = col.getIterator();
-			while(it.hasNext()) {
-				MappedRead read = it.next();
-				if (read.hasBaseAtReferencePos(col.getCurrentPosition())) {
-					byte b = read.getBaseAtReferencePos(col.getCurrentPosition());
-					if (b == 'N') 
-						continue;
-					if (b == refBase)
-						refCount++;
-					else
-						altCount++;
-				}
-			}
-		}
-		
-		
+		ColumnSummary sum = col.getSummary(refBase, window);
+		int refCount = sum.getCount(ColumnSummary.REF);
+		int altCount = sum.getCount(ColumnSummary.ALT);
 		
 		int T = refCount + altCount;
 		int X = altCount;
@@ -54,16 +41,15 @@ public class DistroProbComputer implements ColumnComputer {
 		
 		//Compute het prob
 		//Each read has 50% chance of coming from source with a non-reference base
-		double hetProb = binomPDF((int)Math.round(X), (int)Math.round(T), 0.5);
-		
+		double hetProb = HET.logPMF(X, T);
 		
 		//Compute homo prob
-		double homProb = binomPDF((int)Math.round(X), (int)Math.round(T), 0.99);
+		double homProb = HOM.logPMF(X, T);
 		
 		//Compute error prob
-		double errProb = binomPDF((int)Math.round(X), (int)Math.round(T), 0.05);
+		double errProb = ERR.logPMF(X, T);
 		
-		double result = Math.log(errProb / (hetProb + homProb + errProb)); 
+		double result = errProb - util.Math.logSumExp(hetProb, homProb, errProb); 
 		
 		if (result < -10)
 			result = -10;
@@ -72,18 +58,6 @@ public class DistroProbComputer implements ColumnComputer {
 		return value;
 	}
 	
-	public static double binomPDF(int k, int n, double p) {		
-		return nChooseK(n, k) * Math.pow(p, k) * Math.pow(1.0-p, n-k);
-	}
-	
-	public static double nChooseK(int n, int k) {
-		double prod = 1.0;
-		for(double i=1; i<=k; i++) {
-			prod *= (double)(n-k+i)/i;
-		}
-		return prod;
-	}
-
 	@Override
 	public String getName() {
 		return "distro.prob";
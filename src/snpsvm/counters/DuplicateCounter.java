@@ -1,14 +1,9 @@
 package snpsvm.counters;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-
-import net.sf.samtools.SAMRecord;
-
 import snpsvm.bamreading.AlignmentColumn;
+import snpsvm.bamreading.ColumnSummary;
 import snpsvm.bamreading.FastaWindow;
-import snpsvm.bamreading.MappedRead;
+import util.LongSet;
 
 /**
  * Counts the number of unique starting positions of reads for both
@@ -18,6 +13,8 @@ import snpsvm.bamreading.MappedRead;
  */
 public class DuplicateCounter extends VarCountComputer {
 	
+	private final LongSet fragments = new LongSet(256); //Reused for every site
+	
 	@Override
 	public String getName() {
 		return "dup.counter";
@@ -34,40 +31,11 @@ public class DuplicateCounter extends VarCountComputer {
 
 	@Override
 	public double[] computeValue(final char refBase, FastaWindow window, AlignmentColumn col) {
-		values[ref] = 0.0;
-		values[alt] = 0.0;
-		Set<Pair> refPairs = new HashSet<Pair>();
-		Set<Pair> altPairs = new HashSet<Pair>();
-		if (col.getDepth() > 0) {
-			Iterator<MappedRead> it = col.getIterator();
-			while(it.hasNext()) {
-				MappedRead read = it.next();
-				if (read.hasBaseAtReferencePos(col.getCurrentPosition())) {
-					byte b = read.getBaseAtReferencePos(col.getCurrentPosition());
-					if (b == 'N' 
-							|| (!read.getRecord().getProperPairFlag()) 
-							|| read.getRecord().getMateUnmappedFlag()) 
-						continue;
-					
-					int mateStart = read.getRecord().getMateAlignmentStart();
-					int readStart = read.getRecord().getAlignmentStart();
-					
-					int first = Math.min(mateStart, readStart);
-					int end = Math.max(mateStart, readStart);
-					Pair p = new Pair(first, end);
-					if (b == refBase) {
-						refPairs.add(p); // will clobber old one if it exists
-					}
-					else {
-						altPairs.add(p);
-					}
-				}
-			}
-		}
+		ColumnSummary sum = col.getSummary(refBase, window);
 		
 		int grainSize = 1000;
-		values[ref] = Math.min(grainSize, refPairs.size());
-		values[alt] = Math.min(grainSize, altPairs.size());
+		values[ref] = Math.min(grainSize, countUnique(sum.getPairKeys(ColumnSummary.REF), sum.getPairCount(ColumnSummary.REF)));
+		values[alt] = Math.min(grainSize, countUnique(sum.getPairKeys(ColumnSummary.ALT), sum.getPairCount(ColumnSummary.ALT)));
 		
 		values[ref] = values[ref] / (double)grainSize * 2.0 - 1.0;
 		values[alt] = values[alt] / (double)grainSize * 2.0 - 1.0;
@@ -75,18 +43,16 @@ public class DuplicateCounter extends VarCountComputer {
 		return values;
 	}
 
-	private class Pair {
-		int start;
-		int end;
-		
-		public Pair(int start, int end) {
-			this.start = start;
-			this.end = end;
-		}
-		
-		public boolean equals(Pair p) {
-			return p.start == this.start && p.end == this.end;
+	/**
+	 * Number of distinct keys among the first count entries of keys. Each key packs the leftmost and rightmost of the
+	 * read and mate start positions, so reads from duplicate fragments share a key
+	 */
+	private int countUnique(long[] keys, int count) {
+		fragments.clear();
+		for(int i=0; i<count; i++) {
+			fragments.add(keys[i]);
 		}
+		return fragments.size();
 	}
 	
 }
@@ -0,0 +1,242 @@
+package snpsvm.counters;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The features a model was trained with: the name and version of each counter, in order, and the
+ * descriptions of the columns it produced. ModelBuilder writes one next to each model it creates
+ * (as model.features), and the predictor uses it to build exactly those counters, in the same order, so
+ * that a model is never scored against a different column layout than the one it was trained on.
+ *
+ * The file is plain text, one line per column, with the counter name, counter version, column number
+ * (starting at 1) and column description separated by tabs.
+ * @author brendan
+ *
+ */
+public class FeatureManifest {
+
+	public static final String SUFFIX = ".features";
+	private static final String HEADER = "#snpsvm.features";
+	private static final int VERSION = 1;
+
+	private final List<Feature> features = new ArrayList<Feature>();
+
+	/**
+	 * One counter and the descriptions of its columns
+	 */
+	public static class Feature {
+		final String name;
+		final int version;
+		final List<String> columns = new ArrayList<String>();
+
+		Feature(String name, int version) {
+			this.name = name;
+			this.version = version;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getVersion() {
+			return version;
+		}
+
+		public List<String> getColumnDescs() {
+			return Collections.unmodifiableList(columns);
+		}
+	}
+
+	/**
+	 * Create a manifest describing the given counters, which should be those used to produce the training data
+	 * @param counters
+	 * @return
+	 */
+	public static FeatureManifest fromCounters(List<ColumnComputer> counters) {
+		FeatureManifest manifest = new FeatureManifest();
+		for(ColumnComputer counter : counters) {
+			Feature feature = new Feature(counter.getName(), CounterSource.getCounterVersion(counter.getName()));
+			for(int i=0; i<counter.getColumnCount(); i++) {
+				feature.columns.add(counter.getColumnDesc(i));
+			}
+			manifest.features.add(feature);
+		}
+		return manifest;
+	}
+
+	/**
+	 * The file in which the manifest for the given model is stored
+	 * @param modelFile
+	 * @return
+	 */
+	public static File getManifestFile(File modelFile) {
+		return new File(modelFile.getAbsolutePath() + SUFFIX);
+	}
+
+	public static FeatureManifest read(File file) throws IOException {
+		FeatureManifest manifest = new FeatureManifest();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line = reader.readLine();
+			if (line == null || !line.startsWith(HEADER)) {
+				throw new IOException("File " + file.getName() + " does not appear to be a feature manifest");
+			}
+			String[] header = line.split("\t");
+			if (header.length < 2 || !header[1].equals("" + VERSION)) {
+				throw new IOException("Feature manifest " + file.getName() + " has an unsupported version");
+			}
+
+			Feature current = null;
+			int column = 1;
+			line = reader.readLine();
+			while(line != null) {
+				if (line.trim().length() == 0 || line.startsWith("#")) {
+					line = reader.readLine();
+					continue;
+				}
+				String[] toks = line.split("\t");
+				if (toks.length != 4) {
+					throw new IOException("Invalid line in feature manifest " + file.getName() + " : " + line);
+				}
+				int version;
+				try {
+					version = Integer.parseInt(toks[1]);
+					if (Integer.parseInt(toks[2]) != column) {
+						throw new IOException("Feature manifest " + file.getName() + " is missing column " + column);
+					}
+				}
+				catch (NumberFormatException ex) {
+					throw new IOException("Invalid line in feature manifest " + file.getName() + " : " + line);
+				}
+				if (current == null || !current.name.equals(toks[0])) {
+					current = new Feature(toks[0], version);
+					manifest.features.add(current);
+				}
+				current.columns.add(toks[3]);
+				column++;
+				line = reader.readLine();
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return manifest;
+	}
+
+	public void write(File file) throws IOException {
+		PrintWriter writer = new PrintWriter(file);
+		try {
+			writer.println(HEADER + "\t" + VERSION);
+			int column = 1;
+			for(Feature feature : features) {
+				for(String desc : feature.columns) {
+					writer.println(feature.name + "\t" + feature.version + "\t" + column + "\t" + desc);
+					column++;
+				}
+			}
+		}
+		finally {
+			writer.close();
+		}
+		if (writer.checkError()) {
+			throw new IOException("Error writing feature manifest " + file.getName());
+		}
+	}
+
+	public List<Feature> getFeatures() {
+		return Collections.unmodifiableList(features);
+	}
+
+	/**
+	 * Total number of columns produced by all features
+	 * @return
+	 */
+	public int getColumnCount() {
+		int count = 0;
+		for(Feature feature : features) {
+			count += feature.columns.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Check that every feature in the manifest can be computed by the current code exactly as it was
+	 * when the model was trained, throwing an IllegalArgumentException describing the first difference found
+	 */
+	public void validate() {
+		validate(false);
+	}
+
+	/**
+	 * Like validate(), but if allowStale is true features whose computation has changed since the model was
+	 * trained (a different counter version) are accepted rather than rejected. Features that are missing or
+	 * produce different columns are always rejected
+	 * @param allowStale
+	 * @return Descriptions of the stale features accepted, empty if there are none
+	 */
+	public List<String> validate(boolean allowStale) {
+		List<String> stale = new ArrayList<String>();
+		for(Feature feature : features) {
+			ColumnComputer counter = CounterSource.createCounter(feature.name);
+			if (counter == null) {
+				throw new IllegalArgumentException("Model uses feature '" + feature.name + "', which is not available in this version");
+			}
+			int version = CounterSource.getCounterVersion(feature.name);
+			if (version != feature.version) {
+				if (! allowStale) {
+					throw new IllegalArgumentException("Model uses version " + feature.version + " of feature '" + feature.name + "', but version " + version + " is computed by this version, please rebuild the model (or use -allowstale)");
+				}
+				stale.add(feature.name + " (model version " + feature.version + ", computed version " + version + ")");
+			}
+			if (counter.getColumnCount() != feature.columns.size()) {
+				throw new IllegalArgumentException("Model expects " + feature.columns.size() + " columns from feature '" + feature.name + "', but it produces " + counter.getColumnCount());
+			}
+			for(int i=0; i<feature.columns.size(); i++) {
+				if (! counter.getColumnDesc(i).equals(feature.columns.get(i))) {
+					throw new IllegalArgumentException("Column " + (i+1) + " of feature '" + feature.name + "' differs from the model : expected '" + feature.columns.get(i) + "' but found '" + counter.getColumnDesc(i) + "'");
+				}
+			}
+		}
+		return stale;
+	}
+
+	/**
+	 * Create new instances of the counters in the manifest, in order. If usedColumns is non-null, a counter
+	 * none of whose columns (numbered from 1, as in the libsvm data) are set in it is replaced by an
+	 * UnusedCounter that produces zeros without computing anything, so the remaining columns keep their numbers
+	 * @param usedColumns
+	 * @return
+	 */
+	public List<ColumnComputer> createCounters(BitSet usedColumns) {
+		List<ColumnComputer> counters = new ArrayList<ColumnComputer>();
+		int firstColumn = 1;
+		for(Feature feature : features) {
+			int lastColumn = firstColumn + feature.columns.size() - 1;
+			if (usedColumns != null && !anySet(usedColumns, firstColumn, lastColumn)) {
+				counters.add(new UnusedCounter(feature.name, feature.columns));
+			}
+			else {
+				ColumnComputer counter = CounterSource.createCounter(feature.name);
+				if (counter == null) {
+					throw new IllegalArgumentException("Model uses feature '" + feature.name + "', which is not available in this version");
+				}
+				counters.add(counter);
+			}
+			firstColumn = lastColumn + 1;
+		}
+		return counters;
+	}
+
+	private static boolean anySet(BitSet bits, int first, int last) {
+		int next = bits.nextSetBit(first);
+		return next > -1 && next <= last;
+	}
+}
@@ -2,17 +2,20 @@ package snpsvm.counters;
 
 import snpsvm.bamreading.AlignmentColumn;
 import snpsvm.bamreading.FastaWindow;
+import snpsvm.bamreading.ReferenceContext;
+import snpsvm.bamreading.SlidingContext;
 
 /**
  * Computes longest homopolymer run in both directions 
  * @author brendan
  *
  */
-public class HomopolymerRunCounter implements ColumnComputer {
+public class HomopolymerRunCounter implements ReferenceComputer {
 
 	final double[] values = new double[2];
 	
-	final int maxLength = 10; //dont look beyond this many bases in either direction
+	public static final int MAX_LENGTH = 10; //dont look beyond this many bases in either direction
+	final int maxLength = MAX_LENGTH;
 	
 	@Override
 	public String getName() {
@@ -37,39 +40,64 @@ public class HomopolymerRunCounter implements ColumnComputer {
 	public double[] computeValue(char refBase, FastaWindow window,
 			AlignmentColumn col) {
 		
-		
-		//Looking backward
 		int refPos = col.getCurrentPosition();
+		int context = window.getContextAt(refPos);
+		if (context >= 0) {
+			//Precomputed by prepare-reference
+			values[0] = ReferenceContext.homopolymerLeft(context);
+			values[1] = ReferenceContext.homopolymerRight(context);
+		}
+		else if (window.getSlidingContext().isInterior(refPos)) {
+			//Maintained incrementally as the window moves along
+			SlidingContext sliding = window.getSlidingContext();
+			values[0] = sliding.homopolymerLeft(refPos);
+			values[1] = sliding.homopolymerRight(refPos);
+		}
+		else {
+			values[0] = leftRun(window, refPos);
+			values[1] = rightRun(window, refPos);
+		}
+		
+		values[0] = values[0] / maxLength * 2.0 -1.0;
+		values[1] = values[1] / maxLength * 2.0 -1.0;
+		
+		return values;
+	}
+
+	/**
+	 * Length of the homopolymer run to the left of the site, not counting the base just before the site
+	 * @param window
+	 * @param refPos
+	 * @return
+	 */
+	public static int leftRun(FastaWindow window, int refPos) {
 		char base = window.getBaseAt(refPos-1);
-		double count = 0;
-		for(int i=refPos-2; i>Math.max(window.indexOfLeftEdge(), refPos-1-maxLength); i--) {
+		int count = 0;
+		for(int i=refPos-2; i>Math.max(window.indexOfLeftEdge(), refPos-1-MAX_LENGTH); i--) {
 			if (base == window.getBaseAt(i))
 				count++;
 			else
 				break;
 		}
-		values[0] = count;
-		
-		
-		base = window.getBaseAt(refPos+1);
-		count = 0;
-		for(int i=refPos+2; i<Math.min(window.indexOfRightEdge()-1, refPos+1+maxLength); i++) {
-                    if (i < window.indexOfRightEdge()) {
-                        //System.out.println("requested pos : " + i + " right edge : " + window.indexOfRightEdge());
+		return count;
+	}
+	
+	/**
+	 * Length of the homopolymer run to the right of the site, not counting the base just after the site
+	 * @param window
+	 * @param refPos
+	 * @return
+	 */
+	public static int rightRun(FastaWindow window, int refPos) {
+		char base = window.getBaseAt(refPos+1);
+		int count = 0;
+		for(int i=refPos+2; i<Math.min(window.indexOfRightEdge()-1, refPos+1+MAX_LENGTH); i++) {
 			if (base == window.getBaseAt(i))
 				count++;
 			else
 				break;
-                    }
-                    else
-                        break;
 		}
-		values[1] = count;
-		
-		values[0] = values[0] / maxLength * 2.0 -1.0;
-		values[1] = values[1] / maxLength * 2.0 -1.0;
-		
-		return values;
+		return count;
 	}
 
 }
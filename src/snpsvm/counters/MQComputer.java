@@ -1,10 +1,8 @@
 package snpsvm.counters;
 
-import java.util.Iterator;
-
 import snpsvm.bamreading.AlignmentColumn;
+import snpsvm.bamreading.ColumnSummary;
 import snpsvm.bamreading.FastaWindow;
-import snpsvm.bamreading.MappedRead;
 
 /**
  * Computes mean of mapping quality of reads with reference bases and non-reference bases
@@ -37,31 +35,11 @@ public class MQComputer extends VarCountComputer {
 	
 	@Override
 	public double[] computeValue(final char refBase, FastaWindow window, AlignmentColumn col) {
-		values[ref] = 0.0;
-		values[alt] = 0.0;
-		counts[0] = 0.0;
-		counts[1] = 0.0;
-		
-		if (col.getDepth() > 0) {
-			Iterator<MappedRead> it = col.getIterator();
-			while(it.hasNext()) {
-				MappedRead read = it.next();
-				if (read.hasBaseAtReferencePos(col.getCurrentPosition())) {
-					byte b = read.getBaseAtReferencePos(col.getCurrentPosition());
-					if (b == 'N') 
-						continue;
-					
-					int q = read.getRecord().getMappingQuality();
-					int index = 0;
-					if ( b != refBase)
-						index = 1;
-					values[index] += q;
-					counts[index]++;
-					
-					
-				}
-			}
-		}
+		ColumnSummary sum = col.getSummary(refBase, window);
+		values[ref] = sum.getMappingQualitySum(ColumnSummary.REF);
+		values[alt] = sum.getMappingQualitySum(ColumnSummary.ALT);
+		counts[ref] = sum.getCount(ColumnSummary.REF);
+		counts[alt] = sum.getCount(ColumnSummary.ALT);
 		
 		if (counts[0] > 0)
 			values[0] /= counts[0];
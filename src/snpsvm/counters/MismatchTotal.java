@@ -1,10 +1,8 @@
 package snpsvm.counters;
 
-import java.util.Iterator;
-
 import snpsvm.bamreading.AlignmentColumn;
+import snpsvm.bamreading.ColumnSummary;
 import snpsvm.bamreading.FastaWindow;
-import snpsvm.bamreading.MappedRead;
 
 /**
  * Reports mean number of mismatches for all reads in window
@@ -23,29 +21,16 @@ public class MismatchTotal implements ColumnComputer {
 	@Override
 	public double[] computeValue(final char refBase, FastaWindow window, AlignmentColumn col) {
 		value[0] = 0;
-		
-		double counted = 0;
-		if (col.getDepth() > 0) {
-			Iterator<MappedRead> it = col.getIterator();
-			while(it.hasNext()) {
-				MappedRead read = it.next();
-				if (read.hasBaseAtReferencePos(col.getCurrentPosition())) {
-					char b = (char)read.getBaseAtReferencePos(col.getCurrentPosition());
-					if (b == 'N' || refBase == 'N') 
-						continue;
-					
-					value[0] += read.getMismatchCount(window);
-					counted++;						
-				}
+		if (refBase != 'N') {
+			ColumnSummary sum = col.getSummary(refBase, window);
+			double counted = sum.getCount(ColumnSummary.REF) + sum.getCount(ColumnSummary.ALT);
+			if (counted > 0) {
+				value[0] = (sum.getMismatchSum(ColumnSummary.REF) + sum.getMismatchSum(ColumnSummary.ALT)) / counted;
+				if (value[0] > 100.0)
+					value[0] = 100.0;
 			}
 		}
 		
-		if (counted > 0) {
-			value[0] /= counted;
-			if (value[0] > 100.0)
-				value[0] = 100.0;
-		}
-		
 		value[0] = value[0] / 100.0 *2.0 -1.0;
 		return value;
 	}
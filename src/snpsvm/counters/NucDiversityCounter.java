@@ -2,6 +2,7 @@ package snpsvm.counters;
 
 import snpsvm.bamreading.AlignmentColumn;
 import snpsvm.bamreading.FastaWindow;
+import snpsvm.bamreading.SlidingContext;
 
 /**
  * A simple take on assessing sequence complexity around a focal site, we simply compute the
@@ -11,7 +12,7 @@ import snpsvm.bamreading.FastaWindow;
  * @author brendan
  *
  */
-public class NucDiversityCounter implements ColumnComputer {
+public class NucDiversityCounter implements ReferenceComputer {
 
 	public final double expA = 0.3;
 	public final double expC = 0.2;
@@ -43,20 +44,32 @@ public class NucDiversityCounter implements ColumnComputer {
 	public double[] computeValue(char refBase, FastaWindow window,
 			AlignmentColumn col) {
 
-		int startPos = Math.max(window.indexOfLeftEdge(), col.getCurrentPosition()-WINDOW_SIZE);
-		int endPos = Math.min(window.indexOfRightEdge(), col.getCurrentPosition()+WINDOW_SIZE);
-		counts[0] = 0.0;
-		counts[1] = 0.0;
-		counts[2] = 0.0;
-		counts[3] = 0.0;
-		
-		for(int i=startPos; i<endPos; i++) {
-			char base = window.getBaseAt(i);
-			switch(base) {
-			case 'A' : counts[0]++; break;
-			case 'C' : counts[1]++; break;
-			case 'T' : counts[2]++; break;
-			case 'G' : counts[3]++; break;
+		final int refPos = col.getCurrentPosition();
+		SlidingContext sliding = window.getSlidingContext();
+		if (WINDOW_SIZE == SlidingContext.DIVERSITY_WINDOW && sliding.isInterior(refPos)) {
+			//Composition is maintained incrementally as the window moves along
+			int[] composition = sliding.getComposition(refPos);
+			counts[0] = composition[0];
+			counts[1] = composition[1];
+			counts[2] = composition[2];
+			counts[3] = composition[3];
+		}
+		else {
+			int startPos = Math.max(window.indexOfLeftEdge(), refPos-WINDOW_SIZE);
+			int endPos = Math.min(window.indexOfRightEdge(), refPos+WINDOW_SIZE);
+			counts[0] = 0.0;
+			counts[1] = 0.0;
+			counts[2] = 0.0;
+			counts[3] = 0.0;
+
+			for(int i=startPos; i<endPos; i++) {
+				char base = window.getBaseAt(i);
+				switch(base) {
+				case 'A' : counts[0]++; break;
+				case 'C' : counts[1]++; break;
+				case 'T' : counts[2]++; break;
+				case 'G' : counts[3]++; break;
+				}
 			}
 		}
 		
@@ -1,10 +1,8 @@
 package snpsvm.counters;
 
-import java.util.Iterator;
-
 import snpsvm.bamreading.AlignmentColumn;
+import snpsvm.bamreading.ColumnSummary;
 import snpsvm.bamreading.FastaWindow;
-import snpsvm.bamreading.MappedRead;
 
 /**
  * Fraction of reads with an indel that overlaps the given site
@@ -17,25 +15,10 @@ public class OverlappingIndelComputer implements ColumnComputer {
 	
 	@Override
 	public double[] computeValue(final char refBase, FastaWindow window, AlignmentColumn col) {
-		double totCounted = 0;
-		double indels = 0;
-		
-		if (col.getDepth() > 0) {
-			Iterator<MappedRead> it = col.getIterator();
-			while(it.hasNext()) {
-				MappedRead read = it.next();
-				if (read.containsPosition(col.getCurrentPosition())) {
-					totCounted++;
-					if (! read.hasBaseAtReferencePos(col.getCurrentPosition())) {
-						indels++;
-					}
-				}
-				
-			}
-		}
-		
+		ColumnSummary sum = col.getSummary(refBase, window);
+		double totCounted = sum.getSpanningCount();
+		double indels = sum.getGappedCount();
 		
-				
 		value[0] = indels / totCounted;
 		value[0] = value[0]*2.0 - 1.0; //Scale to between -1 and 1
 		return value;
@@ -44,7 +27,7 @@ public class OverlappingIndelComputer implements ColumnComputer {
 
 	@Override
 	public String getName() {
-		return "var.frac";
+		return "overlapping.indels";
 	}
 
 
@@ -56,7 +39,7 @@ public class OverlappingIndelComputer implements ColumnComputer {
 
 	@Override
 	public String getColumnDesc(int which) {
-		return "fraction of non-reference bases at site";
+		return "fraction of reads spanning site with an indel overlapping it";
 	}
 
 }
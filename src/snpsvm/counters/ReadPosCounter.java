@@ -1,10 +1,8 @@
 package snpsvm.counters;
 
-import java.util.Iterator;
-
 import snpsvm.bamreading.AlignmentColumn;
+import snpsvm.bamreading.ColumnSummary;
 import snpsvm.bamreading.FastaWindow;
-import snpsvm.bamreading.MappedRead;
 
 /**
  * Computes the average position in the read of reference and alt alleles
@@ -37,36 +35,11 @@ public class ReadPosCounter extends VarCountComputer {
 	
 	@Override
 	public double[] computeValue(final char refBase, FastaWindow window, AlignmentColumn col) {
-		values[ref] = 0.0;
-		values[alt] = 0.0;
-		counts[ref] = 0.0; 
-		counts[alt] = 0.0;
-		
-		if (col.getDepth() > 0) {
-			Iterator<MappedRead> it = col.getIterator();
-			while(it.hasNext()) {
-				MappedRead read = it.next();
-				if (read.hasBaseAtReferencePos(col.getCurrentPosition())) {
-					byte b = read.getBaseAtReferencePos(col.getCurrentPosition());
-					int readPos = read.refPosToReadPos(col.getCurrentPosition());
-					
-					if (b == 'N') 
-						continue;
-					
-					if (b == refBase) {
-						values[ref]+=readPos;
-						counts[ref]++;
-					}
-					else {
-						values[alt]+=readPos;
-						counts[alt]++;
-					}
-				}
-			}
-		}
-		
-		double origRef = values[ref];
-		double origAlt = values[alt];
+		ColumnSummary sum = col.getSummary(refBase, window);
+		values[ref] = sum.getReadPosSum(ColumnSummary.REF);
+		values[alt] = sum.getReadPosSum(ColumnSummary.ALT);
+		counts[ref] = sum.getCount(ColumnSummary.REF);
+		counts[alt] = sum.getCount(ColumnSummary.ALT);
 		
 		if (counts[ref] > 0)
 			values[ref] /= counts[ref];
@@ -75,19 +48,9 @@ public class ReadPosCounter extends VarCountComputer {
 		
 		values[ref] = (values[ref] / 105.0)*2.0 - 1.0;
 		values[alt] = (values[alt] / 105.0)*2.0 - 1.0;
-		
-//		if (values[ref] < -1.0) {
-//			System.out.println("huh?");
-//		}
-//		if (values[alt] < -1.0) {
-//			System.out.println("huh?");
-//		}
-
 
 		values[ref] = Math.min(1.0, values[ref]);
 		values[alt] = Math.min(1.0, values[alt]);
-//		
-		
 		return values;
 	}
 
@@ -0,0 +1,12 @@
+package snpsvm.counters;
+
+/**
+ * A ColumnComputer whose values depend only on the reference sequence and the current position, and not
+ * on any of the reads. When several samples are examined at the same site the values can be computed
+ * once and shared by all of them.
+ * @author brendan
+ *
+ */
+public interface ReferenceComputer extends ColumnComputer {
+
+}
@@ -1,10 +1,8 @@
 package snpsvm.counters;
 
-import java.util.Iterator;
-
 import snpsvm.bamreading.AlignmentColumn;
+import snpsvm.bamreading.ColumnSummary;
 import snpsvm.bamreading.FastaWindow;
-import snpsvm.bamreading.MappedRead;
 
 public class StrandBiasComputer implements ColumnComputer {
 
@@ -30,35 +28,13 @@ public class StrandBiasComputer implements ColumnComputer {
 	
 	@Override
 	public double[] computeValue(final char refBase, FastaWindow window, AlignmentColumn col) {
-		value[0] = 0.0;
-		forward[0] = 1.0; //prevents divide by zero errors
-		forward[1] = 1.0;
-		reverse[0] = 1.0;
-		reverse[1] = 1.0;
-		
-		if (col.getDepth() > 0) {
-			Iterator<MappedRead> it = col.getIterator();
-			while(it.hasNext()) {
-				MappedRead read = it.next();
-				if (read.hasBaseAtReferencePos(col.getCurrentPosition())) {
-					byte b = read.getBaseAtReferencePos(col.getCurrentPosition());
-					if (b == 'N') 
-						continue;
-					
-					int index = 0;
-					if ( b != refBase)
-						index = 1;
-					
-					if (read.getRecord().getFirstOfPairFlag())
-						forward[index]++;
-					else 
-						reverse[index]++;
-					
-				}
-			}
+		ColumnSummary sum = col.getSummary(refBase, window);
+		for(int index=0; index<2; index++) {
+			int first = sum.getFirstOfPairCount(index);
+			forward[index] = 1.0 + first; //prevents divide by zero errors
+			reverse[index] = 1.0 + sum.getCount(index) - first;
 		}
-		
-		
+
 		value[0] = (forward[1]/reverse[1] - 0.5)*(forward[1]/reverse[1] - 0.5) / 0.5;
 		value[0] += (forward[0]/reverse[0] - 0.5)*(forward[0]/reverse[0] - 0.5) / 0.5;
 		
@@ -1,66 +1,54 @@
 package snpsvm.counters;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 
+import snpsvm.app.CommandLineApp;
 import snpsvm.bamreading.AlignmentColumn;
 import snpsvm.bamreading.FastaWindow;
+import snpsvm.bamreading.FrequencyTrack;
+import snpsvm.bamreading.FrequencyTrack.ContigFrequencies;
 
 /**
- * Computes the frequency in 1000 Genomes of variants at the site
+ * Computes the frequency in 1000 Genomes of variants at the site. The frequencies are read from a file
+ * created by the convert-freqs module, whose location is given by the 'tgpfreqs' config property (or
+ * setFrequencyFile(..)). The file is shared by all counters, and each counter keeps a cursor into
+ * the current contig, since sites are visited in increasing order
  * @author brendan
  *
  */
-public class TGPCounter implements ColumnComputer {
+public class TGPCounter implements ReferenceComputer {
+
+	public static final String FREQ_FILE_PROPERTY = "tgpfreqs";
+
+	private static File frequencyFile = null;
 
 	final double[] value = new double[1];
-	
-	static final Map<String, Map<Integer, Integer>> map = Collections.synchronizedMap( new HashMap<String, Map<Integer, Integer>>());
-	static boolean initialized = false;
-	static boolean initializing = false;
-	
-	static String dataFilePath = "/home/brendan/workspace/SNPSVM/1000G.freqdata.csv";
-	
-	static {
-		initializing = true;
-		try {
-			BufferedReader reader = new BufferedReader(new FileReader(dataFilePath));
-			String line =reader.readLine();
-			while(line != null) {
-				String[] toks = line.split("\t");
-				if (toks.length != 6) {
-					line= reader.readLine();
-					continue;
-				}
-				String contig = toks[0];
-				Integer pos = Integer.parseInt(toks[1]);
-				Double freq = Double.parseDouble(toks[5]);
-				Integer intFreq = (int)(freq*10000.0);
-				
-				if (! map.containsKey(contig)) {
-					Map<Integer, Integer> contigMap = new HashMap<Integer, Integer>(100000);
-					map.put(contig, contigMap);
-				}
-				
-				Map<Integer, Integer> contigMap = map.get(contig);
-				contigMap.put(pos, intFreq);
-				
-				line = reader.readLine();
+
+	private FrequencyTrack track = null;
+	private String currentContig = null;
+	private ContigFrequencies sites = null; //Known sites in current contig, null if there are none
+	private int cursor = 0; //Index of the first known site at or after the last position looked up
+
+	/**
+	 * Set the frequency file used by counters that haven't yet computed a value, overriding the config property
+	 * @param file
+	 */
+	public static synchronized void setFrequencyFile(File file) {
+		frequencyFile = file;
+	}
+
+	private static synchronized File getFrequencyFile() {
+		if (frequencyFile == null) {
+			String path = CommandLineApp.configModule.getProperty(FREQ_FILE_PROPERTY);
+			if (path == null) {
+				throw new IllegalStateException("No 1000 Genomes frequency file configured, set one with config -add " + FREQ_FILE_PROPERTY + "=/path/to/file" + FrequencyTrack.SUFFIX);
 			}
-			initialized = true;
-			reader.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			
+			frequencyFile = new File(path);
 		}
-		initializing = false;
+		return frequencyFile;
 	}
-	
+
 	@Override
 	public String getName() {
 		return "1000G.freq";
@@ -76,43 +64,51 @@ public class TGPCounter implements ColumnComputer {
 		return "Frequency in 1000 Genomes project";
 	}
 
-	private boolean isInitializing() {
-		return initializing;
-	}
-	
 	@Override
 	public double[] computeValue(char refBase, FastaWindow window,
 			AlignmentColumn col) {
 
-		while( isInitializing() ) {
-			System.out.println("Waiting for initialization to complete..");
-			try {
-				Thread.sleep(250);
-			} catch (InterruptedException e) {
-			}
-			
+		final int pos = col.getCurrentPosition();
+		if (! col.getCurrentContig().equals(currentContig)) {
+			loadContig(col.getCurrentContig());
 		}
-		
-		if (! initialized) {
-			throw new IllegalStateException("Map has not been initialized!");
-		}
-		
-		Map<Integer, Integer> contigMap = map.get(col.getCurrentContig());
-		
+
 		value[0] = -1;
-		if (contigMap != null) {
-			Integer freqInt = contigMap.get(col.getCurrentPosition());
-			if (freqInt != null) {
-				//double freq =  ((double)freqInt) / 10920.0;
-				//freq= Math.exp( freq * freq );
-				//System.out.println("Freq at pos: " + col.getCurrentContig() + ":" + col.getCurrentPosition() + ":" + freq + "\t" + col.getBasesAsString());
-				//freq = (freq/Math.exp(1.0))*1.9 - 1.0;
+		if (sites != null) {
+			//Positions only move forward within a chunk, so usually the cursor just needs to step ahead
+			//a few sites. After a jump backwards, or far ahead, fall back to a binary search
+			if (cursor > 0 && sites.getPosition(cursor-1) >= pos) {
+				cursor = sites.lowerBound(pos);
+			}
+			int steps = 0;
+			while(cursor < sites.size() && sites.getPosition(cursor) < pos) {
+				cursor++;
+				steps++;
+				if (steps == 16) {
+					cursor = sites.lowerBound(pos);
+					break;
+				}
+			}
+
+			if (cursor < sites.size() && sites.getPosition(cursor) == pos) {
 				value[0] = 1.0;
 			}
-			
 		}
-		
+
 		return value;
 	}
 
+	private void loadContig(String contig) {
+		try {
+			if (track == null) {
+				track = FrequencyTrack.forFile(getFrequencyFile());
+			}
+			sites = track.getContig(contig);
+		}
+		catch (IOException ex) {
+			throw new IllegalStateException("Could not read 1000 Genomes frequencies : " + ex.getMessage(), ex);
+		}
+		currentContig = contig;
+		cursor = 0;
+	}
 }
@@ -0,0 +1,48 @@
+package snpsvm.counters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import snpsvm.bamreading.AlignmentColumn;
+import snpsvm.bamreading.FastaWindow;
+
+/**
+ * Stands in for a counter whose columns aren't used by the model (they are zero in every support vector),
+ * so it doesn't need to be computed. Always produces zeros, which aren't written to the data, so the
+ * columns of the counters after it keep their numbers. Created by FeatureManifest.createCounters(..)
+ * @author brendan
+ *
+ */
+class UnusedCounter implements ColumnComputer {
+
+	private final String name;
+	private final List<String> columns;
+	private final double[] values;
+
+	UnusedCounter(String name, List<String> columns) {
+		this.name = name;
+		this.columns = new ArrayList<String>(columns);
+		this.values = new double[columns.size()];
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return values.length;
+	}
+
+	@Override
+	public String getColumnDesc(int which) {
+		return columns.get(which);
+	}
+
+	@Override
+	public double[] computeValue(char refBase, FastaWindow window, AlignmentColumn col) {
+		return values;
+	}
+
+}
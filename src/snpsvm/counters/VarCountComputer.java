@@ -1,10 +1,8 @@
 package snpsvm.counters;
 
-import java.util.Iterator;
-
 import snpsvm.bamreading.AlignmentColumn;
+import snpsvm.bamreading.ColumnSummary;
 import snpsvm.bamreading.FastaWindow;
-import snpsvm.bamreading.MappedRead;
 
 /**
  * Counts the number of times each base appears
@@ -41,29 +39,14 @@ public class VarCountComputer implements ColumnComputer {
 
 	@Override
 	public double[] computeValue(final char refBase, FastaWindow window, AlignmentColumn col) {
-		values[ref] = 0.0;
-		values[alt] = 0.0;
-		if (col.getDepth() > 0) {
-			Iterator<MappedRead> it = col.getIterator();
-			while(it.hasNext()) {
-				MappedRead read = it.next();
-				if (read.hasBaseAtReferencePos(col.getCurrentPosition())) {
-					byte b = read.getBaseAtReferencePos(col.getCurrentPosition());
-					if (b == 'N') 
-						continue;
-					if (b == refBase)
-						values[ref]++;
-					else
-						values[alt]++;
-				}
-			}
-		}
+		ColumnSummary sum = col.getSummary(refBase, window);
+		values[ref] = sum.getCount(ColumnSummary.REF);
+		values[alt] = sum.getCount(ColumnSummary.ALT);
 		
 		values[ref] = Math.min(100, values[ref]);
 		values[alt] = Math.min(100, values[alt]);
 		values[ref] = values[ref] / 100.0 * 2.0 - 1.0;
 		values[alt] = values[alt] / 100.0 * 2.0 - 1.0;
-		
 		return values;
 	}
 
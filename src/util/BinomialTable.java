@@ -0,0 +1,111 @@
+package util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Precomputed natural-log binomial probabilities for one success probability p, for every number of trials
+ * up to MAX_N. The genotype calculations cap depth at 250 and only ever use a handful of values of p, so a lookup
+ * replaces the nChooseK loop and two Math.pow calls they used to do for every site, and working in log space
+ * means very unlikely outcomes don't underflow to zero.
+ * Obtain the shared table for a given p with forProbability(p).
+ * @author brendan
+ *
+ */
+public class BinomialTable {
+
+	public static final int MAX_N = 250; //Tables cover 0..MAX_N trials; larger n is computed directly
+
+	private static final double[] logFactorials = new double[MAX_N+1];
+	static {
+		logFactorials[0] = 0.0;
+		for(int i=1; i<=MAX_N; i++) {
+			logFactorials[i] = logFactorials[i-1] + java.lang.Math.log(i);
+		}
+	}
+
+	private static final ConcurrentMap<Double, BinomialTable> tables = new ConcurrentHashMap<Double, BinomialTable>();
+
+	private final double p;
+	private final double logP;
+	private final double logQ;
+	private final double[][] logPMF; //logPMF[n][k]
+
+	private BinomialTable(double p) {
+		this.p = p;
+		logP = java.lang.Math.log(p);
+		logQ = java.lang.Math.log(1.0 - p);
+		logPMF = new double[MAX_N+1][];
+		for(int n=0; n<=MAX_N; n++) {
+			logPMF[n] = new double[n+1];
+			for(int k=0; k<=n; k++) {
+				logPMF[n][k] = compute(k, n);
+			}
+		}
+	}
+
+	/**
+	 * Obtain the (shared) table for the given probability of success, building it if this is the first request
+	 * @param p
+	 * @return
+	 */
+	public static BinomialTable forProbability(double p) {
+		BinomialTable table = tables.get(p);
+		if (table == null) {
+			table = new BinomialTable(p);
+			BinomialTable existing = tables.putIfAbsent(p, table);
+			if (existing != null)
+				table = existing;
+		}
+		return table;
+	}
+
+	public double getProbability() {
+		return p;
+	}
+
+	/**
+	 * Natural log of the probability of k successes in n trials, -Infinity if k is not in 0..n
+	 * @param k
+	 * @param n
+	 * @return
+	 */
+	public double logPMF(int k, int n) {
+		if (k < 0 || k > n) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		if (n <= MAX_N) {
+			return logPMF[n][k];
+		}
+		return compute(k, n);
+	}
+
+	/**
+	 * Probability of k successes in n trials
+	 * @param k
+	 * @param n
+	 * @return
+	 */
+	public double pmf(int k, int n) {
+		return java.lang.Math.exp(logPMF(k, n));
+	}
+
+	private double compute(int k, int n) {
+		double logChoose = logFactorial(n) - logFactorial(k) - logFactorial(n-k);
+		//Avoid 0 * -Infinity when p is 0 or 1
+		double logSuccess = k == 0 ? 0.0 : k * logP;
+		double logFailure = n == k ? 0.0 : (n-k) * logQ;
+		return logChoose + logSuccess + logFailure;
+	}
+
+	private static double logFactorial(int n) {
+		if (n <= MAX_N) {
+			return logFactorials[n];
+		}
+		double sum = logFactorials[MAX_N];
+		for(int i=MAX_N+1; i<=n; i++) {
+			sum += java.lang.Math.log(i);
+		}
+		return sum;
+	}
+}
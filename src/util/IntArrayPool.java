@@ -0,0 +1,77 @@
+package util;
+
+/**
+ * A simple pool of int arrays, bucketed by power-of-two length, so that short-lived arrays can
+ * be recycled instead of allocated over and over. Arrays handed out may be longer than requested
+ * and are not cleared. This is not thread safe, so each user (typically a BamWindow) should have its own.
+ * @author brendan
+ *
+ */
+public class IntArrayPool {
+
+	private static final int MIN_BUCKET = 4; //Smallest arrays handed out have 2^MIN_BUCKET elements
+	private static final int MAX_BUCKET = 24; //Arrays bigger than 2^MAX_BUCKET are never pooled
+
+	private final int maxPerBucket;
+	private final int[][][] free = new int[MAX_BUCKET+1][][];
+	private final int[] freeCount = new int[MAX_BUCKET+1];
+
+	/**
+	 * Create a new pool that will hold on to at most maxPerBucket arrays of each size
+	 * @param maxPerBucket
+	 */
+	public IntArrayPool(int maxPerBucket) {
+		this.maxPerBucket = maxPerBucket;
+	}
+
+	/**
+	 * Obtain an array with at least minLength elements
+	 * @param minLength
+	 * @return
+	 */
+	public int[] acquire(int minLength) {
+		int bucket = bucketFor(minLength);
+		if (bucket > MAX_BUCKET) {
+			return new int[minLength];
+		}
+
+		if (freeCount[bucket] > 0) {
+			freeCount[bucket]--;
+			int[] arr = free[bucket][freeCount[bucket]];
+			free[bucket][freeCount[bucket]] = null;
+			return arr;
+		}
+		return new int[1 << bucket];
+	}
+
+	/**
+	 * Return an array to the pool so it can be handed out again. Arrays that didn't come
+	 * from this pool are ignored
+	 * @param arr
+	 */
+	public void release(int[] arr) {
+		int len = arr.length;
+		if (Integer.bitCount(len) != 1) {
+			return;
+		}
+		int bucket = Integer.numberOfTrailingZeros(len);
+		if (bucket < MIN_BUCKET || bucket > MAX_BUCKET) {
+			return;
+		}
+
+		if (free[bucket] == null) {
+			free[bucket] = new int[maxPerBucket][];
+		}
+		if (freeCount[bucket] < maxPerBucket) {
+			free[bucket][freeCount[bucket]] = arr;
+			freeCount[bucket]++;
+		}
+	}
+
+	private static int bucketFor(int length) {
+		if (length <= (1 << MIN_BUCKET)) {
+			return MIN_BUCKET;
+		}
+		return 32 - Integer.numberOfLeadingZeros(length-1);
+	}
+}
@@ -0,0 +1,122 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs using open addressing with linear probing, for counting distinct keys
+ * without allocating an object per key. Clearing takes constant time (each slot is stamped with the
+ * generation in which it was filled, and clear() just starts a new generation), so one instance can be
+ * reused for every site. Elements can't be removed. Not thread safe.
+ * @author brendan
+ *
+ */
+public class LongSet {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private int[] stamps; //Slot i is occupied if stamps[i] == generation
+	private int generation = 1;
+	private int mask;
+	private int size = 0;
+
+	public LongSet() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * Create a set that can hold about expectedSize elements before it needs to grow
+	 * @param expectedSize
+	 */
+	public LongSet(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while(capacity < 2*expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		stamps = new int[capacity];
+		mask = capacity - 1;
+		generation = 1;
+		size = 0;
+	}
+
+	/**
+	 * Add the key to the set, returning true if it wasn't already present
+	 * @param key
+	 * @return
+	 */
+	public boolean add(long key) {
+		int i = hash(key) & mask;
+		while(stamps[i] == generation) {
+			if (keys[i] == key)
+				return false;
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		stamps[i] = generation;
+		size++;
+		if (2*size > keys.length) {
+			grow();
+		}
+		return true;
+	}
+
+	public boolean contains(long key) {
+		int i = hash(key) & mask;
+		while(stamps[i] == generation) {
+			if (keys[i] == key)
+				return true;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Number of distinct keys added since the last clear()
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all keys
+	 */
+	public void clear() {
+		size = 0;
+		generation++;
+		if (generation == Integer.MAX_VALUE) {
+			//Stamps from old generations could collide after wrapping around, so start over
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldStamps = stamps;
+		int oldGeneration = generation;
+		allocate(2*oldKeys.length);
+		for(int i=0; i<oldKeys.length; i++) {
+			if (oldStamps[i] == oldGeneration)
+				add(oldKeys[i]);
+		}
+	}
+
+	/**
+	 * Spread the bits of the key so that keys differing only in their high bits (such as
+	 * packed coordinate pairs) don't all land in the same slots
+	 */
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int)key;
+	}
+}
@@ -17,7 +17,38 @@ public class Math {
 	 * @return
 	 */
 	public static double binomPDF(int k, int n, double p) {		
-		return nChooseK(n, k) * java.lang.Math.pow(p, k) * java.lang.Math.pow(1.0-p, n-k);
+		return BinomialTable.forProbability(p).pmf(k, n);
+	}
+	
+	/**
+	 * Natural log of binomPDF(k, n, p), which doesn't underflow for very unlikely outcomes
+	 * @param k
+	 * @param n
+	 * @param p
+	 * @return
+	 */
+	public static double logBinomPDF(int k, int n, double p) {
+		return BinomialTable.forProbability(p).logPMF(k, n);
+	}
+	
+	/**
+	 * Computes log(exp(a) + exp(b) + ...) without underflow, by factoring out the largest term
+	 * @param logValues
+	 * @return
+	 */
+	public static double logSumExp(double... logValues) {
+		double max = Double.NEGATIVE_INFINITY;
+		for(int i=0; i<logValues.length; i++) {
+			max = java.lang.Math.max(max, logValues[i]);
+		}
+		if (Double.isInfinite(max)) {
+			return max;
+		}
+		double sum = 0;
+		for(int i=0; i<logValues.length; i++) {
+			sum += java.lang.Math.exp(logValues[i] - max);
+		}
+		return max + java.lang.Math.log(sum);
 	}
 	
 	/**
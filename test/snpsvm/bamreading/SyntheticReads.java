@@ -0,0 +1,207 @@
+package snpsvm.bamreading;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+
+/**
+ * Generates a random reference contig and batches of made-up, properly paired reads at a chosen depth over
+ * regions of it, for timing and checking the code that works on pileups without needing a BAM file or a FASTA.
+ * Read bases are copied from the reference with occasional substitutions, some reads have a short insertion
+ * or deletion, and qualities, strands and mapping qualities are random. Each fragment can be sequenced several times, giving
+ * duplicate reads with the same start and mate start; reads are named fragment/copy, and no two fragments share
+ * a start and mate start, so the number of distinct fragments among any set of reads is known exactly.
+ * The same seed always gives the same reads.
+ * @author brendan
+ *
+ */
+public class SyntheticReads {
+
+	public static final int READ_LENGTH = 100;
+	public static final int FRAGMENT_LENGTH = 300; //Mean distance from read start to the far end of its mate
+
+	private static final double SUBSTITUTION_RATE = 0.01;
+	private static final double INDEL_FRACTION = 0.1; //Fraction of reads with an insertion or deletion
+	private static final int MAX_INDEL = 3; //Longest insertion or deletion
+	private static final char[] BASES = new char[]{'A', 'C', 'G', 'T'};
+
+	private final char[] reference; //Base at each position of the contig, reference[0] is position 1
+	private final String contig;
+	private final SAMFileHeader header;
+	private final Random rng;
+	private final HashSet<Long> fragmentKeys = new HashSet<Long>(); //Start and mate start of every fragment made
+	private int fragmentCount = 0;
+
+	public SyntheticReads(String contig, int contigLength, long seed) {
+		this.contig = contig;
+		rng = new Random(seed);
+		reference = new char[contigLength];
+		for(int i=0; i<contigLength; i++) {
+			reference[i] = BASES[rng.nextInt(4)];
+		}
+		List<SAMSequenceRecord> seqs = new ArrayList<SAMSequenceRecord>();
+		seqs.add(new SAMSequenceRecord(contig, contigLength));
+		header = new SAMFileHeader();
+		header.setSequenceDictionary(new SAMSequenceDictionary(seqs));
+	}
+
+	public String getContig() {
+		return contig;
+	}
+
+	public int getContigLength() {
+		return reference.length;
+	}
+
+	/**
+	 * Reference base at the given (1-based) position of the contig
+	 * @param pos
+	 * @return
+	 */
+	public char getReferenceBase(int pos) {
+		return reference[pos-1];
+	}
+
+	/**
+	 * Write the reference contig to a temporary FASTA file with a .fai index, for code that needs a
+	 * SharedReference. Both, and the packed reference made from them, are deleted when the JVM exits
+	 * @return The FASTA file
+	 * @throws IOException
+	 */
+	public File writeFasta() throws IOException {
+		final int lineBases = 60;
+		File fasta = File.createTempFile("synthetic", ".fa");
+		fasta.deleteOnExit();
+		String header = ">" + contig + "\n";
+		BufferedWriter writer = new BufferedWriter(new FileWriter(fasta));
+		writer.write(header);
+		for(int i=0; i<reference.length; i+=lineBases) {
+			writer.write(reference, i, Math.min(lineBases, reference.length - i));
+			writer.write("\n");
+		}
+		writer.close();
+
+		File index = new File(fasta.getAbsolutePath() + ".fai");
+		index.deleteOnExit();
+		new File(fasta.getAbsolutePath() + PackedReference.SUFFIX).deleteOnExit(); //Created by SharedReference
+		writer = new BufferedWriter(new FileWriter(index));
+		writer.write(contig + "\t" + reference.length + "\t" + header.length() + "\t" + lineBases + "\t" + (lineBases+1) + "\n");
+		writer.close();
+		return fasta;
+	}
+
+	/**
+	 * Create a batch of reads covering [start, end) of the contig to approximately the given depth, in which every
+	 * fragment is sequenced the given number of times. Reads start up to READ_LENGTH bases before start, so the
+	 * depth is even over the whole region. Reads may carry a deletion of up to MAX_INDEL bases, so end must
+	 * be at least READ_LENGTH + MAX_INDEL bases before the end of the contig
+	 * @param start
+	 * @param end
+	 * @param depth
+	 * @param copies Number of reads from each fragment
+	 * @return
+	 */
+	public RecordBatch makeBatch(int start, int end, int depth, int copies) {
+		if (end + READ_LENGTH + MAX_INDEL > reference.length + 1) {
+			throw new IllegalArgumentException("Region ends too close to the end of the contig (length " + reference.length + ")");
+		}
+		int first = Math.max(1, start - READ_LENGTH + 1);
+		int fragments = (int)((long)depth * (end - first) / READ_LENGTH / copies);
+		List<SAMRecord> reads = new ArrayList<SAMRecord>(fragments * copies);
+		for(int i=0; i<fragments; i++) {
+			int readStart = first + rng.nextInt(end - first);
+			int mateStart = readStart + FRAGMENT_LENGTH - READ_LENGTH + rng.nextInt(41) - 20;
+			while(! fragmentKeys.add(((long)readStart << 32) | mateStart)) {
+				mateStart++;
+			}
+			for(int j=0; j<copies; j++) {
+				reads.add(makeRead("frag" + fragmentCount + "/" + j, readStart, mateStart));
+			}
+			fragmentCount++;
+		}
+		Collections.sort(reads, new Comparator<SAMRecord>() {
+			public int compare(SAMRecord a, SAMRecord b) {
+				return a.getAlignmentStart() - b.getAlignmentStart();
+			}
+		});
+
+		RecordBatch batch = new RecordBatch(contig, start, end);
+		for(SAMRecord read : reads) {
+			batch.add(read);
+		}
+		return batch;
+	}
+
+	/**
+	 * Create one read starting at the given position with the given mate start
+	 */
+	private SAMRecord makeRead(String name, int start, int mateStart) {
+		StringBuilder bases = new StringBuilder(READ_LENGTH);
+		String cigar = READ_LENGTH + "M";
+		int refPos = start;
+		if (rng.nextDouble() < INDEL_FRACTION) {
+			int left = READ_LENGTH/4 + rng.nextInt(READ_LENGTH/2);
+			int length = 1 + rng.nextInt(MAX_INDEL);
+			appendReference(bases, refPos, left);
+			refPos += left;
+			if (rng.nextBoolean()) {
+				cigar = left + "M" + length + "D" + (READ_LENGTH - left) + "M";
+				refPos += length;
+			}
+			else {
+				cigar = left + "M" + length + "I" + (READ_LENGTH - left - length) + "M";
+				for(int i=0; i<length; i++) {
+					bases.append(BASES[rng.nextInt(4)]);
+				}
+			}
+		}
+		appendReference(bases, refPos, READ_LENGTH - bases.length());
+
+		byte[] quals = new byte[READ_LENGTH];
+		for(int i=0; i<quals.length; i++) {
+			quals[i] = (byte)(2 + rng.nextInt(39));
+		}
+
+		SAMRecord read = new SAMRecord(header);
+		read.setReadName(name);
+		read.setReferenceName(contig);
+		read.setAlignmentStart(start);
+		read.setCigarString(cigar);
+		read.setReadBases(bases.toString().getBytes());
+		read.setBaseQualities(quals);
+		read.setMappingQuality(20 + rng.nextInt(41));
+		read.setReadPairedFlag(true);
+		read.setProperPairFlag(true);
+		read.setFirstOfPairFlag(rng.nextBoolean());
+		read.setReadNegativeStrandFlag(rng.nextBoolean());
+		read.setMateReferenceName(contig);
+		read.setMateAlignmentStart(mateStart);
+		read.setInferredInsertSize(mateStart + READ_LENGTH - start);
+		return read;
+	}
+
+	/**
+	 * Append the reference bases from pos onwards, substituting a random base for a few of them
+	 */
+	private void appendReference(StringBuilder bases, int pos, int count) {
+		for(int i=0; i<count; i++) {
+			char base = getReferenceBase(pos + i);
+			if (rng.nextDouble() < SUBSTITUTION_RATE) {
+				base = BASES[rng.nextInt(4)];
+			}
+			bases.append(base);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package snpsvm.counters;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import snpsvm.bamreading.AlignmentColumn;
+import snpsvm.bamreading.BamWindow;
+import snpsvm.bamreading.ColumnSummary;
+import snpsvm.bamreading.MappedRead;
+import snpsvm.bamreading.RecordBatch;
+import snpsvm.bamreading.SharedReference;
+import snpsvm.bamreading.SyntheticReads;
+import util.LongSet;
+
+/**
+ * Regression check and timing for util.LongSet and the DuplicateCounter that uses it. First LongSet is compared
+ * with a HashSet<Long> on random keys, reusing one instance across many clear() calls and letting it grow. Then
+ * synthetic pileups over a random reference contig (see SyntheticReads) are generated in which every fragment is sequenced
+ * a known number of times,
+ * and at every site the DuplicateCounter values are compared with the number of distinct fragments among the
+ * reference and non-reference reads, counted from the read names. Last, counting the distinct pair keys at each site
+ * with a LongSet is timed against a HashSet<Long>. The reference is generated, so no input files are needed; run with
+ *
+ *   java -cp snpsvm.jar:test-classes snpsvm.counters.DuplicateCounterCheck
+ *
+ * Exits with status 1 if any check fails.
+ * @author brendan
+ *
+ */
+public class DuplicateCounterCheck {
+
+	static final int[] DEPTHS = new int[]{30, 300, 3000};
+	static final int[] COPIES = new int[]{1, 2, 5}; //Reads per fragment
+	static final int SITES = 500; //Number of sites checked for each depth and number of copies
+	static final int REGION_START = 1000; //Sites start here, so reads can start before the first site
+	static final int CONTIG_LENGTH = 2000;
+	static final int TIMING_REPEATS = 20; //Times the distinct keys at each site are counted when timing
+
+	public static void main(String[] args) throws Exception {
+		boolean ok = checkLongSet();
+
+		SyntheticReads generator = new SyntheticReads("chr1", CONTIG_LENGTH, 1);
+		SharedReference reference = SharedReference.forReference(generator.writeFasta());
+		Map<String, Integer> contigLengths = new HashMap<String, Integer>();
+		contigLengths.put(generator.getContig(), CONTIG_LENGTH);
+
+		System.out.println("depth\tcopies\tmismatched sites\tLongSet ns/site\tHashSet ns/site");
+		for(int depth : DEPTHS) {
+			for(int copies : COPIES) {
+				RecordBatch batch = generator.makeBatch(REGION_START, REGION_START + SITES, depth, copies);
+				//First pass warms up the JIT, second is timed
+				run(generator, reference, contigLengths, batch);
+				long[] result = run(generator, reference, contigLengths, batch);
+				ok = ok && result[0] == 0;
+				System.out.println(depth + "\t" + copies + "\t" + result[0]
+						+ "\t" + String.format("%.0f", (double)result[1] / SITES / TIMING_REPEATS)
+						+ "\t" + String.format("%.0f", (double)result[2] / SITES / TIMING_REPEATS));
+			}
+		}
+
+		if (! ok) {
+			System.err.println("Duplicate counting checks FAILED");
+			System.exit(1);
+		}
+		System.err.println("All duplicate counting checks passed");
+	}
+
+	/**
+	 * Compare a LongSet with a HashSet<Long> over many rounds of adding random keys (with plenty of repeats,
+	 * and keys differing only in their high bits) and clearing. Returns true if they always agree
+	 */
+	static boolean checkLongSet() {
+		Random rng = new Random(7);
+		LongSet set = new LongSet(4); //Small, so it has to grow
+		HashSet<Long> expected = new HashSet<Long>();
+		for(int round=0; round<2000; round++) {
+			set.clear();
+			expected.clear();
+			int count = rng.nextInt(round % 10 == 0 ? 5000 : 200);
+			int range = 1 + rng.nextInt(2*count + 1);
+			for(int i=0; i<count; i++) {
+				long key = ((long)rng.nextInt(range) << 32) | (round % 3 == 0 ? 0 : rng.nextInt(4));
+				boolean added = set.add(key);
+				if (added != expected.add(key) || set.size() != expected.size()) {
+					System.err.println("LongSet disagrees with HashSet after adding key " + key + " in round " + round);
+					return false;
+				}
+			}
+			for(Long key : expected) {
+				if (! set.contains(key)) {
+					System.err.println("LongSet is missing key " + key + " in round " + round);
+					return false;
+				}
+			}
+			for(int i=0; i<100; i++) {
+				long key = rng.nextLong();
+				if (set.contains(key) != expected.contains(key)) {
+					System.err.println("LongSet contains key " + key + " that was never added, in round " + round);
+					return false;
+				}
+			}
+		}
+		System.err.println("LongSet agrees with HashSet over 2000 rounds");
+		return true;
+	}
+
+	/**
+	 * Move over every site in the batch, checking the DuplicateCounter values against the fragments the reads
+	 * came from, and timing distinct key counting with a LongSet and with a HashSet. Returns the number of sites
+	 * at which the values were wrong, and the nanoseconds spent counting with each set
+	 */
+	private static long[] run(SyntheticReads generator, SharedReference reference, Map<String, Integer> contigLengths, RecordBatch batch) {
+		BamWindow window = new BamWindow(contigLengths);
+		window.setReference(reference);
+		window.setRecordBatch(batch);
+		AlignmentColumn col = new AlignmentColumn(window);
+
+		DuplicateCounter counter = new DuplicateCounter();
+		LongSet longSet = new LongSet(256);
+		HashSet<Long> hashSet = new HashSet<Long>();
+		long wrongSites = 0;
+		long longSetTime = 0;
+		long hashSetTime = 0;
+		long checksum = 0;
+
+		col.advanceTo(generator.getContig(), batch.getStart());
+		for(int pos=batch.getStart(); pos<batch.getEnd(); pos++) {
+			if (pos > batch.getStart()) {
+				col.advance();
+			}
+			final char refBase = generator.getReferenceBase(pos);
+
+			int[] fragments = countFragments(col, refBase);
+			double[] values = counter.computeValue(refBase, null, col);
+			if (values[DuplicateCounter.ref] != scale(fragments[ColumnSummary.REF])
+					|| values[DuplicateCounter.alt] != scale(fragments[ColumnSummary.ALT])) {
+				if (wrongSites < 5) {
+					System.err.println("At position " + pos + " expected " + fragments[0] + " / " + fragments[1] + " distinct fragments, DuplicateCounter gave " + values[0] + " / " + values[1]);
+				}
+				wrongSites++;
+			}
+
+			ColumnSummary sum = col.getSummary(refBase, null);
+			long[] keys = sum.getPairKeys(ColumnSummary.REF);
+			int count = sum.getPairCount(ColumnSummary.REF);
+
+			long start = System.nanoTime();
+			for(int r=0; r<TIMING_REPEATS; r++) {
+				longSet.clear();
+				for(int i=0; i<count; i++) {
+					longSet.add(keys[i]);
+				}
+				checksum += longSet.size();
+			}
+			long middle = System.nanoTime();
+			for(int r=0; r<TIMING_REPEATS; r++) {
+				hashSet.clear();
+				for(int i=0; i<count; i++) {
+					hashSet.add(keys[i]);
+				}
+				checksum -= hashSet.size();
+			}
+			long end = System.nanoTime();
+			longSetTime += middle - start;
+			hashSetTime += end - middle;
+		}
+
+		if (checksum != 0) {
+			System.err.println("LongSet and HashSet counted different numbers of distinct keys");
+			wrongSites++;
+		}
+		return new long[]{wrongSites, longSetTime, hashSetTime};
+	}
+
+	/**
+	 * Number of distinct fragments among the reference and non-reference reads at the current site, from the
+	 * read names, which are fragment/copy. Reads are classified the same way as in ColumnSummary
+	 */
+	private static int[] countFragments(AlignmentColumn col, char refBase) {
+		HashSet<String> refFragments = new HashSet<String>();
+		HashSet<String> altFragments = new HashSet<String>();
+		final int pos = col.getCurrentPosition();
+		Iterator<MappedRead> it = col.getIterator();
+		while(it.hasNext()) {
+			MappedRead read = it.next();
+			//Looking up the base first builds the reference-to-read map for the read if it has indels
+			byte b = read.getBaseAtReferencePos(pos);
+			if (read.refPosToReadPos(pos) == -1 || b == 'N')
+				continue;
+
+			String name = read.getRecord().getReadName();
+			String fragment = name.substring(0, name.indexOf('/'));
+			if (b == refBase)
+				refFragments.add(fragment);
+			else
+				altFragments.add(fragment);
+		}
+		return new int[]{refFragments.size(), altFragments.size()};
+	}
+
+	/**
+	 * The DuplicateCounter value for the given number of distinct fragments
+	 */
+	private static double scale(int fragments) {
+		int grainSize = 1000;
+		return Math.min(grainSize, fragments) / (double)grainSize * 2.0 - 1.0;
+	}
+}